@@ -15,6 +15,11 @@ import java.util.ArrayList;
  */
 public class Batch
 {
+	/**
+	 * Number of results printed per query.
+	 */
+	protected static final int DEPTH = 500;
+
 	protected File pathToQueries;
 
 	protected RetrievalModel model;
@@ -74,7 +79,8 @@ public class Batch
 			String queryId = query.item1;
 			String queryText = query.item2;
 
-			ArrayList<Tuple<Integer, Double>> results = this.model.runQuery(queryText, this.index, this.docProcessor);
+			ArrayList<Tuple<Integer, Double>> results = this.model.runQuery(queryText, this.index, this.docProcessor,
+					Batch.DEPTH);
 			this.printResults(results, queryId);
 		}
 	}
@@ -88,9 +94,9 @@ public class Batch
 	 */
 	protected void printResults(ArrayList<Tuple<Integer, Double>> results, String queryId)
 	{
-		for (int i = 0; i < results.size() && i < 500; i++) {
-			String docName = this.index.documents.get(results.get(i).item1).item1;
+		for (int i = 0; i < results.size() && i < Batch.DEPTH; i++) {
+			String docName = this.index.getDocName(results.get(i).item1);
 			System.out.println(queryId + "\tQ0\t" + docName + "\t" + (i + 1) + "\t" + results.get(i).item2 + "\tsys");
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
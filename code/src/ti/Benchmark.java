@@ -0,0 +1,422 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * This class contains benchmarks of the search engine, that print their results to {@link System#err}.
+ */
+public class Benchmark
+{
+    /**
+     * Seed of the random generators, so that every run measures the same operations.
+     */
+    protected static final long SEED = 2011;
+
+    /**
+     * Measures the latency of reading random cached documents from the {@link DocumentStore} of a loaded index, and
+     * from the legacy per-document files if the index still has them.
+     *
+     * @param index the loaded index.
+     * @param reads the number of documents to read.
+     * @throws Exception if an error occurs while reading a document.
+     */
+    public static void benchDocuments(Index index, int reads) throws Exception
+    {
+        int[] docIDs = new Random(SEED).ints(reads, 0, index.getNumDocuments()).toArray();
+        if (index.documentStore != null)
+            Benchmark.benchDocuments("Document store", index, docIDs);
+        if (Paths.get(index.path, "cache0").toFile().exists())
+            // An index that is not loaded reads the per-document files
+            Benchmark.benchDocuments("Per-document files", new Index(index.path), docIDs);
+    }
+
+    /**
+     * Measures the latency of reading the specified cached documents.
+     *
+     * @param label  the name of the measured storage.
+     * @param index  the index to read from.
+     * @param docIDs the IDs of the documents to read.
+     * @throws Exception if an error occurs while reading a document.
+     */
+    protected static void benchDocuments(String label, Index index, int[] docIDs) throws Exception
+    {
+        // Warm up, so that the code is compiled and the files are in the page cache
+        for (int i = 0; i < docIDs.length / 10; i++)
+            index.getCachedDocument(docIDs[i]);
+
+        long[] nanos = new long[docIDs.length];
+        long bytes = 0;
+        for (int i = 0; i < docIDs.length; i++) {
+            long start = System.nanoTime();
+            Tuple<String, String> doc = index.getCachedDocument(docIDs[i]);
+            nanos[i] = System.nanoTime() - start;
+            bytes += doc.item1.length() + doc.item2.length();
+        }
+        Benchmark.printLatencies(label + " (" + docIDs.length + " random reads, "
+                + new DecimalFormat("#.##").format(bytes / 1024d / docIDs.length) + " KB per document)", nanos);
+    }
+
+    /**
+     * Measures the time to load an index with different numbers of threads. The first load of each reads the files
+     * from disk unless they are still in the page cache, and the following ones from the page cache.
+     *
+     * @param path         the path to the index.
+     * @param loadMode     how to load postings.
+     * @param threadCounts the numbers of threads to measure.
+     * @param rounds       the number of times to load the index with each number of threads.
+     * @throws Exception if an error occurs while loading the index.
+     */
+    public static void benchLoad(String path, Index.LoadMode loadMode, int[] threadCounts, int rounds) throws Exception
+    {
+        DecimalFormat df = new DecimalFormat("#.##");
+        System.err.println("Loading the index (" + loadMode.name().toLowerCase() + ", " + rounds + " rounds):");
+        for (int threads : threadCounts) {
+            long first = 0, warm = 0, min = Long.MAX_VALUE;
+            Map<String, Long> structureTimes = new TreeMap<>();
+            for (int round = 0; round < rounds; round++) {
+                Index index = new Index(path);
+                index.setLoadMode(loadMode);
+                index.setLoadThreads(threads);
+                index.load();
+                index.close();
+                if (round == 0)
+                    first = index.loadTime;
+                else {
+                    warm += index.loadTime;
+                    min = Math.min(min, index.loadTime);
+                    index.structureLoadTimes.forEach((structure, time) ->
+                            structureTimes.merge(structure, time, Long::sum));
+                }
+            }
+            System.err.print("  - " + threads + " threads: " + df.format(first / 1e6) + " ms first");
+            if (rounds > 1)
+                System.err.print(", then " + df.format(warm / 1e6 / (rounds - 1)) + " ms on average (min "
+                        + df.format(min / 1e6) + " ms)");
+            System.err.println(".");
+            if (rounds > 1) {
+                // Per structure, so they add up to more than the total when loaded in parallel
+                StringBuilder times = new StringBuilder("    - Per structure, on average after the first:");
+                structureTimes.forEach((structure, time) -> times.append(' ').append(structure).append(' ')
+                        .append(df.format(time / 1e6 / (rounds - 1))).append(" ms,"));
+                times.setCharAt(times.length() - 1, '.');
+                System.err.println(times);
+            }
+        }
+    }
+
+    /**
+     * Compares the top documents retrieved by {@link WandCosine} with WAND and Block-Max WAND pruning, and by {@link
+     * MaxScoreCosine}, to those of the exhaustive {@link Cosine}, and measures how many postings and documents each
+     * one scores and its latency per query. The index must be loaded with the structures that the models require.
+     *
+     * @param index        the loaded index.
+     * @param queries      the queries, as {@code (id, text)} {@link Tuple}s.
+     * @param docProcessor the processor to extract query terms.
+     * @param k            the number of documents to retrieve.
+     * @param rounds       the number of times to run the queries with each model.
+     * @return the number of queries for which some model retrieved other documents or scores.
+     */
+    public static int benchQueries(Index index, ArrayList<Tuple<String, String>> queries, DocumentProcessor docProcessor,
+                                   int k, int rounds)
+    {
+        DecimalFormat df = new DecimalFormat("#.##");
+        String[] labels = {"Exhaustive", "WAND", "Block-Max WAND", "MaxScore"};
+        Cosine[] models = {new Cosine(), new WandCosine(false), new WandCosine(true), new MaxScoreCosine()};
+
+        // Check that the models agree, which also warms them up
+        ArrayList<String> differences = new ArrayList<>();
+        for (Tuple<String, String> query : queries) {
+            ArrayList<Tuple<Integer, Double>> expected = models[0].runQuery(query.item2, index, docProcessor, k);
+            for (int m = 1; m < models.length; m++) {
+                ArrayList<Tuple<Integer, Double>> actual = models[m].runQuery(query.item2, index, docProcessor, k);
+                int i = 0;
+                while (i < Math.min(expected.size(), actual.size())
+                        && expected.get(i).item1.equals(actual.get(i).item1)
+                        && expected.get(i).item2.equals(actual.get(i).item2))
+                    i++;
+                if (i < expected.size() || i < actual.size())
+                    differences.add(labels[m] + ", query " + query.item1 + ": rank " + (i + 1) + " of "
+                            + expected.size() + ", " + (i < expected.size() ? expected.get(i) : "none") + " vs "
+                            + (i < actual.size() ? actual.get(i) : "none"));
+            }
+        }
+        System.err.println("Running " + queries.size() + " queries for the top " + k + " documents (" + rounds
+                + " rounds):");
+        if (!index.hasBounds())
+            System.err.println("  - The index has no bounds, so pruning falls back to exhaustive evaluation.");
+        System.err.println("  - Different documents or scores: " + differences.size() + " queries.");
+        for (String difference : differences)
+            System.err.println("    - " + difference);
+
+        long[][] nanos = new long[models.length][queries.size() * rounds];
+        long[] postings = new long[models.length];
+        long[] documents = new long[models.length];
+        for (int m = 0; m < models.length; m++) {
+            postings[m] = -models[m].getPostingsScored();
+            documents[m] = -models[m].getDocumentsScored();
+        }
+        for (int round = 0; round < rounds; round++)
+            for (int m = 0; m < models.length; m++)
+                for (int q = 0; q < queries.size(); q++) {
+                    long start = System.nanoTime();
+                    models[m].runQuery(queries.get(q).item2, index, docProcessor, k);
+                    nanos[m][round * queries.size() + q] = System.nanoTime() - start;
+                }
+        for (int m = 0; m < models.length; m++) {
+            postings[m] += models[m].getPostingsScored();
+            documents[m] += models[m].getDocumentsScored();
+            double runs = (double) queries.size() * rounds;
+            Benchmark.printLatencies(labels[m] + " (" + df.format(postings[m] / runs) + " postings and "
+                    + df.format(documents[m] / runs) + " documents scored per query"
+                    + (m == 0 ? "" : ", " + df.format(100d * postings[m] / postings[0]) + "% of postings") + ")",
+                    nanos[m]);
+        }
+        return differences.size();
+    }
+
+    /**
+     * Measures the throughput of the first pass of the indexer with different numbers of threads. Each run indexes
+     * the collection into a temporary directory, which is deleted afterwards.
+     *
+     * @param pathToCollection the path to the documents.
+     * @param docProcessor     the processor to extract terms.
+     * @param threadCounts     the numbers of threads to measure.
+     * @throws Exception if an error occurs while indexing.
+     */
+    public static void benchIndexing(File pathToCollection, DocumentProcessor docProcessor, int[] threadCounts)
+            throws Exception
+    {
+        DecimalFormat df = new DecimalFormat("#.##");
+        double[] throughputs = new double[threadCounts.length + 1];
+        for (int i = 0; i <= threadCounts.length; i++) {
+            // The first run warms up the code and the page cache, and is not reported
+            File dir = Files.createTempDirectory("ti-bench").toFile();
+            try {
+                Indexer indexer = new Indexer(dir, pathToCollection, docProcessor);
+                indexer.setThreads(threadCounts[Math.max(0, i - 1)]);
+                Index ind = new Index(dir.getPath());
+                throughputs[i] = indexer.firstPass(ind);
+                if (ind.documentStoreWriter != null)
+                    ind.documentStoreWriter.close();
+            } finally {
+                Index.deleteRecursively(dir);
+            }
+        }
+
+        System.err.println("First pass throughput:");
+        for (int i = 0; i < threadCounts.length; i++)
+            System.err.println("  - " + threadCounts[i] + " threads: " + df.format(throughputs[i + 1])
+                    + " MB/s (speedup " + df.format(throughputs[i + 1] / throughputs[1]) + "x).");
+    }
+
+    /**
+     * Measures the throughput of tokenizing the bodies of a collection, with the {@link HtmlProcessor} tokenizer and
+     * with the regular expressions it used to split and lower case the text, and checks that both give the same
+     * tokens. It also measures the whole processing of the text, with stopwords and stemming through the
+     * {@link StemCache}.
+     *
+     * @param pathToCollection the path to the documents.
+     * @param docProcessor     the processor to tokenize with.
+     * @param rounds           the number of times to tokenize the collection with each tokenizer.
+     * @throws Exception if an error occurs while reading a document.
+     */
+    public static void benchTokenize(File pathToCollection, HtmlProcessor docProcessor, int rounds) throws Exception
+    {
+        DecimalFormat df = new DecimalFormat("#.##");
+        ArrayList<String> bodies = new ArrayList<>();
+        DocumentReader reader = new DocumentReader(StandardCharsets.UTF_8);
+        for (File docFile : Indexer.listDocuments(pathToCollection))
+            bodies.add(docProcessor.parse(reader.readString(docFile)).item2);
+
+        // Check that the tokenizers agree, which also warms them up
+        int mismatches = 0;
+        for (String body : bodies) {
+            ArrayList<String> tokens = new ArrayList<>();
+            docProcessor.tokenize(body, (buffer, offset, length) -> tokens.add(new String(buffer, offset, length)));
+            if (!tokens.equals(Benchmark.regexTokenize(body)))
+                mismatches++;
+        }
+        System.err.println("Tokenizing " + bodies.size() + " documents (" + rounds + " rounds):");
+        System.err.println("  - Different tokens: " + mismatches + " documents.");
+
+        long[] counts = new long[3];
+        long[] nanos = new long[3];
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (String body : bodies)
+                counts[0] += Benchmark.regexTokenize(body).size();
+            nanos[0] += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String body : bodies)
+                docProcessor.tokenize(body, (buffer, offset, length) -> counts[1]++);
+            nanos[1] += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String body : bodies)
+                docProcessor.processText(body, (buffer, offset, length) -> counts[2]++);
+            nanos[2] += System.nanoTime() - start;
+        }
+        System.err.println("  - Regular expressions: " + df.format(counts[0] / (nanos[0] / 1e9) / 1e6)
+                + " M tokens/s (" + counts[0] / rounds + " tokens per round).");
+        System.err.println("  - Tokenizer: " + df.format(counts[1] / (nanos[1] / 1e9) / 1e6) + " M tokens/s ("
+                + counts[1] / rounds + " tokens per round, speedup " + df.format((double) nanos[0] / nanos[1]) + "x).");
+        // Measured by the tokens read, not by the terms left
+        System.err.println("  - Tokenizer, stopwords and stemming: " + df.format(counts[1] / (nanos[2] / 1e9) / 1e6)
+                + " M tokens/s (" + counts[2] / rounds + " terms per round).");
+        docProcessor.getStemCache().printStatistics();
+    }
+
+    /**
+     * Compares the text extracted by two processors from the documents of a collection, and measures how fast they
+     * extract it. Documents are reported when their titles or the terms of their bodies differ, and apart when the
+     * terms are the same but in another order, which indexes the same.
+     *
+     * @param pathToCollection the path to the documents.
+     * @param reference        the processor to compare with.
+     * @param candidate        the processor to check.
+     * @param rounds           the number of times to extract the collection with each processor.
+     * @return the number of documents with different titles or terms.
+     * @throws Exception if an error occurs while reading a document.
+     */
+    public static int benchExtraction(File pathToCollection, DocumentProcessor reference, DocumentProcessor candidate,
+                                      int rounds) throws Exception
+    {
+        DecimalFormat df = new DecimalFormat("#.##");
+        ArrayList<File> docFiles = Indexer.listDocuments(pathToCollection);
+        ArrayList<String> htmls = new ArrayList<>();
+        long bytes = 0;
+        DocumentReader reader = new DocumentReader(StandardCharsets.UTF_8);
+        for (File docFile : docFiles) {
+            htmls.add(reader.readString(docFile));
+            bytes += docFile.length();
+        }
+
+        // Check that the processors agree, which also warms them up
+        int sameText = 0, sameTerms = 0;
+        ArrayList<String> reorderings = new ArrayList<>();
+        ArrayList<String> differences = new ArrayList<>();
+        for (int i = 0; i < htmls.size(); i++) {
+            Tuple<String, String> expected = reference.parse(htmls.get(i));
+            Tuple<String, String> actual = candidate.parse(htmls.get(i));
+            if (expected.item1.equals(actual.item1) && expected.item2.equals(actual.item2))
+                sameText++;
+            ArrayList<String> expectedTerms = reference.processText(expected.item2);
+            ArrayList<String> actualTerms = candidate.processText(actual.item2);
+            if (expected.item1.equals(actual.item1) && expectedTerms.equals(actualTerms)) {
+                sameTerms++;
+                continue;
+            }
+            int j = 0;
+            while (j < Math.min(expectedTerms.size(), actualTerms.size())
+                    && expectedTerms.get(j).equals(actualTerms.get(j)))
+                j++;
+            String difference = docFiles.get(i).getName() + (expected.item1.equals(actual.item1) ? "" : " (title)")
+                    + ": term " + j + " of " + expectedTerms.size() + ", " + Benchmark.context(expectedTerms, j)
+                    + " vs " + Benchmark.context(actualTerms, j);
+            // Text moved by the tree builder (eg. out of tables) yields the same terms in another order, which
+            // does not change the index
+            Collections.sort(expectedTerms);
+            Collections.sort(actualTerms);
+            if (expected.item1.equals(actual.item1) && expectedTerms.equals(actualTerms))
+                reorderings.add(difference);
+            else
+                differences.add(difference);
+        }
+        System.err.println("Extracting " + htmls.size() + " documents (" + rounds + " rounds):");
+        System.err.println("  - Same text: " + sameText + " documents.");
+        System.err.println("  - Same title and terms: " + sameTerms + " documents.");
+        System.err.println("  - Same title and terms in another order: " + reorderings.size() + " documents.");
+        for (String reordering : reorderings)
+            System.err.println("    - " + reordering);
+        System.err.println("  - Different title or terms: " + differences.size() + " documents.");
+        for (String difference : differences)
+            System.err.println("    - " + difference);
+
+        DocumentProcessor[] processors = {reference, candidate};
+        long[] nanos = new long[processors.length];
+        for (int round = 0; round < rounds; round++)
+            for (int p = 0; p < processors.length; p++) {
+                long start = System.nanoTime();
+                for (String html : htmls)
+                    processors[p].parse(html);
+                nanos[p] += System.nanoTime() - start;
+            }
+        for (int p = 0; p < processors.length; p++)
+            System.err.println("  - " + processors[p].getClass().getSimpleName() + ": "
+                    + df.format(bytes * rounds / 1024d / 1024d / (nanos[p] / 1e9)) + " MB/s"
+                    + (p == 0 ? "." : " (speedup " + df.format((double) nanos[0] / nanos[p]) + "x)."));
+        return differences.size();
+    }
+
+    /**
+     * Returns a few terms of a list around a position, to show where two lists differ.
+     *
+     * @param terms the terms.
+     * @param i     the position.
+     * @return the terms.
+     */
+    protected static String context(ArrayList<String> terms, int i)
+    {
+        return terms.subList(Math.max(0, i - 2), Math.min(terms.size(), i + 3)).toString();
+    }
+
+    /**
+     * Tokenizes and lower cases a text with regular expressions, as {@link HtmlProcessor} used to.
+     *
+     * @param text the text.
+     * @return the tokens.
+     */
+    protected static ArrayList<String> regexTokenize(String text)
+    {
+        ArrayList<String> tokens = new ArrayList<>();
+        for (String token : text.replaceAll("[^A-Za-z0-9']", " ").split("\\s+"))
+            tokens.add(token.toLowerCase());
+        return tokens;
+    }
+
+    /**
+     * Prints the mean and percentiles of some latencies.
+     *
+     * @param label the name of the measured operation.
+     * @param nanos the latencies, in nanoseconds.
+     */
+    protected static void printLatencies(String label, long[] nanos)
+    {
+        DecimalFormat df = new DecimalFormat("#.##");
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.err.println(label + ":");
+        System.err.println("  - Mean: " + df.format(Arrays.stream(sorted).average().orElse(0) / 1e3) + " us.");
+        System.err.println("  - Percentiles: p50 " + df.format(Benchmark.percentile(sorted, 0.5) / 1e3)
+                + " us, p90 " + df.format(Benchmark.percentile(sorted, 0.9) / 1e3)
+                + " us, p99 " + df.format(Benchmark.percentile(sorted, 0.99) / 1e3)
+                + " us, max " + df.format(sorted[sorted.length - 1] / 1e3) + " us.");
+    }
+
+    /**
+     * Returns a percentile of some sorted values, by the nearest-rank method.
+     *
+     * @param sorted the values, sorted.
+     * @param p      the percentile, in {@code (0, 1]}.
+     * @return the percentile.
+     */
+    protected static long percentile(long[] sorted, double p)
+    {
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
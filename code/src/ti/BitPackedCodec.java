@@ -0,0 +1,127 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A block codec that packs all gaps in a block with the same number of bits, and likewise all term frequencies.
+ * <p>
+ * The payload of a block is the bit width of the gaps and the bit width of the term frequencies, one byte each,
+ * followed by the packed gaps and the packed term frequencies, each of them padded to a whole byte.
+ */
+public class BitPackedCodec extends BlockCodec
+{
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getID()
+    {
+        return 2;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName()
+    {
+        return "packed";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void encodeBlock(DataOutput out, int[] gaps, int[] tfs, int n) throws IOException
+    {
+        // Gaps and term frequencies are at least 1, so store them minus 1
+        int gapBits = BitPackedCodec.bitWidth(gaps, n);
+        int tfBits = BitPackedCodec.bitWidth(tfs, n);
+        out.writeByte(gapBits);
+        out.writeByte(tfBits);
+        BitPackedCodec.pack(out, gaps, n, gapBits);
+        BitPackedCodec.pack(out, tfs, n, tfBits);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void decodeBlock(ByteBuffer in, int[] gaps, int[] tfs, int n)
+    {
+        int gapBits = in.get();
+        int tfBits = in.get();
+        BitPackedCodec.unpack(in, gaps, n, gapBits);
+        BitPackedCodec.unpack(in, tfs, n, tfBits);
+    }
+
+    /**
+     * Computes the number of bits needed to store every value minus 1.
+     *
+     * @param values the values.
+     * @param n      the number of values.
+     * @return the number of bits.
+     */
+    protected static int bitWidth(int[] values, int n)
+    {
+        int or = 0;
+        for (int i = 0; i < n; i++)
+            or |= values[i] - 1;
+        return 32 - Integer.numberOfLeadingZeros(or);
+    }
+
+    /**
+     * Writes every value minus 1 with the given number of bits.
+     *
+     * @param out    the output to write to.
+     * @param values the values.
+     * @param n      the number of values.
+     * @param bits   the number of bits per value.
+     * @throws IOException if an error occurs while writing.
+     */
+    protected static void pack(DataOutput out, int[] values, int n, int bits) throws IOException
+    {
+        long buffer = 0;
+        int buffered = 0;
+        for (int i = 0; i < n; i++) {
+            buffer |= ((values[i] - 1) & 0xffffffffL) << buffered;
+            buffered += bits;
+            while (buffered >= 8) {
+                out.writeByte((int) buffer);
+                buffer >>>= 8;
+                buffered -= 8;
+            }
+        }
+        if (buffered > 0)
+            out.writeByte((int) buffer);
+    }
+
+    /**
+     * Reads values packed with {@link #pack}, adding 1 back to each of them.
+     *
+     * @param in     the buffer to read from, at its current position.
+     * @param values the array to read the values to.
+     * @param n      the number of values.
+     * @param bits   the number of bits per value.
+     */
+    protected static void unpack(ByteBuffer in, int[] values, int n, int bits)
+    {
+        long mask = (1L << bits) - 1;
+        long buffer = 0;
+        int buffered = 0;
+        for (int i = 0; i < n; i++) {
+            while (buffered < bits) {
+                buffer |= (in.get() & 0xffL) << buffered;
+                buffered += 8;
+            }
+            values[i] = (int) (buffer & mask) + 1;
+            buffer >>>= bits;
+            buffered -= bits;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * A codec that splits postings lists in blocks of {@link #BLOCK_SIZE} postings, storing the gaps between IDs and the
+ * quantized weights.
+ * <p>
+ * A list is stored as its number of postings followed by the blocks. Each block starts with the last ID in the block
+ * and the length in bytes of its payload, so that blocks can be skipped without decoding them; how the payload is
+ * encoded is up to the subclasses.
+ */
+public abstract class BlockCodec extends PostingsCodec
+{
+    /**
+     * Maximum number of postings in a block.
+     */
+    public static final int BLOCK_SIZE = 128;
+
+    /**
+     * Encodes the payload of a block.
+     *
+     * @param out  the output to write to.
+     * @param gaps the gaps between consecutive IDs in the block, all of them greater than {@code 0}.
+     * @param tfs  the term frequencies in the block, all of them greater than {@code 0}.
+     * @param n    the number of postings in the block.
+     * @throws IOException if an error occurs while writing the block.
+     */
+    protected abstract void encodeBlock(DataOutput out, int[] gaps, int[] tfs, int n) throws IOException;
+
+    /**
+     * Decodes the payload of a block.
+     *
+     * @param in   the buffer to read from, at the start of the payload.
+     * @param gaps the array to decode the gaps to.
+     * @param tfs  the array to decode the term frequencies to.
+     * @param n    the number of postings in the block.
+     */
+    protected abstract void decodeBlock(ByteBuffer in, int[] gaps, int[] tfs, int n);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void encode(DataOutput out, PostingsList list, IntToDoubleFunction idf) throws IOException
+    {
+        int[] gaps = new int[BLOCK_SIZE];
+        int[] tfs = new int[BLOCK_SIZE];
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream payloadOut = new DataOutputStream(payload);
+
+        out.writeInt(list.size());
+        int lastID = -1;
+        for (int start = 0; start < list.size(); start += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, list.size() - start);
+            for (int i = 0; i < n; i++) {
+                int id = list.docID(start + i);
+                gaps[i] = id - lastID;
+                tfs[i] = PostingsCodec.quantize(list.weight(start + i), idf.applyAsDouble(id));
+                lastID = id;
+            }
+            payload.reset();
+            this.encodeBlock(payloadOut, gaps, tfs, n);
+            out.writeInt(lastID);
+            out.writeInt(payload.size());
+            out.write(payload.toByteArray());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PostingsCursor cursor(ByteBuffer list, IntToDoubleFunction idf)
+    {
+        return new BlockCursor(list, idf);
+    }
+
+    /**
+     * A cursor that decodes one block at a time.
+     */
+    protected class BlockCursor implements PostingsCursor
+    {
+        protected final ByteBuffer list;
+        protected final IntToDoubleFunction idf;
+        protected final int count;
+        protected final int[] ids = new int[BLOCK_SIZE];
+        protected final int[] tfs = new int[BLOCK_SIZE];
+        /**
+         * Number of postings in the blocks decoded so far.
+         */
+        protected int decoded = 0;
+        /**
+         * Number of postings in the current block.
+         */
+        protected int blockCount = 0;
+        /**
+         * Index of the current posting within the current block.
+         */
+        protected int current = -1;
+        /**
+         * Last ID in the previous block.
+         */
+        protected int lastID = -1;
+
+        protected BlockCursor(ByteBuffer list, IntToDoubleFunction idf)
+        {
+            this.list = list.duplicate();
+            this.idf = idf;
+            this.count = this.list.getInt(0);
+            this.list.position(4);
+        }
+
+        @Override
+        public boolean next()
+        {
+            if (++this.current < this.blockCount)
+                return true;
+            if (this.decoded == this.count)
+                return false;
+            this.decodeNextBlock();
+            return true;
+        }
+
+        @Override
+        public boolean advance(int target)
+        {
+            if (this.current < 0 && !this.next())
+                return false;
+            if (this.current >= this.blockCount)
+                return false;
+            if (this.ids[this.current] >= target)
+                return true;
+
+            // Skip whole blocks by their last ID, without decoding them
+            if (this.ids[this.blockCount - 1] < target) {
+                while (this.decoded < this.count && this.list.getInt(this.list.position()) < target) {
+                    this.lastID = this.list.getInt();
+                    this.list.position(this.list.position() + 4 + this.list.getInt(this.list.position()));
+                    this.decoded += Math.min(BLOCK_SIZE, this.count - this.decoded);
+                }
+                if (this.decoded == this.count) {
+                    this.current = this.blockCount;
+                    return false;
+                }
+                this.decodeNextBlock();
+            }
+            while (this.ids[this.current] < target)
+                this.current++;
+            return true;
+        }
+
+        /**
+         * Decodes the block at the current position of the list and moves the cursor to its first posting.
+         */
+        protected void decodeNextBlock()
+        {
+            int blockLastID = this.list.getInt();
+            int payloadBytes = this.list.getInt();
+            int payloadEnd = this.list.position() + payloadBytes;
+            this.blockCount = Math.min(BLOCK_SIZE, this.count - this.decoded);
+            decodeBlock(this.list, this.ids, this.tfs, this.blockCount);
+            this.list.position(payloadEnd);
+            for (int i = 0; i < this.blockCount; i++) {
+                this.lastID += this.ids[i];
+                this.ids[i] = this.lastID;
+            }
+            this.lastID = blockLastID;
+            this.decoded += this.blockCount;
+            this.current = 0;
+        }
+
+        @Override
+        public int docID()
+        {
+            return this.ids[this.current];
+        }
+
+        @Override
+        public double weight()
+        {
+            int id = this.ids[this.current];
+            return PostingsCodec.dequantize(this.tfs[this.current], this.idf.applyAsDouble(id));
+        }
+
+        @Override
+        public int size()
+        {
+            return this.count;
+        }
+    }
+}
@@ -4,6 +4,10 @@
 package ti;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Implements retrieval in a vector space with the cosine similarity function and a TFxIDF weight formulation,
@@ -32,16 +36,34 @@ public class CosineWithFeedback extends Cosine
 
 	/**
 	 * {@inheritDoc}
+	 * <p>
+	 * Feedback also reads the direct postings of the top documents.
 	 */
 	@Override
-	public ArrayList<Tuple<Integer, Double>> runQuery(String queryText, Index index, DocumentProcessor docProcessor)
+	public EnumSet<Index.Structure> getRequiredStructures()
+	{
+		return EnumSet.of(Index.Structure.INVERTED, Index.Structure.DIRECT);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ArrayList<Tuple<Integer, Double>> runQuery(String queryText, Index index, DocumentProcessor docProcessor, int k)
 	{
 		// P3
 		// Calculate initial results
+		TermCounter terms = new TermCounter();
+		docProcessor.processText(queryText, terms);
+		ArrayList<Tuple<Integer, Double>> queryVector = computeVector(terms, index);
+		// Only the documents considered relevant are needed
+		ArrayList<Tuple<Integer, Double>> results = computeScores(queryVector, index, this.feedbackDepth);
+
 		// Update query vector
-		// Re-run the query
+		ArrayList<Tuple<Integer, Double>> feedbackVector = computeFeedbackVector(queryVector, results, index);
 
-		return null; // return results
+		// Re-run the query
+		return computeScores(feedbackVector, index, k);
 	}
 
 	/**
@@ -59,7 +81,23 @@ public class CosineWithFeedback extends Cosine
 		ArrayList<Tuple<Integer, Double>> weights = new ArrayList<>();
 
 		// P3
+		// Rocchio: q' = alpha * q + beta * centroid of the top documents
+		HashMap<Integer, Double> feedback = new HashMap<>();
+		for (Tuple<Integer, Double> term : queryVector)
+			feedback.put(term.item1, this.feedbackAlpha * term.item2);
+
+		int depth = Math.min(this.feedbackDepth, results.size());
+		for (int i = 0; i < depth; i++) {
+			// Direct postings are read from the index one document at a time
+			PostingsCursor docTerms = index.getDirectPostings(results.get(i).item1);
+			while (docTerms.next())
+				feedback.merge(docTerms.docID(), this.feedbackBeta * docTerms.weight() / depth, Double::sum);
+		}
 
+		for (Map.Entry<Integer, Double> term : feedback.entrySet())
+			weights.add(new Tuple<>(term.getKey(), term.getValue()));
+		// Sort by termID so that scores are accumulated in a deterministic order
+		Collections.sort(weights, (o1, o2) -> o1.item1.compareTo(o2.item1));
 		return weights;
 	}
 }
@@ -0,0 +1,40 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+/**
+ * A cache of cached documents bounded by their size in memory, evicting the least recently used documents first.
+ * Documents are {@link Tuple}s containing the title and body, by {@code docID}.
+ * <p>
+ * It is safe to use from several threads. It must be {@link #clear cleared} when the {@code docID}s of the index
+ * change.
+ */
+public class DocumentCache extends LruCache<Integer, Tuple<String, String>>
+{
+    /**
+     * Estimated memory overhead of a cached document, on top of the characters of its title and body.
+     */
+    protected static final int DOCUMENT_OVERHEAD_BYTES = 128;
+
+    /**
+     * Creates a new cache with the specified capacity.
+     *
+     * @param capacity the maximum size of the cached documents, in bytes.
+     */
+    public DocumentCache(long capacity)
+    {
+        super(capacity, DocumentCache::sizeOf, "Document cache", "documents");
+    }
+
+    /**
+     * Estimates the size in memory of a document.
+     *
+     * @param doc a {@link Tuple} containing the document title and its body.
+     * @return the size in bytes.
+     */
+    protected static long sizeOf(Tuple<String, String> doc)
+    {
+        return DOCUMENT_OVERHEAD_BYTES + 2L * (doc.item1.length() + doc.item2.length());
+    }
+}
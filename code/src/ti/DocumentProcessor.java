@@ -7,9 +7,26 @@ import java.util.ArrayList;
 
 /**
  * This interface defines methods to parse and process the text from documents of a particular tipe (eg, html or text).
+ * <p>
+ * A processor may be used by several threads at once, so it must not keep state between calls.
  */
 public interface DocumentProcessor
 {
+	/**
+	 * Receives the terms of a text one at a time, in a buffer that is reused for the next term.
+	 */
+	interface TermConsumer
+	{
+		/**
+		 * Receives a term. The characters must be copied if they are needed after the call.
+		 *
+		 * @param buffer the buffer with the term.
+		 * @param offset the offset of the term in the buffer.
+		 * @param length the length of the term.
+		 */
+		void accept(char[] buffer, int offset, int length);
+	}
+
 	/**
 	 * Parse the given document content and extract its title and the main body text.
 	 *
@@ -19,11 +36,25 @@ public interface DocumentProcessor
 	 */
 	Tuple<String, String> parse(String docText);
 
+	/**
+	 * Process the given text (tokenize, normalize, etc.) and pass the terms to index to a consumer, in one pass and
+	 * without creating a {@code String} per term.
+	 *
+	 * @param text     the text to process.
+	 * @param consumer the consumer of the index terms, such as a {@link TermCounter}.
+	 */
+	void processText(CharSequence text, TermConsumer consumer);
+
 	/**
 	 * Process the given text (tokenize, normalize, etc.) and return the list of terms to index.
 	 *
 	 * @param text the text to process.
 	 * @return the list of index terms.
 	 */
-	ArrayList<String> processText(String text);
+	default ArrayList<String> processText(String text)
+	{
+		ArrayList<String> terms = new ArrayList<>();
+		this.processText(text, (buffer, offset, length) -> terms.add(new String(buffer, offset, length)));
+		return terms;
+	}
 }
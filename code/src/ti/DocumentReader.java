@@ -0,0 +1,373 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads HTML documents and decodes them with their declared charset, reusing its buffers for all documents.
+ * <p>
+ * Small files are read into a reusable buffer, and large ones are memory-mapped. The buffer is on the heap rather than
+ * direct, because the charset decoders only have a fast path for buffers backed by arrays, and decoding from a direct
+ * buffer is about twice as slow as the copy it saves. The charset is taken from the byte order mark or from a
+ * {@code <meta>} tag at the beginning of the document, as browsers do, and it defaults to the charset of the reader
+ * otherwise. The text is decoded into a pooled buffer, so the only copy of it is the one the processors get. A reader
+ * must not be used by several threads at once.
+ */
+public class DocumentReader
+{
+    /**
+     * Number of bytes at the beginning of a document where its charset is looked for.
+     */
+    public static final int PRESCAN_BYTES = 1024;
+    /**
+     * Size of the files that are memory-mapped instead of read into the buffer.
+     */
+    public static final long MAP_THRESHOLD = 1 << 20;
+
+    protected static final int INITIAL_CAPACITY = 1 << 16;
+    /**
+     * Labels that do not name the charset Java gives them, as browsers decode these documents with a superset.
+     */
+    protected static final HashMap<String, String> LABELS = new HashMap<>();
+
+    static {
+        for (String label : new String[]{"iso-8859-1", "iso8859-1", "latin1", "l1", "us-ascii", "ascii"})
+            LABELS.put(label, "windows-1252");
+        LABELS.put("unicode", "utf-8");
+    }
+
+    protected final Charset defaultCharset;
+    protected final HashMap<Charset, CharsetDecoder> decoders = new HashMap<>();
+    protected ByteBuffer bytes;
+    protected CharBuffer chars;
+
+    protected int documents;
+    protected int mappedDocuments;
+    protected int undeclaredDocuments;
+    protected long bytesRead;
+    protected long charsDecoded;
+    protected long charsCopied;
+    protected long bytesAllocated;
+    protected final HashMap<String, Integer> charsets = new HashMap<>();
+
+    /**
+     * Creates a new reader.
+     *
+     * @param defaultCharset the charset of the documents that do not declare one.
+     */
+    public DocumentReader(Charset defaultCharset)
+    {
+        this.defaultCharset = defaultCharset;
+        this.bytes = ByteBuffer.allocate(INITIAL_CAPACITY);
+        this.chars = CharBuffer.allocate(INITIAL_CAPACITY);
+        this.bytesAllocated = INITIAL_CAPACITY * 3L;
+    }
+
+    /**
+     * Reads and decodes a document.
+     *
+     * @param file the path to the document.
+     * @return the text of the document, in a buffer that is reused for the next document.
+     * @throws IOException if an error occurs while reading the document.
+     */
+    public CharBuffer read(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("The document " + file.getName() + " is too large.");
+            ByteBuffer input;
+            if (size >= MAP_THRESHOLD) {
+                input = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                this.mappedDocuments++;
+            } else {
+                if (size > this.bytes.capacity()) {
+                    this.bytes = ByteBuffer.allocate(DocumentReader.grow(this.bytes.capacity(), (int) size));
+                    this.bytesAllocated += this.bytes.capacity();
+                }
+                input = this.bytes;
+                input.clear();
+                input.limit((int) size);
+                while (input.hasRemaining() && channel.read(input) >= 0)
+                    ;
+                input.flip();
+            }
+            this.documents++;
+            this.bytesRead += input.remaining();
+
+            Charset charset = this.detectCharset(input);
+            this.charsets.merge(charset.name(), 1, Integer::sum);
+            return this.decode(input, charset);
+        }
+    }
+
+    /**
+     * Reads and decodes a document into a string.
+     *
+     * @param file the path to the document.
+     * @return the text of the document.
+     * @throws IOException if an error occurs while reading the document.
+     */
+    public String readString(File file) throws IOException
+    {
+        CharBuffer text = this.read(file);
+        this.charsCopied += text.remaining();
+        return text.toString();
+    }
+
+    /**
+     * Returns the charset of a document, skipping its byte order mark if it has one.
+     *
+     * @param input the bytes of the document, from its current position.
+     * @return the charset declared by the document, or the default charset if it does not declare a supported one.
+     */
+    protected Charset detectCharset(ByteBuffer input)
+    {
+        int start = input.position();
+        int limit = input.limit();
+        if (DocumentReader.startsWith(input, start, limit, 0xEF, 0xBB, 0xBF)) {
+            input.position(start + 3);
+            return StandardCharsets.UTF_8;
+        }
+        if (DocumentReader.startsWith(input, start, limit, 0xFE, 0xFF)) {
+            input.position(start + 2);
+            return StandardCharsets.UTF_16BE;
+        }
+        if (DocumentReader.startsWith(input, start, limit, 0xFF, 0xFE)) {
+            input.position(start + 2);
+            return StandardCharsets.UTF_16LE;
+        }
+
+        // Look for <meta charset="..."> or <meta content="text/html; charset=...">
+        int end = Math.min(limit, start + PRESCAN_BYTES);
+        for (int i = start; (i = DocumentReader.indexOf(input, "<meta", i, end)) >= 0; ) {
+            int tagEnd = i + 5;
+            while (tagEnd < end && input.get(tagEnd) != '>')
+                tagEnd++;
+            int j = DocumentReader.indexOf(input, "charset", i + 5, tagEnd);
+            if (j >= 0) {
+                j += 7;
+                while (j < tagEnd && DocumentReader.isWhitespace(input.get(j)))
+                    j++;
+                if (j < tagEnd && input.get(j) == '=') {
+                    j++;
+                    while (j < tagEnd && (DocumentReader.isWhitespace(input.get(j)) || input.get(j) == '"'
+                            || input.get(j) == '\''))
+                        j++;
+                    int labelStart = j;
+                    while (j < tagEnd && DocumentReader.isLabelChar(input.get(j)))
+                        j++;
+                    byte[] label = new byte[j - labelStart];
+                    for (int k = 0; k < label.length; k++)
+                        label[k] = input.get(labelStart + k);
+                    Charset charset = DocumentReader.forLabel(new String(label, StandardCharsets.US_ASCII));
+                    if (charset != null)
+                        return charset;
+                }
+            }
+            i = tagEnd;
+        }
+        this.undeclaredDocuments++;
+        return this.defaultCharset;
+    }
+
+    /**
+     * Decodes some bytes into the pooled buffer, replacing malformed and unmappable input.
+     *
+     * @param input   the bytes.
+     * @param charset the charset to decode them with.
+     * @return the pooled buffer, ready to be read.
+     */
+    protected CharBuffer decode(ByteBuffer input, Charset charset)
+    {
+        CharsetDecoder decoder = this.decoders.computeIfAbsent(charset, c -> c.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE));
+        decoder.reset();
+        // Text usually has at most one character per byte
+        if (input.remaining() > this.chars.capacity())
+            this.growChars(input.remaining());
+        this.chars.clear();
+        CoderResult result = decoder.decode(input, this.chars, true);
+        while (result.isOverflow()) {
+            this.growChars(this.chars.capacity() + 1);
+            result = decoder.decode(input, this.chars, true);
+        }
+        result = decoder.flush(this.chars);
+        while (result.isOverflow()) {
+            this.growChars(this.chars.capacity() + 1);
+            result = decoder.flush(this.chars);
+        }
+        this.chars.flip();
+        this.charsDecoded += this.chars.remaining();
+        return this.chars;
+    }
+
+    /**
+     * Replaces the pooled character buffer with a larger one, keeping the characters decoded so far.
+     *
+     * @param minCapacity the minimum capacity of the new buffer.
+     */
+    protected void growChars(int minCapacity)
+    {
+        CharBuffer chars = CharBuffer.allocate(DocumentReader.grow(this.chars.capacity(), minCapacity));
+        this.chars.flip();
+        chars.put(this.chars);
+        this.chars = chars;
+        this.bytesAllocated += chars.capacity() * 2L;
+    }
+
+    /**
+     * Returns the capacity to grow a buffer to, doubling it until it fits the given size.
+     *
+     * @param capacity    the current capacity.
+     * @param minCapacity the minimum capacity.
+     * @return the new capacity.
+     */
+    protected static int grow(int capacity, int minCapacity)
+    {
+        while (capacity < minCapacity && capacity < Integer.MAX_VALUE / 2)
+            capacity *= 2;
+        return Math.max(capacity, minCapacity);
+    }
+
+    /**
+     * Returns the charset with the given label, as declared in a document.
+     *
+     * @param label the label.
+     * @return the charset, or {@code null} if it is not supported.
+     */
+    protected static Charset forLabel(String label)
+    {
+        label = label.toLowerCase(Locale.ENGLISH);
+        label = LABELS.getOrDefault(label, label);
+        try {
+            if (label.isEmpty() || !Charset.isSupported(label))
+                return null;
+        } catch (IllegalCharsetNameException ex) {
+            return null;
+        }
+        Charset charset = Charset.forName(label);
+        // A declaration in ASCII can not be right about UTF-16, so browsers use UTF-8
+        if (charset.name().startsWith("UTF-16"))
+            return StandardCharsets.UTF_8;
+        return charset;
+    }
+
+    /**
+     * Checks whether some bytes start with the given ones.
+     *
+     * @param input  the bytes.
+     * @param start  the position to check from.
+     * @param limit  the limit of the bytes.
+     * @param prefix the unsigned values of the bytes to look for.
+     * @return {@code true} if the bytes start with the prefix and {@code false} otherwise.
+     */
+    protected static boolean startsWith(ByteBuffer input, int start, int limit, int... prefix)
+    {
+        if (limit - start < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++)
+            if ((input.get(start + i) & 0xFF) != prefix[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the position of an ASCII string in some bytes, ignoring case.
+     *
+     * @param input the bytes.
+     * @param s     the string to look for, in lower case.
+     * @param from  the position to look from.
+     * @param end   the position where the string must end before.
+     * @return the position of the string, or {@code -1} if it is not found.
+     */
+    protected static int indexOf(ByteBuffer input, String s, int from, int end)
+    {
+        outer:
+        for (int i = from; i <= end - s.length(); i++) {
+            for (int j = 0; j < s.length(); j++) {
+                int b = input.get(i + j);
+                if (b >= 'A' && b <= 'Z')
+                    b += 'a' - 'A';
+                if (b != s.charAt(j))
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    protected static boolean isWhitespace(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+
+    protected static boolean isLabelChar(byte b)
+    {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '-' || b == '_'
+                || b == '.' || b == ':';
+    }
+
+    /**
+     * Prints statistics about the documents read by some readers to {@link System#err}: the bytes read and decoded,
+     * the charsets, and the memory allocated for buffers and copied into strings.
+     *
+     * @param readers the readers.
+     */
+    public static void printStatistics(Collection<DocumentReader> readers)
+    {
+        DecimalFormat df = new DecimalFormat("#.##");
+        int documents = 0, mappedDocuments = 0, undeclaredDocuments = 0;
+        long bytesRead = 0, charsDecoded = 0, charsCopied = 0, bytesAllocated = 0;
+        HashMap<String, Integer> charsets = new HashMap<>();
+        String defaultCharset = null;
+        for (DocumentReader reader : readers) {
+            documents += reader.documents;
+            mappedDocuments += reader.mappedDocuments;
+            undeclaredDocuments += reader.undeclaredDocuments;
+            bytesRead += reader.bytesRead;
+            charsDecoded += reader.charsDecoded;
+            charsCopied += reader.charsCopied;
+            bytesAllocated += reader.bytesAllocated;
+            for (Map.Entry<String, Integer> charset : reader.charsets.entrySet())
+                charsets.merge(charset.getKey(), charset.getValue(), Integer::sum);
+            defaultCharset = reader.defaultCharset.name();
+        }
+        if (documents == 0)
+            return;
+
+        ArrayList<Map.Entry<String, Integer>> sorted = new ArrayList<>(charsets.entrySet());
+        sorted.sort((a, b) -> b.getValue() - a.getValue());
+        StringBuilder charsetCounts = new StringBuilder();
+        for (Map.Entry<String, Integer> charset : sorted)
+            charsetCounts.append(charsetCounts.length() == 0 ? "" : ", ").append(charset.getKey()).append(" ")
+                    .append(charset.getValue());
+        System.err.println("  - Read: " + df.format(bytesRead / 1024d / 1024d) + " MB (" + mappedDocuments
+                + " documents mapped), decoded into " + df.format(charsDecoded / 1e6) + " M chars.");
+        System.err.println("  - Charsets: " + charsetCounts + " (" + undeclaredDocuments + " documents without one, as "
+                + defaultCharset + ").");
+        System.err.println("  - Buffers: " + df.format(bytesAllocated / 1024d) + " KB allocated by " + readers.size()
+                + " readers (" + df.format((double) bytesAllocated / documents) + " bytes per document), "
+                + df.format(charsCopied / 1e6) + " M chars copied into strings ("
+                + df.format(charsCopied / 1024d / documents) + " K per document).");
+    }
+}
@@ -0,0 +1,308 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A store of the cached versions of documents, compressed in blocks of {@link #DOCS_PER_BLOCK} consecutive documents.
+ * <p>
+ * The store consists of two files, both starting with the {@code (magic, version, count, extra)} header of the index:
+ * <ul>
+ * <li>{@code cache.bin}: the blocks, {@code count} of them, each as the length of the uncompressed block followed by
+ * the block compressed with {@link Deflater}. An uncompressed block holds the number of documents, then the UTF-8
+ * length of the title and body of each document, and then the titles and bodies themselves.</li>
+ * <li>{@code cache.idx}: with the number of documents and {@link #DOCS_PER_BLOCK} in the header, the total size of
+ * the uncompressed blocks, and the offsets of the blocks in {@code cache.bin}, plus the end of the last one. This
+ * file is memory-mapped, so a document is located without reading anything.</li>
+ * </ul>
+ * Reading a document inflates its block only up to the end of the document, with an {@link Inflater} taken from a
+ * pool, so no inflater is created per read.
+ */
+public class DocumentStore
+{
+    /**
+     * Number of documents compressed together in a block.
+     */
+    public static final int DOCS_PER_BLOCK = 8;
+
+    protected final FileChannel data;
+    protected final ByteBuffer offsets;
+    protected final int numDocuments;
+    protected final int docsPerBlock;
+    protected final long uncompressedBytes;
+    protected final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Opens the document store in the specified index directory.
+     *
+     * @param dir the index directory.
+     * @throws IOException if the store can not be opened or its files are not valid.
+     */
+    public DocumentStore(Path dir) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(dir.resolve("cache.idx"), StandardOpenOption.READ)) {
+            this.offsets = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        Index.checkHeader(this.offsets, "cache.idx");
+        this.numDocuments = this.offsets.getInt(8);
+        this.docsPerBlock = this.offsets.getInt(12);
+        this.uncompressedBytes = this.offsets.getLong(Index.HEADER_BYTES);
+        this.data = FileChannel.open(dir.resolve("cache.bin"), StandardOpenOption.READ);
+    }
+
+    /**
+     * Returns the number of documents in the store.
+     *
+     * @return the number of documents.
+     */
+    public int size()
+    {
+        return this.numDocuments;
+    }
+
+    /**
+     * Returns the cached version of the specified document.
+     *
+     * @param docID the ID of the document.
+     * @return a {@link Tuple} containing the document title and its body.
+     * @throws IOException if an error occurs while reading the store.
+     */
+    public Tuple<String, String> get(int docID) throws IOException
+    {
+        if (docID < 0 || docID >= this.numDocuments)
+            throw new IllegalArgumentException("Document " + docID + " is not in the store.");
+        int block = docID / this.docsPerBlock;
+        int i = docID % this.docsPerBlock;
+        long start = this.offsets.getLong(Index.HEADER_BYTES + 8 + block * 8);
+        long end = this.offsets.getLong(Index.HEADER_BYTES + 16 + block * 8);
+        ByteBuffer compressed = ByteBuffer.allocate((int) (end - start));
+        while (compressed.hasRemaining())
+            if (this.data.read(compressed, start + compressed.position()) < 0)
+                throw new EOFException("Unexpected end of the document store.");
+
+        byte[] uncompressed = new byte[compressed.getInt(0)];
+        ByteBuffer buffer = ByteBuffer.wrap(uncompressed);
+        Inflater inflater = this.inflaters.poll();
+        if (inflater == null)
+            inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array(), 4, compressed.capacity() - 4);
+            // First the lengths, which tell where the document ends, and then only up to that
+            int length = this.inflate(inflater, uncompressed, 0, 4 + (i + 1) * 8, block);
+            int position = 4 + buffer.getInt(0) * 8;
+            for (int j = 0; j < i; j++)
+                position += buffer.getInt(4 + j * 8) + buffer.getInt(8 + j * 8);
+            int titleLength = buffer.getInt(4 + i * 8);
+            int bodyLength = buffer.getInt(8 + i * 8);
+            this.inflate(inflater, uncompressed, length, position + titleLength + bodyLength, block);
+
+            String title = new String(uncompressed, position, titleLength, StandardCharsets.UTF_8);
+            String body = new String(uncompressed, position + titleLength, bodyLength, StandardCharsets.UTF_8);
+            return new Tuple<>(title, body);
+        } finally {
+            inflater.reset();
+            this.inflaters.offer(inflater);
+        }
+    }
+
+    /**
+     * Inflates a block until at least the specified number of bytes are uncompressed.
+     *
+     * @param inflater     the inflater, with the compressed block as input.
+     * @param uncompressed the uncompressed block.
+     * @param length       the number of bytes already uncompressed.
+     * @param target       the number of bytes needed.
+     * @param block        the index of the block, for errors.
+     * @return the number of bytes uncompressed.
+     * @throws IOException if the block is corrupt.
+     */
+    protected int inflate(Inflater inflater, byte[] uncompressed, int length, int target, int block)
+            throws IOException
+    {
+        try {
+            while (length < target && !inflater.finished()) {
+                int n = inflater.inflate(uncompressed, length, target - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                length += n;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Block " + block + " of the document store is corrupt.", ex);
+        }
+        if (length < target)
+            throw new IOException("Block " + block + " of the document store is corrupt.");
+        return length;
+    }
+
+    /**
+     * Returns the total size of the documents, uncompressed, in bytes.
+     *
+     * @return the uncompressed size.
+     */
+    public long getUncompressedBytes()
+    {
+        return this.uncompressedBytes;
+    }
+
+    /**
+     * Returns the size of the compressed blocks, in bytes.
+     *
+     * @return the compressed size.
+     */
+    public long getCompressedBytes()
+    {
+        return this.offsets.getLong(this.offsets.limit() - 8) - Index.HEADER_BYTES;
+    }
+
+    /**
+     * Closes the store, releasing its pooled inflaters.
+     *
+     * @throws IOException if an error occurs while closing the data file.
+     */
+    public void close() throws IOException
+    {
+        this.data.close();
+        Inflater inflater;
+        while ((inflater = this.inflaters.poll()) != null)
+            inflater.end();
+    }
+
+    /**
+     * Writes a document store, one document at a time in order of {@code docID}.
+     */
+    public static class Writer
+    {
+        protected final Path dir;
+        protected final RandomAccessFile data;
+        protected final DataOutputStream out;
+        protected final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        protected final byte[][] titles = new byte[DOCS_PER_BLOCK][];
+        protected final byte[][] bodies = new byte[DOCS_PER_BLOCK][];
+        protected int pending = 0;
+        protected int numDocuments = 0;
+        protected long uncompressedBytes = 0;
+        protected long position = Index.HEADER_BYTES;
+        protected final ByteArrayOutputStream blockOffsets = new ByteArrayOutputStream();
+
+        /**
+         * Creates a new store in the specified index directory, replacing any existing one.
+         *
+         * @param dir the index directory.
+         * @throws IOException if the store can not be created.
+         */
+        public Writer(Path dir) throws IOException
+        {
+            this.dir = dir;
+            dir.toFile().mkdirs();
+            this.data = new RandomAccessFile(dir.resolve("cache.bin").toFile(), "rw");
+            this.data.setLength(0);
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.data.getFD())));
+            // The number of blocks is filled in when closing
+            this.out.writeInt(Index.MAGIC);
+            this.out.writeInt(Index.VERSION);
+            this.out.writeInt(0);
+            this.out.writeInt(0);
+        }
+
+        /**
+         * Adds the next document to the store.
+         *
+         * @param docID   the ID of the document, which must follow the previous one.
+         * @param docText a {@link Tuple} containing the document title and its body.
+         * @throws IOException if an error occurs while writing the store.
+         */
+        public void add(int docID, Tuple<String, String> docText) throws IOException
+        {
+            if (docID != this.numDocuments)
+                throw new IllegalStateException("Documents must be stored in order: expected " + this.numDocuments
+                        + " but got " + docID + ".");
+            this.titles[this.pending] = docText.item1.getBytes(StandardCharsets.UTF_8);
+            this.bodies[this.pending] = docText.item2.getBytes(StandardCharsets.UTF_8);
+            this.pending++;
+            this.numDocuments++;
+            if (this.pending == DOCS_PER_BLOCK)
+                this.flushBlock();
+        }
+
+        /**
+         * Compresses and writes the pending documents as a block.
+         *
+         * @throws IOException if an error occurs while writing the block.
+         */
+        protected void flushBlock() throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream block = new DataOutputStream(bytes);
+            block.writeInt(this.pending);
+            for (int i = 0; i < this.pending; i++) {
+                block.writeInt(this.titles[i].length);
+                block.writeInt(this.bodies[i].length);
+            }
+            for (int i = 0; i < this.pending; i++) {
+                block.write(this.titles[i]);
+                block.write(this.bodies[i]);
+            }
+            byte[] uncompressed = bytes.toByteArray();
+
+            this.deflater.reset();
+            this.deflater.setInput(uncompressed);
+            this.deflater.finish();
+            byte[] buffer = new byte[Math.max(64, uncompressed.length / 2)];
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            while (!this.deflater.finished())
+                compressed.write(buffer, 0, this.deflater.deflate(buffer));
+
+            new DataOutputStream(this.blockOffsets).writeLong(this.position);
+            this.out.writeInt(uncompressed.length);
+            compressed.writeTo(this.out);
+            this.position += 4 + compressed.size();
+            this.uncompressedBytes += uncompressed.length;
+            this.pending = 0;
+        }
+
+        /**
+         * Writes the last block and the offset index, and closes the store.
+         *
+         * @throws IOException if an error occurs while writing the store.
+         */
+        public void close() throws IOException
+        {
+            if (this.pending > 0)
+                this.flushBlock();
+            this.out.flush();
+            int numBlocks = this.blockOffsets.size() / 8;
+            this.data.seek(8);
+            this.data.writeInt(numBlocks);
+            this.data.close();
+            this.deflater.end();
+
+            DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(this.dir.resolve("cache.idx").toFile())));
+            idx.writeInt(Index.MAGIC);
+            idx.writeInt(Index.VERSION);
+            idx.writeInt(this.numDocuments);
+            idx.writeInt(DOCS_PER_BLOCK);
+            idx.writeLong(this.uncompressedBytes);
+            this.blockOffsets.writeTo(idx);
+            idx.writeLong(this.position);
+            idx.close();
+        }
+    }
+}
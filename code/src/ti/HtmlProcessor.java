@@ -6,9 +6,7 @@ package ti;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
 
 import org.jsoup.Jsoup;
@@ -20,9 +18,36 @@ import org.jsoup.nodes.Element;
  */
 public class HtmlProcessor implements DocumentProcessor
 {
+	/**
+	 * Normalized version of every ASCII character that is part of tokens (letters, digits and apostrophes), or
+	 * {@code 0} for the rest, which separate tokens.
+	 */
+	protected static final char[] TOKEN_CHARS = new char[128];
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			TOKEN_CHARS[c] = c;
+			// Lower case
+			TOKEN_CHARS[c - 'a' + 'A'] = c;
+		}
+		for (char c = '0'; c <= '9'; c++)
+			TOKEN_CHARS[c] = c;
+		TOKEN_CHARS['\''] = '\'';
+	}
+
+	/**
+	 * Stemmer of every thread, reused for all the texts it processes.
+	 */
+	protected static final ThreadLocal<Stemmer> STEMMERS = ThreadLocal.withInitial(Stemmer::new);
+	/**
+	 * Token buffer of every thread, reused for all the texts it tokenizes and grown for longer tokens.
+	 */
+	protected static final ThreadLocal<char[]> TOKEN_BUFFERS = ThreadLocal.withInitial(() -> new char[64]);
 
 	// P2
-	HashSet<String> stopWords;
+	// Counted like terms, to look them up in the token buffer
+	protected final TermCounter stopWords;
+	protected StemCache stemCache = StemCache.shared();
 
 	/**
 	 * Creates a new HTML processor.
@@ -33,11 +58,31 @@ public class HtmlProcessor implements DocumentProcessor
 	public HtmlProcessor(File pathToStopWords) throws IOException
 	{
 		// P2
-		// Read all lines in specified file and add to HashSet.
-		// HashSet can store only unique value.
-		this.stopWords = new HashSet<String> ();
+		// Read all lines in specified file and add them to the stop words.
+		this.stopWords = new TermCounter();
 		List<String> words = Files.readAllLines(pathToStopWords.toPath());
-		this.stopWords.addAll(words);
+		for (String word : words)
+			this.stopWords.accept(word.toCharArray(), 0, word.length());
+	}
+
+	/**
+	 * Sets the cache of stems, which is {@link StemCache#shared shared} by default.
+	 *
+	 * @param stemCache the cache.
+	 */
+	public void setStemCache(StemCache stemCache)
+	{
+		this.stemCache = stemCache;
+	}
+
+	/**
+	 * Returns the cache of stems.
+	 *
+	 * @return the cache.
+	 */
+	public StemCache getStemCache()
+	{
+		return this.stemCache;
 	}
 
 	/**
@@ -80,120 +125,101 @@ public class HtmlProcessor implements DocumentProcessor
 	}
 
 	/**
-	 * Process the given text (tokenize, normalize, filter stopwords and stemize) and return the list of terms to index.
+	 * Process the given text (tokenize, normalize, filter stopwords and stemize) and pass the terms to index to a
+	 * consumer.
 	 *
-	 * @param text the text to process.
-	 * @return the list of index terms.
+	 * @param text     the text to process.
+	 * @param consumer the consumer of the index terms.
 	 */
-	public ArrayList<String> processText(String text)
+	public void processText(CharSequence text, TermConsumer consumer)
 	{
-		ArrayList<String> terms = new ArrayList<>();
-
-		// P2
-		// Tokenizing, normalizing, stopwords, stemming, etc. 
-		
-		// Call our 4 steps of processing text.
-		// Tokenize sentence by separating word from " " space and get result as array of string.
-		ArrayList<String> tokens = tokenize(text);
-		
-		// For each term after tokenization, we do normalize (lower case) and check if it is stop word or not.
-		// If it's a stopword, we skip (TODO confirm this)
-		// 
-		for(String term: tokens) {
-			// Lower case
-			String normalizedTerm = normalize(term);
-			// If term exist in stop word, skip this word (TODO confirm)
-			if(!isStopWord(normalizedTerm)) {
-				// If term is not a stop word, then finding root word in stem method
-				// then add term to result list.
-				terms.add(stem(normalizedTerm));
-			}
-		}
-
-		return terms;
+		Stemmer stemmer = STEMMERS.get();
+		this.tokenize(text, (token, offset, length) -> this.processToken(token, length, stemmer, consumer));
 	}
 
 	/**
-	 * Tokenize the given text.
+	 * Tokenize and normalize the given text in one pass, and pass the tokens to a consumer, in a buffer that is reused
+	 * for every token.
+	 * <p>
+	 * Tokens are the runs of letters, digits and apostrophes, in lower case. As when splitting the text on the other
+	 * characters, an empty text, or one that starts with another character, yields an empty token before the first
+	 * one.
 	 *
-	 * @param text the text to tokenize.
-	 * @return the list of tokens.
+	 * @param text     the text to tokenize.
+	 * @param consumer the consumer of the tokens, which always start at offset {@code 0} of the buffer of this thread,
+	 *                 so it must not tokenize other texts.
 	 */
-	protected ArrayList<String> tokenize(String text)
+	public void tokenize(CharSequence text, TermConsumer consumer)
 	{
-		ArrayList<String> tokens = new ArrayList<>();
-
-		// P2
-		//We should split the sentences in its corresponding words.
-		
-		// Split sentences to token by space
-		List<String> listTokens = Arrays.asList(text.replaceAll("[^A-Za-z0-9']", " ").split("\\s+"));
-		for(String token: listTokens) {
-			tokens.add(token);
+		char[] token = TOKEN_BUFFERS.get();
+		int length = text.length();
+		if (length == 0) {
+			consumer.accept(token, 0, 0);
+			return;
+		}
+		boolean emptyToken = HtmlProcessor.normalize(text.charAt(0)) == 0;
+		int tokenLength = 0;
+		for (int i = 0; i < length; i++) {
+			char c = HtmlProcessor.normalize(text.charAt(i));
+			if (c != 0) {
+				if (tokenLength == token.length) {
+					token = Arrays.copyOf(token, tokenLength * 2);
+					TOKEN_BUFFERS.set(token);
+				}
+				token[tokenLength++] = c;
+			} else if (tokenLength > 0) {
+				if (emptyToken) {
+					consumer.accept(token, 0, 0);
+					emptyToken = false;
+				}
+				consumer.accept(token, 0, tokenLength);
+				tokenLength = 0;
+			}
+		}
+		if (tokenLength > 0) {
+			if (emptyToken)
+				consumer.accept(token, 0, 0);
+			consumer.accept(token, 0, tokenLength);
 		}
-		// System.out.println(tokens);
-		
-		return tokens;
 	}
 
 	/**
-	 * Normalize the given term.
+	 * Filters a normalized token if it is a stopword, and passes its stem to the consumer otherwise, from the
+	 * {@link StemCache} if possible.
 	 *
-	 * @param text the term to normalize.
-	 * @return the normalized term.
+	 * @param token    the buffer with the token.
+	 * @param length   the length of the token.
+	 * @param stemmer  the stemmer to reuse for tokens not in the cache.
+	 * @param consumer the consumer of the index terms.
 	 */
-	protected String normalize(String text)
+	protected void processToken(char[] token, int length, Stemmer stemmer, TermConsumer consumer)
 	{
-		String normalized = null;
-
-		// P2
-		normalized = text.toLowerCase();
-		return normalized;
+		if (this.isStopWord(token, length))
+			return;
+		char[] stem = this.stemCache.stem(token, length, stemmer);
+		consumer.accept(stem, 0, stem.length);
 	}
 
 	/**
-	 * Checks whether the given term is a stopword.
+	 * Normalize the given character of a token.
 	 *
-	 * @param term the term to check.
-	 * @return {@code true} if the term is a stopword and {@code false} otherwise.
+	 * @param c the character to normalize.
+	 * @return the normalized character, or {@code 0} if it is not part of tokens.
 	 */
-	protected boolean isStopWord(String term)
+	protected static char normalize(char c)
 	{
-		boolean isTopWord = false;
-
-		// P2
-		isTopWord = (stopWords.contains(term))? true : false;
-
-		return isTopWord;
+		return c < TOKEN_CHARS.length ? TOKEN_CHARS[c] : 0;
 	}
 
 	/**
-	 * Stem the given term.
+	 * Checks whether the given term is a stopword.
 	 *
-	 * @param term the term to stem.
-	 * @return the stem of the term.
+	 * @param term   the buffer with the term.
+	 * @param length the length of the term.
+	 * @return {@code true} if the term is a stopword and {@code false} otherwise.
 	 */
-	protected String stem(String term)
+	protected boolean isStopWord(char[] term, int length)
 	{
-		String stem = null;
-//
-//		// P2
-		Stemmer stemer = new Stemmer();
-		stemer.add(term.toCharArray(), term.length());
-//		stemer.stem();
-//		stem = stemer.toString();
-//		
-//		return stem;
-		
-//		opennlp.tools.stemmer.PorterStemmer stemer = new opennlp.tools.stemmer.PorterStemmer();
-//		char[] cArray = term.toCharArray();
-//		for (char c : cArray) {
-//			stemer.add(c);
-//		}
-		
-		stemer.stem();
-		stem = stemer.toString();
-		return stem;
+		return this.stopWords.get(term, 0, length) > 0;
 	}
-
 }
@@ -0,0 +1,127 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+
+/**
+ * Implements retrieval with the cosine similarity function over the quantized impacts stored in the index.
+ * <p>
+ * The contribution {@code weight/norm} of every posting is precomputed and quantized at index time, so query terms
+ * are quantized too and scoring is just integer additions into an accumulator, with no divisions by document norms.
+ * The scores approximate those of {@link Cosine}.
+ */
+public class ImpactCosine extends Cosine
+{
+	/**
+	 * Scratch arrays of every thread, reused for all the queries it runs.
+	 */
+	protected static final ThreadLocal<Scratch> SCRATCHES = ThreadLocal.withInitial(Scratch::new);
+
+	public ImpactCosine()
+	{
+		super();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * This model only reads the quantized impacts.
+	 */
+	@Override
+	public EnumSet<Index.Structure> getRequiredStructures()
+	{
+		return EnumSet.of(Index.Structure.IMPACTS);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected ArrayList<Tuple<Integer, Double>> computeScores(ArrayList<Tuple<Integer, Double>> queryVector, Index index,
+	                                                          int k)
+	{
+		if (!index.hasImpacts())
+			throw new IllegalStateException("The index has no impacts; build it with the -impact option.");
+
+		TopKHeap results = new TopKHeap(k);
+		if (queryVector.isEmpty())
+			return results.results();
+
+		// The contribution of term t to document d is (wq_t / |q|) * (q_td * scale_t / levels) = c_t * q_td,
+		// where q_td is the quantized impact. Multipliers m_t approximate c_t / max(c) * M as integers, with M as
+		// large as possible without overflowing the accumulators.
+		double levels = (1 << index.getImpactBits()) - 1;
+		double sumWeightSq = 0;
+		for (Tuple<Integer, Double> term : queryVector)
+			sumWeightSq += Math.pow(term.item2, 2.0);
+		double queryNorm = Math.sqrt(sumWeightSq);
+
+		double[] contributions = new double[queryVector.size()];
+		double maxContribution = 0;
+		for (int i = 0; i < queryVector.size(); i++) {
+			Tuple<Integer, Double> term = queryVector.get(i);
+			contributions[i] = term.item2 / queryNorm * index.getImpactScale(term.item1) / levels;
+			maxContribution = Math.max(maxContribution, contributions[i]);
+		}
+		int maxMultiplier = (int) (Integer.MAX_VALUE / (queryVector.size() * levels));
+
+		// Accumulate integer scores, listing the documents as they get their first one; impacts and multipliers are
+		// positive, so a document has a score if and only if it is not zero
+		Scratch scratch = SCRATCHES.get();
+		scratch.ensureCapacity(index.getNumDocuments());
+		int[] accumulator = scratch.accumulator;
+		int[] touched = scratch.touched;
+		int numTouched = 0;
+		for (int i = 0; i < queryVector.size(); i++) {
+			int multiplier = Math.max(1, (int) Math.round(contributions[i] / maxContribution * maxMultiplier));
+			int count = index.getImpacts(queryVector.get(i).item1, scratch.docIDs, scratch.impacts);
+			for (int p = 0; p < count; p++) {
+				int docID = scratch.docIDs[p];
+				if (accumulator[docID] == 0)
+					touched[numTouched++] = docID;
+				accumulator[docID] += multiplier * scratch.impacts[p];
+			}
+		}
+
+		// Scale back to similarities, clearing the accumulator for the next query; the heap ranks ties by docID, so
+		// documents can be offered in any order
+		double scale = maxContribution / maxMultiplier;
+		for (int t = 0; t < numTouched; t++) {
+			int docID = touched[t];
+			if (index.isLive(docID))
+				results.offer(docID, accumulator[docID] * scale);
+			accumulator[docID] = 0;
+		}
+		return results.results();
+	}
+
+	/**
+	 * The arrays to decode impacts and accumulate integer scores, sized for the number of documents of the index.
+	 * The accumulator is all zeros between queries.
+	 */
+	protected static class Scratch
+	{
+		protected int[] accumulator = new int[0];
+		protected int[] touched = new int[0];
+		protected int[] docIDs = new int[0];
+		protected int[] impacts = new int[0];
+
+		/**
+		 * Makes room for the given number of documents.
+		 *
+		 * @param numDocuments the number of documents.
+		 */
+		protected void ensureCapacity(int numDocuments)
+		{
+			if (numDocuments > this.accumulator.length) {
+				this.accumulator = new int[numDocuments];
+				this.touched = new int[numDocuments];
+				this.docIDs = new int[numDocuments];
+				this.impacts = new int[numDocuments];
+			}
+		}
+	}
+}
@@ -4,25 +4,65 @@
 package ti;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * This class represents the index of the search engine.
  * <p>
  * The structures it holds are: the term and document information, an inverse index, a direct index, and a cached version of the documents.
  * <p>
- * The index can be loaded from and saved to some specified directory.
+ * The index can be loaded from and saved to some specified directory. On disk, every structure is stored in a binary
+ * file that {@link #load} maps into memory with {@link FileChannel#map}, so that loading does not depend on the size of
+ * the collection: terms, documents and postings are read straight from the mapped buffers when queried. All files start
+ * with a header {@code (magic, version, count, codec)}; see {@link #save} for the layout of each one. Postings lists are
+ * encoded with a {@link PostingsCodec} and decoded on the fly as they are traversed.
+ * <p>
+ * Indexes saved in the legacy object-stream format can be imported once with {@link #convertLegacy}.
  */
 public class Index
 {
     protected final int DOCS_PER_CACHE_BLOCK = 20;
 
+    /**
+     * Magic number at the start of every binary index file.
+     */
+    protected static final int MAGIC = 0x54494458; // "TIDX"
+    /**
+     * Version of the binary index format.
+     */
+    protected static final int VERSION = 3;
+    /**
+     * Size of the {@code (magic, version, count, codec)} header.
+     */
+    protected static final int HEADER_BYTES = 16;
+    /**
+     * Size of a document entry: {@code (norm, nameOffset, nameLength)}.
+     */
+    protected static final int DOC_ENTRY_BYTES = 16;
+
     protected String path;
     /**
      * The vocabulary of terms in the index.
@@ -30,6 +70,9 @@ public class Index
      * {@code [term] -> (termID, IDF)}
      * <p>
      * It maps a term {@link String} onto a {@link Tuple} containing the {@code termID} and its IDF score.
+     * <p>
+     * This structure is only populated while building the index; a loaded index reads terms from its
+     * {@link TermDictionary} with {@link #getTermID} and {@link #getIdf}.
      */
     public HashMap<String, Tuple<Integer, Double>> vocabulary; // [term] -> (termID, IDF)
     /**
@@ -39,6 +82,9 @@ public class Index
      * <p>
      * The {@code i}-th element is a {@link Tuple} corresponding to the document with {@code docID=i}.
      * The {@link Tuple} contains the {@code name} of the document and its vector {@code norm}.
+     * <p>
+     * This structure is only populated while building the index; a loaded index reads documents with
+     * {@link #getDocName} and {@link #getDocNorm}.
      */
     public ArrayList<Tuple<String, Double>> documents; // [docID] -> (docName, norm)
     /**
@@ -47,18 +93,144 @@ public class Index
      * {@code [termID] -> (docID, weight)+}
      * </p>
      * The {@code i}-th element corresponds to the postings list of the term with {@code termID=i}.
-     * Each posting is a {@link Tuple} containing a {@code docID} and the {@code weight} of the term in that document.
+     * Each posting contains a {@code docID} and the {@code weight} of the term in that document.
+     * <p>
+     * This structure is only populated while building the index or when it is loaded in {@link LoadMode#HEAP} mode;
+     * postings should be read with {@link #getInvertedPostings}.
      */
-    public ArrayList<ArrayList<Tuple<Integer, Double>>> invertedIndex; // [termID] -> (docID, weight)+
+    public ArrayList<PostingsList> invertedIndex; // [termID] -> (docID, weight)+
     /**
      * The direct index.
      * <p>
      * {@code [docID] -> (termID, weight)+}
      * <p>
      * The {@code i}-th element corresponds to the postings list of the document with {@code docID=i}.
-     * Each posting is a {@link Tuple} containing a {@code termID} and the {@code weight} of that term in the document.
+     * Each posting contains a {@code termID} and the {@code weight} of that term in the document.
+     * <p>
+     * This structure is only populated while building the index or when it is loaded in {@link LoadMode#HEAP} mode;
+     * postings should be read with {@link #getDirectPostings}.
+     */
+    public ArrayList<PostingsList> directIndex; // [docID] -> (termID, weight)+
+
+    /**
+     * The ways in which postings can be loaded.
+     */
+    public enum LoadMode
+    {
+        /**
+         * Postings are decoded from the mapped files as they are traversed.
+         */
+        MAPPED,
+        /**
+         * Postings are decoded into {@link PostingsList}s when the index is loaded.
+         */
+        HEAP,
+        /**
+         * Terms and documents are read when the index is loaded, but postings are read from disk the first time they
+         * are needed, and kept in a bounded {@link PostingsCache}.
+         */
+        LAZY
+    }
+
+    /**
+     * The optional structures of the index, that are only loaded if some {@link RetrievalModel} requires them.
+     */
+    public enum Structure
+    {
+        /**
+         * The inverted index, read by {@link #getInvertedPostings}.
+         */
+        INVERTED,
+        /**
+         * The direct index, read by {@link #getDirectPostings}.
+         */
+        DIRECT,
+        /**
+         * The quantized impacts, read by {@link #getImpacts}.
+         */
+        IMPACTS,
+        /**
+         * The upper bounds of the contributions of terms and blocks of postings, read by {@link #getTermBounds}.
+         */
+        BOUNDS
+    }
+
+    protected TermDictionary dictionary;
+    protected ByteBuffer documentsBuffer;
+    /**
+     * The reciprocal of the norm of every document, so that scores are multiplied instead of divided by norms.
+     */
+    protected double[] inverseNorms;
+    protected ByteBuffer invertedBuffer;
+    protected ByteBuffer directBuffer;
+    protected PostingsCodec invertedCodec;
+    protected PostingsCodec directCodec;
+    /**
+     * The codec to encode postings lists with when saving the index.
+     */
+    protected PostingsCodec codec = new RawCodec();
+    /**
+     * How postings are loaded by {@link #load}.
+     */
+    protected LoadMode loadMode = LoadMode.MAPPED;
+    /**
+     * The postings structures loaded by {@link #load}.
+     */
+    protected EnumSet<Structure> structures = EnumSet.allOf(Structure.class);
+    /**
+     * Number of bits of the quantized impacts to save with the index, or {@code 0} to save no impacts.
+     */
+    protected int impactBits = 0;
+    /**
+     * Whether impacts are quantized with a scale factor per term, or with a global one.
+     */
+    protected boolean impactScalePerTerm = true;
+    protected ByteBuffer impactsBuffer;
+    protected ByteBuffer boundsBuffer;
+    /**
+     * The documents that are not deleted, or {@code null} if no document was deleted.
+     */
+    protected BitSet liveDocs;
+    /**
+     * The store of cached documents of the loaded index, or {@code null} if it has none.
+     */
+    protected DocumentStore documentStore;
+    protected DocumentStore.Writer documentStoreWriter;
+    /**
+     * Capacity, in bytes, of the cache of cached documents, or 0 to read them from the store every time.
+     */
+    protected long documentCacheCapacity = 0;
+    protected DocumentCache documentCache;
+    /**
+     * Open postings files in {@link LoadMode#LAZY} mode.
+     */
+    protected FileChannel invertedChannel;
+    protected FileChannel directChannel;
+    /**
+     * Capacity, in bytes, of the postings cache in {@link LoadMode#LAZY} mode.
+     */
+    protected long cacheCapacity = 64L * 1024 * 1024;
+    protected PostingsCache postingsCache;
+    /**
+     * Postings cache shared with other indexes, used by {@link #load} instead of a new one, and the offset of the keys
+     * of this index in it.
      */
-    public ArrayList<ArrayList<Tuple<Integer, Double>>> directIndex; // [docID] -> (termID, weight)+
+    protected PostingsCache sharedPostingsCache;
+    protected long cacheKeyBase = 0;
+    protected int numTerms;
+    protected int numDocuments;
+    /**
+     * Time, in nanoseconds, that the last call to {@link #load} took, or {@code -1} if the index was not loaded.
+     */
+    protected long loadTime = -1;
+    /**
+     * Time, in nanoseconds, spent loading each structure in the last call to {@link #load}.
+     */
+    protected final Map<String, Long> structureLoadTimes = new ConcurrentHashMap<>();
+    /**
+     * Number of threads used by {@link #load}.
+     */
+    protected int loadThreads = Runtime.getRuntime().availableProcessors();
 
     /**
      * Creates a new index to be loaded from or stored in the specified directory.
@@ -75,12 +247,31 @@ public class Index
 
     /**
      * Returns the cached version of the specified document.
+     * <p>
+     * It is served from the {@link DocumentCache} if the index has one, or {@link #readCachedDocument read} otherwise.
      * @param docID the ID of the document.
      * @return a {@link Tuple} containing the document title and its body.
      * @throws Exception if an error occurs while accessing the cache.
      */
     public Tuple<String,String> getCachedDocument(int docID) throws Exception
     {
+        DocumentCache cache = this.documentCache;
+        if (cache != null)
+            return cache.get(docID, this::readCachedDocument);
+        return this.readCachedDocument(docID);
+    }
+    /**
+     * Reads the cached version of the specified document from the {@link DocumentStore} of the loaded index, or from
+     * the legacy per-document files if the index has no store.
+     * @param docID the ID of the document.
+     * @return a {@link Tuple} containing the document title and its body.
+     * @throws Exception if an error occurs while accessing the cache.
+     */
+    protected Tuple<String,String> readCachedDocument(int docID) throws Exception
+    {
+        if (this.documentStore != null)
+            return this.documentStore.get(docID);
+
         int block = docID % this.DOCS_PER_CACHE_BLOCK;
         File blockPath = Paths.get(this.path, "cache"+block).toFile();
         File filePath = new File(blockPath, docID+"");
@@ -94,29 +285,321 @@ public class Index
     }
     /**
      * Sets the cached version of the specified document.
+     * <p>
+     * Documents are written to a new {@link DocumentStore}, so they must be set in order of {@code docID}, and they
+     * can not be read until the index is saved and loaded again.
      * @param docID the ID of the document.
      * @param docText a {@link Tuple} containing the document title and its body.
      *                @throws IOException  if an error occurs while accessing the cache.
      */
     public void setCachedDocument(int docID, Tuple<String,String> docText) throws IOException
     {
-        int block = docID % this.DOCS_PER_CACHE_BLOCK;
-        File blockPath = Paths.get(this.path, "cache"+block).toFile();
-        if(!blockPath.exists())
-            blockPath.mkdirs();
-
-        File filePath = new File(blockPath, docID+"");
-        ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(filePath)));
-        oos.writeObject(docText.item1);
-        oos.writeObject(docText.item2);
-        oos.close();
+        // Documents are added to the store in order, and it is closed by save
+        if (this.documentStoreWriter == null)
+            this.documentStoreWriter = new DocumentStore.Writer(Paths.get(this.path));
+        this.documentStoreWriter.add(docID, docText);
     }
 
     /**
      * Loads the index from the path specified in the {@link Index#Index constructor}.
+     * <p>
+     * The binary files are mapped into memory, so no term, document or posting is actually read until it is needed.
+     * In {@link LoadMode#HEAP} mode, inverted postings are decoded into {@link PostingsList}s right away. In
+     * {@link LoadMode#LAZY} mode, terms and documents are read into memory, and the postings files are only opened.
+     * <p>
+     * Only the postings structures set with {@link #setStructures} are loaded; direct postings are always read on
+     * demand, one document at a time, through the offset table of {@code direct.bin}.
      * @throws Exception if an error occurs while loading the index.
      */
     public void load() throws Exception
+    {
+        if (!Paths.get(this.path, "vocabulary.bin").toFile().exists()
+                && Paths.get(this.path, "vocabulary").toFile().exists())
+            throw new IOException("The index in " + this.path + " uses the legacy format; run the convert command first.");
+
+        long startTime = System.nanoTime();
+        this.structureLoadTimes.clear();
+        ForkJoinPool pool = new ForkJoinPool(this.loadThreads);
+        try {
+            if (this.loadMode == LoadMode.LAZY)
+                this.postingsCache = this.sharedPostingsCache != null ? this.sharedPostingsCache
+                        : new PostingsCache(this.cacheCapacity);
+            this.documentCache = this.documentCacheCapacity > 0 ? new DocumentCache(this.documentCacheCapacity) : null;
+            ArrayList<CompletableFuture<Void>> steps = new ArrayList<>();
+            CompletableFuture<Void> vocabulary = this.loadAsync("vocabulary", pool, () -> {
+                if (this.loadMode == LoadMode.MAPPED)
+                    this.dictionary = new TermDictionary(this.map("vocabulary.bin"));
+                else
+                    this.dictionary = new TermDictionary(this.read("vocabulary.bin"));
+                this.numTerms = this.dictionary.size();
+            });
+            steps.add(vocabulary);
+            steps.add(this.loadAsync("documents", pool, () -> {
+                if (this.loadMode == LoadMode.MAPPED)
+                    this.documentsBuffer = this.map("documents.bin");
+                else
+                    this.documentsBuffer = this.read("documents.bin");
+                this.numDocuments = this.documentsBuffer.getInt(8);
+                double[] inverseNorms = new double[this.numDocuments];
+                for (int docID = 0; docID < inverseNorms.length; docID++)
+                    inverseNorms[docID] = 1.0 / this.getDocNorm(docID);
+                this.inverseNorms = inverseNorms;
+            }));
+            if (this.structures.contains(Structure.INVERTED)) {
+                CompletableFuture<Void> inverted = this.loadAsync("inverted", pool, () -> {
+                    if (this.loadMode == LoadMode.LAZY) {
+                        this.invertedChannel = FileChannel.open(Paths.get(this.path, "inverted.bin"), StandardOpenOption.READ);
+                        this.invertedCodec = PostingsCodec.forID(this.readAt(this.invertedChannel, 0, HEADER_BYTES).getInt(12));
+                    } else {
+                        this.invertedBuffer = this.map("inverted.bin");
+                        this.invertedCodec = PostingsCodec.forID(this.invertedBuffer.getInt(12));
+                    }
+                });
+                if (this.loadMode == LoadMode.HEAP) {
+                    // Decoding needs the IDFs, so it waits for the vocabulary too
+                    inverted = inverted.runAfterBoth(vocabulary, () -> {}).thenCompose(none ->
+                            this.loadAsync("inverted", pool, () -> {
+                                PostingsList[] lists = new PostingsList[this.numTerms];
+                                new DecodeRange(this.invertedBuffer, 0, this.numTerms, lists,
+                                        termID -> this.decodeInvertedPostings(termID)).invoke();
+                                this.invertedIndex = new ArrayList<>(Arrays.asList(lists));
+                            }));
+                }
+                steps.add(inverted);
+            }
+            // The direct index is only read by feedback, a few documents per query, so it is never decoded up front
+            if (this.structures.contains(Structure.DIRECT)) {
+                steps.add(this.loadAsync("direct", pool, () -> {
+                    if (this.loadMode == LoadMode.LAZY) {
+                        this.directChannel = FileChannel.open(Paths.get(this.path, "direct.bin"), StandardOpenOption.READ);
+                        this.directCodec = PostingsCodec.forID(this.readAt(this.directChannel, 0, HEADER_BYTES).getInt(12));
+                    } else {
+                        this.directBuffer = this.map("direct.bin");
+                        this.directCodec = PostingsCodec.forID(this.directBuffer.getInt(12));
+                    }
+                }));
+            }
+            if (this.structures.contains(Structure.IMPACTS) && Paths.get(this.path, "impacts.bin").toFile().exists())
+                steps.add(this.loadAsync("impacts", pool, () -> this.impactsBuffer = this.map("impacts.bin")));
+            if (this.structures.contains(Structure.BOUNDS) && Paths.get(this.path, "bounds.bin").toFile().exists())
+                steps.add(this.loadAsync("bounds", pool, () -> this.boundsBuffer = this.map("bounds.bin")));
+            this.liveDocs = null;
+            this.documentStore = null;
+            if (Paths.get(this.path, "cache.idx").toFile().exists())
+                steps.add(this.loadAsync("cache", pool, () -> this.documentStore = new DocumentStore(Paths.get(this.path))));
+            if (Paths.get(this.path, "livedocs.bin").toFile().exists())
+                steps.add(this.loadAsync("livedocs", pool, () -> {
+                    ByteBuffer buffer = this.read("livedocs.bin");
+                    long[] words = new long[(buffer.limit() - HEADER_BYTES) / 8];
+                    buffer.position(HEADER_BYTES);
+                    buffer.asLongBuffer().get(words);
+                    this.liveDocs = BitSet.valueOf(words);
+                }));
+
+            CompletableFuture.allOf(steps.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof UncheckedIOException)
+                throw ((UncheckedIOException) cause).getCause();
+            throw ex;
+        } finally {
+            pool.shutdown();
+        }
+        this.loadTime = System.nanoTime() - startTime;
+    }
+    /**
+     * A step of {@link #load} that reads some structure of the index.
+     */
+    protected interface LoadStep
+    {
+        void run() throws IOException;
+    }
+    /**
+     * Runs a step of {@link #load} in the specified pool, adding its running time to the load time of the structure.
+     * @param structure the name of the structure that the step loads.
+     * @param pool the pool to run the step in.
+     * @param step the step.
+     * @return the future completion of the step.
+     */
+    protected CompletableFuture<Void> loadAsync(String structure, ForkJoinPool pool, LoadStep step)
+    {
+        return CompletableFuture.runAsync(() -> {
+            long startTime = System.nanoTime();
+            try {
+                step.run();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            this.structureLoadTimes.merge(structure, System.nanoTime() - startTime, Long::sum);
+        }, pool);
+    }
+    /**
+     * Decodes a range of the postings lists of a mapped postings file, splitting it in halves of about the same size
+     * in bytes, as given by the offset table of the file, that are decoded in parallel.
+     */
+    protected static class DecodeRange extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Ranges smaller than this, in bytes, are decoded sequentially.
+         */
+        protected static final long SPLIT_BYTES = 256 * 1024;
+
+        protected final ByteBuffer postings;
+        protected final int from;
+        protected final int to;
+        protected final PostingsList[] lists;
+        protected final IntFunction<PostingsCursor> decoder;
+
+        /**
+         * Creates a task to decode the lists in {@code [from, to)}.
+         * @param postings the mapped postings file.
+         * @param from the index of the first list, inclusive.
+         * @param to the index of the last list, exclusive.
+         * @param lists the array to store the decoded lists in.
+         * @param decoder the function returning a cursor over the {@code i}-th list.
+         */
+        protected DecodeRange(ByteBuffer postings, int from, int to, PostingsList[] lists,
+                              IntFunction<PostingsCursor> decoder)
+        {
+            this.postings = postings;
+            this.from = from;
+            this.to = to;
+            this.lists = lists;
+            this.decoder = decoder;
+        }
+
+        @Override
+        protected void compute()
+        {
+            long start = this.offset(this.from);
+            long end = this.offset(this.to);
+            if (this.to - this.from < 2 || end - start <= SPLIT_BYTES) {
+                for (int i = this.from; i < this.to; i++)
+                    this.lists[i] = PostingsList.of(this.decoder.apply(i));
+                return;
+            }
+            // Find the list where the middle byte of the range falls
+            long middle = start + (end - start) / 2;
+            int lo = this.from + 1, hi = this.to - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (this.offset(mid) < middle)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            ForkJoinTask.invokeAll(new DecodeRange(this.postings, this.from, lo, this.lists, this.decoder),
+                    new DecodeRange(this.postings, lo, this.to, this.lists, this.decoder));
+        }
+
+        /**
+         * Returns the offset of the {@code i}-th list in the postings file.
+         * @param i the index of the list.
+         * @return the offset, in bytes.
+         */
+        protected long offset(int i)
+        {
+            return this.postings.getLong(HEADER_BYTES + i * 8);
+        }
+    }
+    /**
+     * Maps the specified binary index file into memory, checking its header.
+     * @param fileName the name of the file within the index directory.
+     * @return the read-only buffer with the contents of the file.
+     * @throws IOException if the file can not be mapped or is not a valid index file.
+     */
+    protected ByteBuffer map(String fileName) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(this.path, fileName), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Index file " + fileName + " is too large to be mapped.");
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Index.checkHeader(buffer, fileName);
+            return buffer;
+        }
+    }
+    /**
+     * Reads a range of an open index file into a heap buffer, checking the header if the range starts at the beginning.
+     * @param channel the open file.
+     * @param position the position of the range within the file.
+     * @param length the length of the range.
+     * @return the buffer with the contents of the range.
+     * @throws IOException if the range can not be read.
+     */
+    protected ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Unexpected end of index file.");
+        buffer.flip();
+        if (position == 0)
+            Index.checkHeader(buffer, "postings");
+        return buffer;
+    }
+    /**
+     * Reads the {@code i}-th postings list of an open postings file.
+     * @param channel the open postings file.
+     * @param i the index of the list.
+     * @return a buffer with the postings list.
+     * @throws UncheckedIOException if the list can not be read.
+     */
+    protected ByteBuffer readPostings(FileChannel channel, int i)
+    {
+        try {
+            ByteBuffer entry = this.readAt(channel, HEADER_BYTES + i * 8L, 16);
+            long start = entry.getLong(0);
+            return this.readAt(channel, start, (int) (entry.getLong(8) - start));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+    /**
+     * Closes the postings files left open in {@link LoadMode#LAZY} mode, and the document store.
+     * @throws IOException if an error occurs while closing the files.
+     */
+    public void close() throws IOException
+    {
+        if (this.documentStore != null)
+            this.documentStore.close();
+        if (this.invertedChannel != null)
+            this.invertedChannel.close();
+        if (this.directChannel != null)
+            this.directChannel.close();
+    }
+    /**
+     * Reads the specified binary index file into a heap buffer, checking its header.
+     * @param fileName the name of the file within the index directory.
+     * @return the buffer with the contents of the file.
+     * @throws IOException if the file can not be read or is not a valid index file.
+     */
+    protected ByteBuffer read(String fileName) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(this.path, fileName)));
+        Index.checkHeader(buffer, fileName);
+        return buffer;
+    }
+    /**
+     * Checks the header of a binary index file.
+     * @param buffer the contents of the file.
+     * @param fileName the name of the file.
+     * @throws IOException if the file is not a valid index file.
+     */
+    protected static void checkHeader(ByteBuffer buffer, String fileName) throws IOException
+    {
+        if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC)
+            throw new IOException("Index file " + fileName + " is not a valid index file.");
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("Index file " + fileName + " has unsupported version " + buffer.getInt(4) + ".");
+    }
+    /**
+     * Loads the index from the legacy object-stream files ({@code vocabulary}, {@code documents}, {@code inverted} and
+     * {@code direct}) into the in-memory structures.
+     * @throws IOException if an error occurs while loading the index.
+     */
+    protected void loadLegacy() throws IOException
     {
         // Vocabulary
         ObjectInputStream ois = new ObjectInputStream(new FileInputStream(Paths.get(this.path, "vocabulary").toFile()));
@@ -145,11 +628,11 @@ public class Index
         this.invertedIndex = new ArrayList<>(count);
         for (int i = 0; i < count; i++) {
             int count2 = ois.readInt();
-            ArrayList<Tuple<Integer, Double>> entry = new ArrayList<>(count2);
+            PostingsList entry = new PostingsList(count2);
             for (int i2 = 0; i2 < count2; i2++) {
                 int item1 = ois.readInt();
                 double item2 = ois.readDouble();
-                entry.add(i2, new Tuple<>(item1, item2));
+                entry.add(item1, item2);
             }
             this.invertedIndex.add(i, entry);
         }
@@ -160,18 +643,561 @@ public class Index
         this.directIndex = new ArrayList<>(count);
         for (int i = 0; i < count; i++) {
             int count2 = ois.readInt();
-            ArrayList<Tuple<Integer, Double>> entry = new ArrayList<>(count2);
+            PostingsList entry = new PostingsList(count2);
             for (int i2 = 0; i2 < count2; i2++) {
                 int item1 = ois.readInt();
                 double item2 = ois.readDouble();
-                entry.add(i2, new Tuple<>(item1, item2));
+                entry.add(item1, item2);
             }
             this.directIndex.add(i, entry);
         }
         ois.close();
     }
+    /**
+     * Converts the legacy index stored in the path specified in the {@link Index#Index constructor} to the binary
+     * format, packing the cached documents into a {@link DocumentStore}. The legacy files are left untouched.
+     * @throws Exception if an error occurs while converting the index.
+     */
+    public void convertLegacy() throws Exception
+    {
+        this.loadLegacy();
+        // Pack the per-document files into a document store
+        for (int docID = 0; docID < this.documents.size(); docID++)
+            this.setCachedDocument(docID, this.getCachedDocument(docID));
+        this.save();
+    }
+
+    /**
+     * Sets the codec to encode postings lists with when saving the index.
+     * @param codec the postings codec.
+     */
+    public void setCodec(PostingsCodec codec)
+    {
+        this.codec = codec;
+    }
+
+    /**
+     * Sets the quantized impacts to save with the index. An impact is the contribution {@code weight/norm} of a
+     * posting to the cosine similarity, quantized to {@code bits} bits relative to the largest impact of the term or of
+     * the whole index.
+     * @param bits the number of bits of each impact ({@code 8} or {@code 16}), or {@code 0} to save no impacts.
+     * @param scalePerTerm {@code true} to quantize with a scale factor per term, or {@code false} to use a global one.
+     */
+    public void setImpacts(int bits, boolean scalePerTerm)
+    {
+        if (bits != 0 && bits != 8 && bits != 16)
+            throw new IllegalArgumentException("Impacts must be quantized to 8 or 16 bits.");
+        this.impactBits = bits;
+        this.impactScalePerTerm = scalePerTerm;
+    }
+    /**
+     * Sets how postings are loaded by {@link #load}.
+     * @param loadMode the load mode.
+     */
+    public void setLoadMode(LoadMode loadMode)
+    {
+        this.loadMode = loadMode;
+    }
+    /**
+     * Sets the number of threads used by {@link #load} to read structures and decode postings in parallel.
+     * @param threads the number of threads.
+     */
+    public void setLoadThreads(int threads)
+    {
+        if (threads <= 0)
+            throw new IllegalArgumentException("The number of threads must be positive.");
+        this.loadThreads = threads;
+    }
+    /**
+     * Sets the postings structures loaded by {@link #load}; the vocabulary and documents are always loaded.
+     * @param structures the structures to load.
+     */
+    public void setStructures(EnumSet<Structure> structures)
+    {
+        this.structures = EnumSet.copyOf(structures);
+    }
+    /**
+     * Sets the capacity of the postings cache used in {@link LoadMode#LAZY} mode.
+     * @param megabytes the capacity, in MB.
+     */
+    public void setCacheCapacity(long megabytes)
+    {
+        if (megabytes <= 0)
+            throw new IllegalArgumentException("The cache capacity must be positive.");
+        this.cacheCapacity = megabytes * 1024 * 1024;
+    }
+    /**
+     * Makes {@link #load} use a postings cache shared with other indexes in {@link LoadMode#LAZY} mode, instead of a
+     * new one of its own.
+     * @param cache the shared cache.
+     * @param keyBase the offset of the keys of this index in the cache, so that they do not collide with the keys of
+     * the other indexes.
+     */
+    protected void sharePostingsCache(PostingsCache cache, long keyBase)
+    {
+        this.sharedPostingsCache = cache;
+        this.cacheKeyBase = keyBase;
+    }
+    /**
+     * Sets the capacity of the cache of cached documents, created by {@link #load}.
+     * @param megabytes the capacity, in MB, or 0 for no cache.
+     */
+    public void setDocumentCacheCapacity(long megabytes)
+    {
+        if (megabytes < 0)
+            throw new IllegalArgumentException("The cache capacity must not be negative.");
+        this.documentCacheCapacity = megabytes * 1024 * 1024;
+    }
+    /**
+     * Returns the cache of cached documents of the loaded index.
+     * @return the cache, or {@code null} if the index has none.
+     */
+    public DocumentCache getDocumentCache()
+    {
+        return this.documentCache;
+    }
+    /**
+     * Returns the postings cache of the loaded index.
+     * @return the cache, or {@code null} if the index is not loaded in {@link LoadMode#LAZY} mode.
+     */
+    public PostingsCache getPostingsCache()
+    {
+        return this.postingsCache;
+    }
+
+    /**
+     * Returns the number of terms in the loaded index.
+     * @return the number of terms.
+     */
+    public int getNumTerms()
+    {
+        return this.numTerms;
+    }
+    /**
+     * Returns the number of documents in the loaded index.
+     * @return the number of documents.
+     */
+    public int getNumDocuments()
+    {
+        return this.numDocuments;
+    }
+    /**
+     * Looks up the specified term in the vocabulary of the loaded index, without allocating.
+     * @param term the term to look up.
+     * @return the {@code termID}, or {@code -1} if the term is not indexed.
+     */
+    public int getTermID(CharSequence term)
+    {
+        return this.dictionary.getOrdinal(term);
+    }
+    /**
+     * Returns the vocabulary of the loaded index, to resolve terms from their {@code termID} or iterate them by prefix.
+     * @return the term dictionary.
+     */
+    public TermDictionary getDictionary()
+    {
+        return this.dictionary;
+    }
+    /**
+     * Returns the IDF of the specified term in the loaded index.
+     * @param termID the ID of the term.
+     * @return the IDF of the term.
+     */
+    public double getIdf(int termID)
+    {
+        return this.dictionary.getIdf(termID);
+    }
+    /**
+     * Returns whether the loaded index has quantized impacts.
+     * @return {@code true} if the index has impacts.
+     */
+    public boolean hasImpacts()
+    {
+        return this.impactsBuffer != null;
+    }
+    /**
+     * Returns the number of bits of the quantized impacts in the loaded index.
+     * @return the number of bits.
+     */
+    public int getImpactBits()
+    {
+        return this.impactsBuffer.getInt(12);
+    }
+    /**
+     * Returns the scale factor of the impacts of the specified term in the loaded index, such that an impact
+     * {@code q} stands for the contribution {@code q * scale / (2^bits - 1)}.
+     * @param termID the ID of the term.
+     * @return the scale factor.
+     */
+    public double getImpactScale(int termID)
+    {
+        return this.impactsBuffer.getDouble(HEADER_BYTES + (this.numTerms + 1) * 8 + termID * 8);
+    }
+    /**
+     * Decodes the quantized impacts of the specified term in the loaded index.
+     * @param termID the ID of the term.
+     * @param docIDs the array to decode the {@code docID}s to, at least as long as the postings list of the term.
+     * @param impacts the array to decode the impacts to, at least as long as the postings list of the term.
+     * @return the number of postings decoded.
+     */
+    public int getImpacts(int termID, int[] docIDs, int[] impacts)
+    {
+        ByteBuffer list = Index.slicePostings(this.impactsBuffer, termID);
+        int count = list.getInt();
+        int docID = -1;
+        for (int i = 0; i < count; i++) {
+            docID += PostingsCodec.readVByte(list);
+            docIDs[i] = docID;
+        }
+        if (this.getImpactBits() == 8) {
+            for (int i = 0; i < count; i++)
+                impacts[i] = list.get() & 0xff;
+        } else {
+            for (int i = 0; i < count; i++)
+                impacts[i] = list.getShort() & 0xffff;
+        }
+        return count;
+    }
+    /**
+     * Returns whether the loaded index has the upper bounds of the contributions of terms and blocks of postings.
+     * @return {@code true} if the index has bounds.
+     */
+    public boolean hasBounds()
+    {
+        return this.boundsBuffer != null;
+    }
+    /**
+     * Returns the upper bounds of the contributions {@code weight/norm} of the postings of the specified term in the
+     * loaded index, overall and by blocks of postings.
+     * @param termID the ID of the term.
+     * @return the bounds of the term.
+     */
+    public TermBounds getTermBounds(int termID)
+    {
+        return new TermBounds(Index.slicePostings(this.boundsBuffer, termID));
+    }
+    /**
+     * Returns the name of the specified document in the loaded index.
+     * @param docID the ID of the document.
+     * @return the document name.
+     */
+    public String getDocName(int docID)
+    {
+        int entry = HEADER_BYTES + docID * DOC_ENTRY_BYTES;
+        int offset = HEADER_BYTES + this.numDocuments * DOC_ENTRY_BYTES + this.documentsBuffer.getInt(entry + 8);
+        byte[] name = new byte[this.documentsBuffer.getInt(entry + 12)];
+        for (int i = 0; i < name.length; i++)
+            name[i] = this.documentsBuffer.get(offset + i);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+    /**
+     * Checks whether the specified document is live, that is, not deleted.
+     * @param docID the ID of the document.
+     * @return {@code true} if the document is live.
+     */
+    public boolean isLive(int docID)
+    {
+        return this.liveDocs == null || this.liveDocs.get(docID);
+    }
+    /**
+     * Returns the number of deleted documents in the loaded index, which are still counted by
+     * {@link #getNumDocuments} and in the IDF of their terms until the index is compacted.
+     * @return the number of deleted documents.
+     */
+    public int getNumDeleted()
+    {
+        return this.liveDocs == null ? 0 : this.getNumDocuments() - this.liveDocs.cardinality();
+    }
+    /**
+     * Deletes the live documents with the specified name from the loaded index, marking them in {@code livedocs.bin}.
+     * <p>
+     * Their postings stay in the index, but they are not retrieved anymore.
+     * @param docName the name of the documents.
+     * @return the number of deleted documents.
+     * @throws IOException if an error occurs while saving the live documents.
+     */
+    public int delete(String docName) throws IOException
+    {
+        int deleted = 0;
+        for (int docID = 0; docID < this.getNumDocuments(); docID++)
+            if (this.isLive(docID) && this.getDocName(docID).equals(docName)) {
+                this.deleteDocument(docID);
+                deleted++;
+            }
+        if (deleted > 0)
+            this.saveLiveDocs();
+        return deleted;
+    }
+    /**
+     * Marks a document as deleted in memory; {@link #saveLiveDocs} must be called afterwards.
+     * @param docID the ID of the document.
+     */
+    protected void deleteDocument(int docID)
+    {
+        if (this.liveDocs == null) {
+            BitSet liveDocs = new BitSet(this.numDocuments);
+            liveDocs.set(0, this.numDocuments);
+            this.liveDocs = liveDocs;
+        }
+        this.liveDocs.clear(docID);
+    }
+    /**
+     * Compacts the loaded index if the ratio of deleted documents is above a threshold: it is rebuilt without the
+     * deleted documents, which renumbers the rest, and replaces the files on disk.
+     * <p>
+     * The index must have been loaded with all its structures, and must be loaded again afterwards.
+     * @param threshold the minimum ratio of deleted documents to compact the index.
+     * @return {@code true} if the index was compacted.
+     * @throws Exception if an error occurs while rebuilding the index.
+     */
+    public boolean compact(double threshold) throws Exception
+    {
+        int deleted = this.getNumDeleted();
+        if (deleted == 0 || deleted <= threshold * this.numDocuments)
+            return false;
+        if (deleted == this.numDocuments)
+            throw new IOException("All documents in the index are deleted.");
+
+        File dir = new File(this.path).getAbsoluteFile();
+        File compacted = new File(dir.getPath() + ".compact");
+        File old = new File(dir.getPath() + ".old");
+        Indexer indexer = new Indexer(compacted, null, null);
+        indexer.setCodec(this.invertedCodec);
+        if (this.hasImpacts())
+            indexer.setImpacts(this.getImpactBits(), this.impactScalePerTerm);
+        indexer.merge(Collections.singletonList(this));
+        this.close();
+
+        Files.move(dir.toPath(), old.toPath());
+        Files.move(compacted.toPath(), dir.toPath());
+        Index.deleteRecursively(old);
+        return true;
+    }
+    /**
+     * Deletes a file, or a directory with all its contents, ignoring files that can not be deleted.
+     * @param file the file or directory.
+     */
+    protected static void deleteRecursively(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                Index.deleteRecursively(child);
+        file.delete();
+    }
+    /**
+     * Saves the live documents to {@code livedocs.bin}, replacing it atomically.
+     * <p>
+     * After the header {@code (magic, version, numDocuments, numDeleted)}, the file stores the bitset of live
+     * documents as {@code long} words.
+     * @throws IOException if an error occurs while writing the file.
+     */
+    protected void saveLiveDocs() throws IOException
+    {
+        long[] words = Arrays.copyOf(this.liveDocs.toLongArray(), (this.numDocuments + 63) / 64);
+        DataOutputStream dos = this.createFile("livedocs.tmp", this.numDocuments, this.getNumDeleted());
+        for (long word : words)
+            dos.writeLong(word);
+        dos.close();
+        Files.move(Paths.get(this.path, "livedocs.tmp"), Paths.get(this.path, "livedocs.bin"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    /**
+     * Returns the vector norm of the specified document in the loaded index.
+     * @param docID the ID of the document.
+     * @return the document norm.
+     */
+    public double getDocNorm(int docID)
+    {
+        return this.documentsBuffer.getDouble(HEADER_BYTES + docID * DOC_ENTRY_BYTES);
+    }
+    /**
+     * Returns the reciprocal of the vector norm of the specified document in the loaded index.
+     * @param docID the ID of the document.
+     * @return the reciprocal of the document norm.
+     */
+    public double getInverseDocNorm(int docID)
+    {
+        return this.inverseNorms[docID];
+    }
+    /**
+     * Returns the inverted postings list of the specified term in the loaded index.
+     * @param termID the ID of the term.
+     * @return a cursor over the postings of the term, sorted by {@code docID}.
+     */
+    public PostingsCursor getInvertedPostings(int termID)
+    {
+        this.checkLoaded(Structure.INVERTED);
+        if (this.loadMode == LoadMode.HEAP)
+            return this.invertedIndex.get(termID).cursor();
+        if (this.loadMode == LoadMode.LAZY)
+            return this.postingsCache.get(this.cacheKeyBase + termID, key -> {
+                double idf = this.getIdf(termID);
+                return PostingsList.of(this.invertedCodec.cursor(this.readPostings(this.invertedChannel, termID), id -> idf));
+            }).cursor();
+        return this.decodeInvertedPostings(termID);
+    }
+    /**
+     * Returns the direct postings list of the specified document in the loaded index.
+     * @param docID the ID of the document.
+     * @return a cursor over the postings of the document, sorted by {@code termID}.
+     */
+    public PostingsCursor getDirectPostings(int docID)
+    {
+        this.checkLoaded(Structure.DIRECT);
+        if (this.loadMode == LoadMode.LAZY)
+            // Direct lists are keyed after all terms, so that both kinds share the cache
+            return this.postingsCache.get(this.cacheKeyBase + this.numTerms + docID, key ->
+                    PostingsList.of(this.directCodec.cursor(this.readPostings(this.directChannel, docID), this::getIdf))
+            ).cursor();
+        return this.decodeDirectPostings(docID);
+    }
+    /**
+     * Checks that the specified structure was loaded.
+     * @param structure the structure.
+     * @throws IllegalStateException if the structure was not loaded.
+     */
+    protected void checkLoaded(Structure structure)
+    {
+        if (!this.structures.contains(structure))
+            throw new IllegalStateException("The " + structure.name().toLowerCase() + " index was not loaded.");
+    }
+    /**
+     * Returns a cursor that decodes the inverted postings list of the specified term from the mapped file.
+     * @param termID the ID of the term.
+     * @return a cursor over the postings of the term.
+     */
+    protected PostingsCursor decodeInvertedPostings(int termID)
+    {
+        double idf = this.getIdf(termID);
+        return this.invertedCodec.cursor(Index.slicePostings(this.invertedBuffer, termID), id -> idf);
+    }
+    /**
+     * Returns a cursor that decodes the direct postings list of the specified document from the mapped file.
+     * @param docID the ID of the document.
+     * @return a cursor over the postings of the document.
+     */
+    protected PostingsCursor decodeDirectPostings(int docID)
+    {
+        return this.directCodec.cursor(Index.slicePostings(this.directBuffer, docID), this::getIdf);
+    }
+    /**
+     * Returns the inverted postings list of the specified term, weighted with another IDF than the one of this index,
+     * as the segments of a {@link SegmentedIndex} are with the global IDF.
+     * <p>
+     * Quantized postings are decoded straight with that IDF from the postings file. Cached lists in {@link
+     * LoadMode#LAZY} mode and raw weights hold the IDF of this index, so their term frequencies are rebuilt first.
+     * @param termID the ID of the term.
+     * @param idf the IDF to weight the postings with.
+     * @return a cursor over the postings of the term, sorted by {@code docID}.
+     */
+    protected PostingsCursor getInvertedPostings(int termID, double idf)
+    {
+        this.checkLoaded(Structure.INVERTED);
+        if (this.loadMode != LoadMode.LAZY && this.invertedCodec instanceof BlockCodec)
+            return this.invertedCodec.cursor(Index.slicePostings(this.invertedBuffer, termID), id -> idf);
+        double ownIdf = this.getIdf(termID);
+        return new ReweightedCursor(this.getInvertedPostings(termID), id -> ownIdf, id -> idf);
+    }
+    /**
+     * Returns the direct postings list of the specified document, weighted with other IDFs than the ones of this index.
+     * @param docID the ID of the document.
+     * @param idf the IDF to weight every posting with, by {@code termID}.
+     * @return a cursor over the postings of the document, sorted by {@code termID}.
+     * @see #getInvertedPostings(int, double)
+     */
+    protected PostingsCursor getDirectPostings(int docID, IntToDoubleFunction idf)
+    {
+        this.checkLoaded(Structure.DIRECT);
+        if (this.loadMode != LoadMode.LAZY && this.directCodec instanceof BlockCodec)
+            return this.directCodec.cursor(Index.slicePostings(this.directBuffer, docID), idf);
+        return new ReweightedCursor(this.getDirectPostings(docID), this::getIdf, idf);
+    }
+    /**
+     * Weights the postings of another cursor with a different IDF, rebuilding their term frequencies from the IDF they
+     * were weighted with.
+     */
+    protected static class ReweightedCursor implements PostingsCursor
+    {
+        protected final PostingsCursor cursor;
+        protected final IntToDoubleFunction fromIdf;
+        protected final IntToDoubleFunction toIdf;
+
+        /**
+         * Creates a cursor that weights the postings of another one with a different IDF.
+         * @param cursor the cursor over the postings.
+         * @param fromIdf the IDF the postings are weighted with, by {@code id}.
+         * @param toIdf the IDF to weight the postings with, by {@code id}.
+         */
+        protected ReweightedCursor(PostingsCursor cursor, IntToDoubleFunction fromIdf, IntToDoubleFunction toIdf)
+        {
+            this.cursor = cursor;
+            this.fromIdf = fromIdf;
+            this.toIdf = toIdf;
+        }
+
+        @Override
+        public boolean next()
+        {
+            return this.cursor.next();
+        }
+
+        @Override
+        public boolean advance(int target)
+        {
+            return this.cursor.advance(target);
+        }
+
+        @Override
+        public int docID()
+        {
+            return this.cursor.docID();
+        }
+
+        @Override
+        public double weight()
+        {
+            int id = this.cursor.docID();
+            int tf = PostingsCodec.quantize(this.cursor.weight(), this.fromIdf.applyAsDouble(id));
+            return PostingsCodec.dequantize(tf, this.toIdf.applyAsDouble(id));
+        }
+
+        @Override
+        public int size()
+        {
+            return this.cursor.size();
+        }
+    }
+    /**
+     * Slices the {@code i}-th postings list out of a mapped postings file.
+     * @param postings the mapped postings file.
+     * @param i the index of the list.
+     * @return a read-only buffer with the postings list.
+     */
+    protected static ByteBuffer slicePostings(ByteBuffer postings, int i)
+    {
+        int entry = HEADER_BYTES + i * 8;
+        ByteBuffer slice = postings.duplicate();
+        slice.limit((int) postings.getLong(entry + 8));
+        slice.position((int) postings.getLong(entry));
+        return slice.slice();
+    }
+
     /**
      * Saves the index to the path specified in the {@link Index#Index constructor}.
+     * <p>
+     * The index is stored in four binary files, all starting with the {@code (magic, version, count, codec)} header:
+     * <ul>
+     * <li>{@code vocabulary.bin}: the {@link TermDictionary} with the terms sorted by their UTF-8 bytes. Terms are
+     * renumbered so that the {@code termID} is the position in this order.</li>
+     * <li>{@code documents.bin}: {@code count} entries {@code (norm, nameOffset, nameLength)} by {@code docID},
+     * followed by the UTF-8 bytes of the document names.</li>
+     * <li>{@code inverted.bin} and {@code direct.bin}: {@code count+1} offsets of the postings lists within the file,
+     * followed by the lists themselves, sorted by {@code id} and encoded with the {@link #setCodec codec} in the
+     * header.</li>
+     * </ul>
+     * The upper bounds of the contributions of every term are saved to {@code bounds.bin}, as described in {@link
+     * #saveBounds}, and the quantized impacts to {@code impacts.bin} if {@link #setImpacts set}.
      * @throws IOException if an error occurs while saving the index.
      */
     public void save() throws IOException
@@ -180,82 +1206,358 @@ public class Index
         if (!di.exists())
             di.mkdir();
 
-        // Vocabulary
-        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(Paths.get(this.path, "vocabulary").toFile()));
-        oos.writeInt(this.vocabulary.size());
+        // Sort terms by their UTF-8 bytes and renumber them
+        int termCount = this.vocabulary.size();
+        byte[][] terms = new byte[termCount][];
+        double[] idfs = new double[termCount];
+        double[] sortedIdfs = new double[termCount];
         for (Map.Entry<String, Tuple<Integer, Double>> entry : this.vocabulary.entrySet()) {
-            oos.writeUTF(entry.getKey());
-            oos.writeInt(entry.getValue().item1);
-            oos.writeDouble(entry.getValue().item2);
+            terms[entry.getValue().item1] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            idfs[entry.getValue().item1] = entry.getValue().item2;
         }
-        oos.close();
+        Integer[] order = new Integer[termCount];
+        for (int i = 0; i < termCount; i++)
+            order[i] = i;
+        Arrays.sort(order, (t1, t2) -> Index.compareBytes(terms[t1], terms[t2]));
+        int[] newTermIDs = new int[termCount];
+        for (int i = 0; i < termCount; i++) {
+            newTermIDs[order[i]] = i;
+            sortedIdfs[i] = idfs[order[i]];
+        }
+
+        // Vocabulary
+        DataOutputStream dos = this.createFile("vocabulary.bin", termCount, TermDictionary.BLOCK_SIZE);
+        byte[][] sortedTerms = new byte[termCount][];
+        int[] sortedDfs = new int[termCount];
+        for (int i = 0; i < termCount; i++) {
+            sortedTerms[i] = terms[order[i]];
+            sortedDfs[i] = this.invertedIndex.get(order[i]).size();
+        }
+        TermDictionary.write(dos, sortedTerms, sortedDfs, sortedIdfs);
+        dos.close();
         // Documents
-        oos = new ObjectOutputStream(new FileOutputStream(Paths.get(this.path, "documents").toFile()));
-        oos.writeInt(this.documents.size());
-        for (Tuple<String, Double> entry : this.documents) {
-            oos.writeUTF(entry.item1);
-            oos.writeDouble(entry.item2);
+        dos = this.createFile("documents.bin", this.documents.size(), 0);
+        byte[][] names = new byte[this.documents.size()][];
+        int offset = 0;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = this.documents.get(i).item1.getBytes(StandardCharsets.UTF_8);
+            dos.writeDouble(this.documents.get(i).item2);
+            dos.writeInt(offset);
+            dos.writeInt(names[i].length);
+            offset += names[i].length;
         }
-        oos.close();
+        for (byte[] name : names)
+            dos.write(name);
+        dos.close();
         // Inverted
-        oos = new ObjectOutputStream(new FileOutputStream(Paths.get(this.path, "inverted").toFile()));
-        oos.writeInt(this.invertedIndex.size());
-        for (ArrayList<Tuple<Integer, Double>> entry : this.invertedIndex) {
-            oos.writeInt(entry.size());
-            for (Tuple<Integer, Double> entry2 : entry) {
-                oos.writeInt(entry2.item1);
-                oos.writeDouble(entry2.item2);
+        ArrayList<PostingsList> inverted = new ArrayList<>(termCount);
+        for (int i = 0; i < termCount; i++)
+            inverted.add(this.invertedIndex.get(order[i]));
+        this.savePostings("inverted.bin", inverted, null, list -> id -> sortedIdfs[list]);
+        // Direct
+        this.savePostings("direct.bin", this.directIndex, newTermIDs, list -> id -> sortedIdfs[id]);
+        // Impacts
+        if (this.impactBits > 0)
+            this.saveImpacts(inverted);
+        else
+            Paths.get(this.path, "impacts.bin").toFile().delete();
+        // Bounds
+        this.saveBounds(inverted.size(), inverted::get, docID -> this.documents.get(docID).item2);
+        // A new index has no deletions
+        Paths.get(this.path, "livedocs.bin").toFile().delete();
+        // Cached documents
+        if (this.documentStoreWriter != null) {
+            this.documentStoreWriter.close();
+            this.documentStoreWriter = null;
+        }
+    }
+    /**
+     * Writes the quantized impacts of the given inverted postings lists to {@code impacts.bin}.
+     * <p>
+     * After the header, which holds the number of bits per impact instead of a codec, the file has the offsets of
+     * every list, the scale factor of every term, and the lists themselves. Each list is its number of postings, the
+     * gaps between {@code docID}s with variable-byte encoding, and the impacts with {@link #impactBits} bits each.
+     * @param lists the inverted postings lists, sorted by {@code docID}.
+     * @throws IOException if an error occurs while saving the impacts.
+     */
+    protected void saveImpacts(ArrayList<PostingsList> lists) throws IOException
+    {
+        this.saveImpacts(lists.size(), lists::get, docID -> this.documents.get(docID).item2);
+    }
+    /**
+     * Writes the quantized impacts of some inverted postings lists to {@code impacts.bin}, as {@link
+     * #saveImpacts(ArrayList)} does, getting every list twice instead of keeping them all in memory.
+     * @param count the number of lists.
+     * @param lists the function that gives a list from its index, sorted by {@code docID}.
+     * @param norms the function that gives the norm of a document from its {@code docID}.
+     * @throws IOException if an error occurs while saving the impacts.
+     */
+    protected void saveImpacts(int count, IntFunction<PostingsList> lists, IntToDoubleFunction norms)
+            throws IOException
+    {
+        // Compute scale factors: the largest impact of each term, or of all terms
+        double[] scales = new double[count];
+        double globalScale = 0;
+        for (int i = 0; i < count; i++) {
+            PostingsList list = lists.apply(i);
+            for (int j = 0; j < list.size(); j++)
+                scales[i] = Math.max(scales[i], list.weight(j) / norms.applyAsDouble(list.docID(j)));
+            globalScale = Math.max(globalScale, scales[i]);
+        }
+        if (!this.impactScalePerTerm)
+            Arrays.fill(scales, globalScale);
+
+        DataOutputStream dos = this.createFile("impacts.bin", count, this.impactBits);
+        long[] offsets = new long[count + 1];
+        dos.write(new byte[offsets.length * 8]);
+        for (double scale : scales)
+            dos.writeDouble(scale);
+        int levels = (1 << this.impactBits) - 1;
+        for (int i = 0; i < count; i++) {
+            offsets[i] = dos.size();
+            PostingsList list = lists.apply(i);
+            dos.writeInt(list.size());
+            for (int j = 0, lastID = -1; j < list.size(); lastID = list.docID(j), j++)
+                PostingsCodec.writeVByte(dos, list.docID(j) - lastID);
+            for (int j = 0; j < list.size(); j++) {
+                double impact = list.weight(j) / norms.applyAsDouble(list.docID(j));
+                int quantized = Math.max(1, (int) Math.round(impact / scales[i] * levels));
+                if (this.impactBits == 8)
+                    dos.writeByte(quantized);
+                else
+                    dos.writeShort(quantized);
             }
         }
-        oos.close();
-        // Direct
-        oos = new ObjectOutputStream(new FileOutputStream(Paths.get(this.path, "direct").toFile()));
-        oos.writeInt(this.directIndex.size());
-        for (ArrayList<Tuple<Integer, Double>> entry : this.directIndex) {
-            oos.writeInt(entry.size());
-            for (Tuple<Integer, Double> entry2 : entry) {
-                oos.writeInt(entry2.item1);
-                oos.writeDouble(entry2.item2);
+        offsets[count] = dos.size();
+        dos.close();
+        this.writeOffsets("impacts.bin", offsets);
+    }
+    /**
+     * Writes the upper bounds of the contributions {@code weight/norm} of some inverted postings lists to {@code
+     * bounds.bin}, for {@link TermBounds dynamic pruning}.
+     * <p>
+     * After the header, which holds the number of postings per block instead of a codec, the file has the offsets of
+     * every list of bounds, and the lists themselves. Each list is the largest contribution of the term and, if its
+     * postings are split in several blocks, the number of blocks, the last {@code docID} of every block, and the
+     * largest contribution within every block. Most terms appear in a single block, which needs no more bounds.
+     * @param count the number of lists.
+     * @param lists the function that gives a list from its index, sorted by {@code docID}.
+     * @param norms the function that gives the norm of a document from its {@code docID}.
+     * @throws IOException if an error occurs while saving the bounds.
+     */
+    protected void saveBounds(int count, IntFunction<PostingsList> lists, IntToDoubleFunction norms)
+            throws IOException
+    {
+        DataOutputStream dos = this.createFile("bounds.bin", count, BlockCodec.BLOCK_SIZE);
+        long[] offsets = new long[count + 1];
+        dos.write(new byte[offsets.length * 8]);
+        for (int i = 0; i < count; i++) {
+            offsets[i] = dos.size();
+            PostingsList list = lists.apply(i);
+            int numBlocks = (list.size() + BlockCodec.BLOCK_SIZE - 1) / BlockCodec.BLOCK_SIZE;
+            double[] blockMax = new double[numBlocks];
+            double max = 0;
+            for (int j = 0; j < list.size(); j++) {
+                double contribution = list.weight(j) / norms.applyAsDouble(list.docID(j));
+                blockMax[j / BlockCodec.BLOCK_SIZE] = Math.max(blockMax[j / BlockCodec.BLOCK_SIZE], contribution);
+                max = Math.max(max, contribution);
+            }
+            dos.writeDouble(max);
+            if (numBlocks <= 1)
+                continue;
+            dos.writeInt(numBlocks);
+            for (int b = 0; b < numBlocks; b++)
+                dos.writeInt(list.docID(Math.min(list.size(), (b + 1) * BlockCodec.BLOCK_SIZE) - 1));
+            for (int b = 0; b < numBlocks; b++)
+                dos.writeDouble(blockMax[b]);
+        }
+        offsets[count] = dos.size();
+        dos.close();
+        this.writeOffsets("bounds.bin", offsets);
+    }
+    /**
+     * Writes a list of postings lists to the specified binary file, encoded with the {@link #setCodec codec}.
+     * @param fileName the name of the file within the index directory.
+     * @param lists the postings lists.
+     * @param idMap the new ID of every {@code id} in the postings, or {@code null} to keep them as they are.
+     * @param idf the function that gives, for the index of a list, the function that gives the IDF of a posting from
+     *            its (new) {@code id}.
+     * @throws IOException if an error occurs while saving the postings.
+     */
+    protected void savePostings(String fileName, ArrayList<PostingsList> lists, int[] idMap,
+                                IntFunction<IntToDoubleFunction> idf) throws IOException
+    {
+        // Write the lists after room for the offsets, which are filled in afterwards
+        DataOutputStream dos = this.createFile(fileName, lists.size(), this.codec.getID());
+        long[] offsets = new long[lists.size() + 1];
+        dos.write(new byte[offsets.length * 8]);
+        for (int i = 0; i < lists.size(); i++) {
+            offsets[i] = dos.size();
+            PostingsList list = lists.get(i);
+            if (idMap != null) {
+                PostingsList mapped = new PostingsList(list.size());
+                for (int j = 0; j < list.size(); j++)
+                    mapped.add(idMap[list.docID(j)], list.weight(j));
+                mapped.sort();
+                list = mapped;
             }
+            this.codec.encode(dos, list, idf.apply(i));
+        }
+        offsets[lists.size()] = dos.size();
+        dos.close();
+        this.writeOffsets(fileName, offsets);
+    }
+    /**
+     * Writes the table of offsets of a postings file right after its header, where room was left for it.
+     * @param fileName the name of the file within the index directory.
+     * @param offsets the offsets of the lists in the file.
+     * @throws IOException if an error occurs while writing the offsets.
+     */
+    protected void writeOffsets(String fileName, long[] offsets) throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(Paths.get(this.path, fileName).toFile(), "rw")) {
+            file.seek(HEADER_BYTES);
+            ByteBuffer buffer = ByteBuffer.allocate(offsets.length * 8);
+            buffer.asLongBuffer().put(offsets);
+            file.write(buffer.array());
+        }
+    }
+    /**
+     * Creates the specified binary file and writes its header.
+     * @param fileName the name of the file within the index directory.
+     * @param count the number of entries in the file.
+     * @param codec the ID of the codec of the postings in the file, or {@code 0} if it has no postings (the number of
+     *              bits per impact in the impacts file).
+     * @return the stream to write the rest of the file.
+     * @throws IOException if an error occurs while creating the file.
+     */
+    protected DataOutputStream createFile(String fileName, int count, int codec) throws IOException
+    {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(Paths.get(this.path, fileName).toFile())));
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(count);
+        dos.writeInt(codec);
+        return dos;
+    }
+    /**
+     * Compares two byte arrays lexicographically, treating bytes as unsigned.
+     * @param b1 the first array.
+     * @param b2 the second array.
+     * @return a negative number, zero or a positive number if {@code b1} is less than, equal to, or greater than
+     * {@code b2}.
+     */
+    protected static int compareBytes(byte[] b1, byte[] b2)
+    {
+        for (int i = 0; i < b1.length && i < b2.length; i++) {
+            int cmp = (b1[i] & 0xff) - (b2[i] & 0xff);
+            if (cmp != 0)
+                return cmp;
         }
-        oos.close();
+        return b1.length - b2.length;
+    }
+    /**
+     * Describes how a postings structure is stored for {@link #printStatistics}.
+     * @param structure the structure.
+     * @param loadedCodec the codec of the structure if the index was loaded.
+     * @return the name of the codec, or a note that the structure was not loaded.
+     */
+    protected String describe(Structure structure, PostingsCodec loadedCodec)
+    {
+        if (this.loadTime < 0)
+            return this.codec.getName();
+        if (!this.structures.contains(structure))
+            return "not loaded";
+        return loadedCodec.getName();
     }
     /**
      * Prints statistics about the index to {@link System#err}.
      * The statistics include the number of terms in the vocabulary and its size, the number of documents and the size
-     * of the cache, and the size of the direct and inverted indexes.
+     * of the cache, the size of the direct and inverted indexes, and the time the last {@link #load} took, in total and
+     * per structure. Loading it again with the files in the page cache is measured by {@code bench load}, with {@link
+     * Benchmark#benchLoad}.
      */
     public void printStatistics()
     {
         DecimalFormat df = new DecimalFormat("#.##");
+        boolean loaded = this.loadTime >= 0;
 
-        System.err.print("  - Vocabulary: " + this.vocabulary.size() + " terms");
-        File file = Paths.get(this.path, "vocabulary").toFile();
+        System.err.print("  - Vocabulary: " + (loaded ? this.numTerms : this.vocabulary.size()) + " terms");
+        File file = Paths.get(this.path, "vocabulary.bin").toFile();
         if (file.exists())
             System.err.print(" (" + df.format(file.length() / 1024d / 1024d) + " MB)");
         System.err.println(".");
 
-        System.err.print("  - Documents: " + this.documents.size() + " documents");
-        file = Paths.get(this.path, "documents").toFile();
+        System.err.print("  - Documents: " + (loaded ? this.numDocuments : this.documents.size()) + " documents");
+        file = Paths.get(this.path, "documents.bin").toFile();
         if (file.exists())
             System.err.print(" (" + df.format(file.length() / 1024d) + " KB)");
         System.err.println(".");
 
-        file = Paths.get(this.path, "inverted").toFile();
+        if (loaded && this.liveDocs != null)
+            System.err.println("  - Deleted: " + this.getNumDeleted() + " documents ("
+                    + df.format(100d * this.getNumDeleted() / this.numDocuments) + "%).");
+
+        file = Paths.get(this.path, "inverted.bin").toFile();
+        if (file.exists())
+            System.err.println("  - Inverted: " + df.format(file.length() / 1024d / 1024d) + " MB ("
+                    + this.describe(Structure.INVERTED, this.invertedCodec) + ").");
+
+        file = Paths.get(this.path, "direct.bin").toFile();
+        if (file.exists())
+            System.err.println("  - Direct: " + df.format(file.length() / 1024d / 1024d) + " MB ("
+                    + this.describe(Structure.DIRECT, this.directCodec) + ").");
+
+        file = Paths.get(this.path, "impacts.bin").toFile();
         if (file.exists())
-            System.err.println("  - Inverted: " + df.format(file.length() / 1024d / 1024d) + " MB.");
+            System.err.println("  - Impacts: " + df.format(file.length() / 1024d / 1024d) + " MB"
+                    + (this.loadTime >= 0 && this.impactsBuffer == null ? " (not loaded)" : "") + ".");
 
-        file = Paths.get(this.path, "direct").toFile();
+        file = Paths.get(this.path, "bounds.bin").toFile();
         if (file.exists())
-            System.err.println("  - Direct: " + df.format(file.length() / 1024d / 1024d) + " MB.");
+            System.err.println("  - Bounds: " + df.format(file.length() / 1024d / 1024d) + " MB"
+                    + (this.loadTime >= 0 && this.boundsBuffer == null ? " (not loaded)" : "") + ".");
+
+        if (this.documentStore != null || Paths.get(this.path, "cache.idx").toFile().exists()) {
+            try {
+                // Just saved, the store is not open yet
+                DocumentStore store = this.documentStore != null ? this.documentStore
+                        : new DocumentStore(Paths.get(this.path));
+                long compressed = store.getCompressedBytes();
+                System.err.println("  - Cache: " + df.format(compressed / 1024d / 1024d) + " MB, "
+                        + df.format(store.getUncompressedBytes() / 1024d / 1024d) + " MB uncompressed "
+                        + "(compression ratio " + df.format((double) store.getUncompressedBytes() / compressed)
+                        + ").");
+                if (store != this.documentStore)
+                    store.close();
+            } catch (IOException ex) {
+                System.err.println("  - Cache: unreadable (" + ex.getMessage() + ").");
+            }
+        } else {
+            long cacheSize = 0;
+            for(int block = 0; block < this.DOCS_PER_CACHE_BLOCK; block++){
+                File blockPath = Paths.get(this.path, "cache"+block).toFile();
+                if(blockPath.exists())
+                    for(File docFile : blockPath.listFiles())
+                        cacheSize += docFile.length();
+            }
+            System.err.println("  - Cache: " + df.format(cacheSize / 1024d / 1024d) + " MB.");
+        }
 
-        long cacheSize = 0;
-        for(int block = 0; block < this.DOCS_PER_CACHE_BLOCK; block++){
-            File blockPath = Paths.get(this.path, "cache"+block).toFile();
-            if(blockPath.exists())
-                for(File docFile : blockPath.listFiles())
-                    cacheSize += docFile.length();
+        if (loaded) {
+            System.err.println("  - Load time (" + this.loadMode.name().toLowerCase() + ", " + this.loadThreads
+                    + " threads): " + df.format(this.loadTime / 1e6) + " ms.");
+            // Per structure, so they add up to more than the total when loaded in parallel
+            StringBuilder times = new StringBuilder("  - Load time per structure:");
+            for (String structure : new String[]{"vocabulary", "documents", "inverted", "direct", "impacts", "bounds",
+                    "livedocs", "cache"}) {
+                Long time = this.structureLoadTimes.get(structure);
+                if (time != null)
+                    times.append(' ').append(structure).append(' ').append(df.format(time / 1e6)).append(" ms,");
+            }
+            times.setCharAt(times.length() - 1, '.');
+            System.err.println(times);
         }
-        System.err.println("  - Cache: " + df.format(cacheSize / 1024d / 1024d) + " MB.");
     }
 }
\ No newline at end of file
@@ -5,21 +5,51 @@ package ti;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 
 /**
  * This class contains the logic to run the indexing process of the search engine.
  */
 public class Indexer
 {
+    /**
+     * Number of shares of the collection per thread in the parallel first pass, so that threads that finish early
+     * take more work.
+     */
+    protected static final int SHARES_PER_THREAD = 4;
+    /**
+     * Direct postings of every document until the second pass builds them, shared and never modified.
+     */
+    protected static final PostingsList NO_POSTINGS = new PostingsList(0);
+
     protected File pathToIndex;
     protected File pathToCollection;
     protected DocumentProcessor docProcessor;
+    protected PostingsCodec codec = new RawCodec();
+    protected int impactBits = 0;
+    protected boolean impactScalePerTerm = true;
+    protected int threads = 1;
+    protected int pipelineCapacity = 0;
+    protected Charset charset = StandardCharsets.UTF_8;
+    // One reader per thread that reads documents, all kept for their statistics
+    protected final List<DocumentReader> readers = Collections.synchronizedList(new ArrayList<>());
+    protected final ThreadLocal<DocumentReader> reader = ThreadLocal.withInitial(() -> {
+        DocumentReader reader = new DocumentReader(this.charset);
+        this.readers.add(reader);
+        return reader;
+    });
 
 	/**
      * Creates a new indexer with the given paths and document processor.
@@ -34,6 +64,58 @@ public class Indexer
         this.docProcessor = docProcessor;
     }
 
+    /**
+     * Sets the codec to encode postings lists with in the index files.
+     * @param codec the postings codec.
+     */
+    public void setCodec(PostingsCodec codec)
+    {
+        this.codec = codec;
+    }
+
+    /**
+     * Sets the quantized impacts to save with the index.
+     * @param bits the number of bits of each impact ({@code 8} or {@code 16}), or {@code 0} to save no impacts.
+     * @param scalePerTerm {@code true} to quantize with a scale factor per term, or {@code false} to use a global one.
+     * @see Index#setImpacts
+     */
+    public void setImpacts(int bits, boolean scalePerTerm)
+    {
+        this.impactBits = bits;
+        this.impactScalePerTerm = scalePerTerm;
+    }
+
+    /**
+     * Sets the number of threads to process documents with in the first pass.
+     * @param threads the number of threads.
+     */
+    public void setThreads(int threads)
+    {
+        if (threads <= 0)
+            throw new IllegalArgumentException("The number of threads must be positive.");
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the first pass to run as an {@link IndexingPipeline}, with as many parsers as {@link #setThreads threads}.
+     * @param capacity the capacity of the queues between stages, or {@code 0} to run no pipeline.
+     */
+    public void setPipeline(int capacity)
+    {
+        if (capacity < 0)
+            throw new IllegalArgumentException("The capacity of the queues must not be negative.");
+        this.pipelineCapacity = capacity;
+    }
+
+    /**
+     * Sets the charset of the documents that do not declare one.
+     * @param charset the charset.
+     */
+    public void setCharset(Charset charset)
+    {
+        this.charset = charset;
+    }
+
 	/**
      * Run the indexing process in two passes and save the index to disk.
      * @throws IOException if an error occurs while indexing.
@@ -41,6 +123,8 @@ public class Indexer
     public void run() throws IOException
     {
         Index ind = new Index(this.pathToIndex.getPath());
+        ind.setCodec(this.codec);
+        ind.setImpacts(this.impactBits, this.impactScalePerTerm);
         this.firstPass(ind);
         this.secondPass(ind);
 
@@ -53,11 +137,13 @@ public class Indexer
     }
     /**
      * Runs the first pass of the indexer.
-     * It builds the inverted index by iterating all original document files and calling {@link #processDocument}.
+     * It builds the inverted index by iterating all original document files and calling {@link #processDocument},
+     * in parallel if the indexer has several {@link #setThreads threads}, or as a {@link #setPipeline pipeline}.
      * @param ind the index.
+     * @return the throughput, in MB/s.
      * @throws IOException if an error occurs while processing a document.
      */
-    protected void firstPass(Index ind) throws IOException
+    protected double firstPass(Index ind) throws IOException
     {
         DecimalFormat df = new DecimalFormat("#.##");
         long startTime = System.currentTimeMillis();
@@ -65,83 +151,365 @@ public class Indexer
         long totalBytesDocuments = 0;
 
         System.err.println("Running first pass...");
-        for (File subDir : this.pathToCollection.listFiles()) {
-            if (!subDir.getName().startsWith(".")) {
-                for (File docFile : subDir.listFiles()) {
-                    if (docFile.getPath().endsWith(".html")) {
-                        try {
-                            System.err.print("  Indexing file " + docFile.getName() + "...");
-                            this.processDocument(docFile, ind);
-                            System.err.print("done.");
-                        } catch (IOException ex) {
-                            System.err.println("exception!");
-                            System.err.print(ex.getMessage());
-                        } finally {
-                            System.err.println();
-                        }
-                        totalDocuments++;
-                        totalBytesDocuments += docFile.length();
-                    }
+        ArrayList<File> docFiles = Indexer.listDocuments(this.pathToCollection);
+        IndexingPipeline pipeline = null;
+        if (this.pipelineCapacity > 0) {
+            pipeline = new IndexingPipeline(this, this.threads, this.pipelineCapacity);
+            pipeline.run(ind, docFiles);
+        } else if (this.threads > 1)
+            this.parallelFirstPass(ind, docFiles);
+        else
+            for (File docFile : docFiles) {
+                try {
+                    System.err.print("  Indexing file " + docFile.getName() + "...");
+                    this.processDocument(docFile, ind);
+                    System.err.print("done.");
+                } catch (IOException ex) {
+                    System.err.println("exception!");
+                    System.err.print(ex.getMessage());
+                } finally {
+                    System.err.println();
                 }
             }
+        for (File docFile : docFiles) {
+            totalDocuments++;
+            totalBytesDocuments += docFile.length();
         }
 
         long endTime = System.currentTimeMillis();
-        double totalTime = (endTime - startTime) / 1000d;
+        double totalTime = Math.max(1, endTime - startTime) / 1000d;
         double totalMegabytes = totalBytesDocuments / 1024d / 1024d;
         System.err.println("...done:");
         System.err.println("  - Documents: " + totalDocuments + " (" + df.format(totalMegabytes) + " MB).");
         System.err.println("  - Time: " + df.format(totalTime) + " seconds.");
-        System.err.println("  - Throughput: " + df.format(totalMegabytes / totalTime) + " MB/s.");
+        System.err.println("  - Throughput (" + this.threads + " threads): " + df.format(totalMegabytes / totalTime)
+                + " MB/s.");
+        DocumentReader.printStatistics(this.readers);
+        if (pipeline != null)
+            pipeline.printStatistics();
+        return totalMegabytes / totalTime;
+    }
+    /**
+     * Runs the first pass of the indexer with several threads.
+     * <p>
+     * The documents are split in contiguous shares, and each share is indexed by a thread into a private
+     * {@link PartialIndex}. The partial indexes are then merged in order, so that documents and terms get the same IDs
+     * as in the sequential pass, and the index is identical.
+     * @param ind the index.
+     * @param docFiles the document files, in traversal order.
+     * @throws IOException if an error occurs while processing a document.
+     */
+    protected void parallelFirstPass(Index ind, List<File> docFiles) throws IOException
+    {
+        int numShares = Math.min(docFiles.size(), this.threads * SHARES_PER_THREAD);
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        try {
+            ArrayList<Future<PartialIndex>> partials = new ArrayList<>();
+            for (int share = 0; share < numShares; share++) {
+                List<File> shareFiles = docFiles.subList((int) ((long) share * docFiles.size() / numShares),
+                        (int) ((long) (share + 1) * docFiles.size() / numShares));
+                partials.add(executor.submit(() -> this.indexShare(shareFiles)));
+            }
+            // Merge each partial index as soon as it and the previous ones are done
+            for (Future<PartialIndex> partial : partials)
+                this.mergePartial(ind, partial.get());
+        } catch (ExecutionException ex) {
+            throw new IOException("Indexing documents failed.", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Indexing documents was interrupted.", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    /**
+     * Indexes a share of the documents into a new partial index.
+     * @param docFiles the document files of the share.
+     * @return the partial index.
+     */
+    protected PartialIndex indexShare(List<File> docFiles)
+    {
+        PartialIndex partial = new PartialIndex();
+        for (File docFile : docFiles) {
+            // Print whole lines, so that those of different threads are not mixed
+            try {
+                this.processDocument(docFile, partial);
+                System.err.println("  Indexing file " + docFile.getName() + "...done.");
+            } catch (IOException ex) {
+                System.err.println("  Indexing file " + docFile.getName() + "...exception!" + System.lineSeparator()
+                        + ex.getMessage());
+            }
+        }
+        return partial;
+    }
+    /**
+     * Appends a partial index to the index, renumbering its documents after those already in the index, and adding
+     * its new terms in the order they appeared in the partial index.
+     * @param ind the index.
+     * @param partial the partial index.
+     * @throws IOException if an error occurs while storing the cached documents.
+     */
+    protected void mergePartial(Index ind, PartialIndex partial) throws IOException
+    {
+        int docBase = ind.documents.size();
+        for (int docID = 0; docID < partial.documents.size(); docID++) {
+            ind.documents.add(partial.documents.get(docID));
+            ind.directIndex.add(NO_POSTINGS);
+            ind.setCachedDocument(docBase + docID, partial.cachedDocuments.get(docID));
+        }
+
+        String[] terms = new String[partial.vocabulary.size()];
+        for (Map.Entry<String, Tuple<Integer, Double>> term : partial.vocabulary.entrySet())
+            terms[term.getValue().item1] = term.getKey();
+        for (int termID = 0; termID < terms.length; termID++) {
+            Tuple<Integer, Double> termInfo = ind.vocabulary.get(terms[termID]);
+            if (termInfo == null) {
+                termInfo = new Tuple<>(ind.vocabulary.size(), 0d);
+                ind.vocabulary.put(terms[termID], termInfo);
+                ind.invertedIndex.add(new PostingsList());
+            }
+            PostingsList source = partial.invertedIndex.get(termID);
+            PostingsList target = ind.invertedIndex.get(termInfo.item1);
+            for (int i = 0; i < source.size(); i++)
+                target.add(docBase + source.docID(i), source.weight(i));
+        }
+    }
+    /**
+     * An index built in memory by a thread of the parallel first pass, which keeps the cached documents in memory
+     * too until it is merged.
+     */
+    protected static class PartialIndex extends Index
+    {
+        protected final ArrayList<Tuple<String, String>> cachedDocuments = new ArrayList<>();
+
+        public PartialIndex()
+        {
+            super(null);
+        }
+
+        @Override
+        public void setCachedDocument(int docID, Tuple<String, String> docText)
+        {
+            this.cachedDocuments.add(docText);
+        }
+    }
+    /**
+     * Lists the original document files under the specified path, which may be a single {@code .html} file or a
+     * directory to traverse recursively, skipping hidden entries.
+     * @param path the path to a document or a directory of documents.
+     * @return the document files, in traversal order.
+     */
+    protected static ArrayList<File> listDocuments(File path)
+    {
+        ArrayList<File> docFiles = new ArrayList<>();
+        if (path.isFile()) {
+            if (path.getPath().endsWith(".html"))
+                docFiles.add(path);
+        } else {
+            File[] children = path.listFiles();
+            if (children != null)
+                for (File child : children)
+                    if (!child.getName().startsWith("."))
+                        docFiles.addAll(Indexer.listDocuments(child));
+        }
+        return docFiles;
+    }
+    /**
+     * Builds the index by merging other indexes, instead of processing the original documents, and saves it to disk.
+     * <p>
+     * Documents are renumbered consecutively in the order of the sources, purging deleted ones, and IDF, weights and
+     * norms are computed again for the merged collection by {@link #secondPass}.
+     * @param sources the loaded indexes to merge.
+     * @throws Exception if an error occurs while reading the sources or saving the index.
+     */
+    public void merge(List<Index> sources) throws Exception
+    {
+        Index ind = new Index(this.pathToIndex.getPath());
+        ind.setCodec(this.codec);
+        ind.setImpacts(this.impactBits, this.impactScalePerTerm);
+        this.mergePass(ind, sources);
+        this.secondPass(ind);
+
+        System.err.print("Saving index...");
+        ind.save();
+        System.err.println("done.");
+    }
+    /**
+     * Runs the first pass of the indexer over other indexes: it copies their documents and cached versions, and
+     * rebuilds the inverted index with the {@code 1+log(tf)} weights that {@link #processDocument} would compute.
+     * @param ind the index.
+     * @param sources the loaded indexes to merge.
+     * @throws Exception if an error occurs while reading the sources.
+     */
+    protected void mergePass(Index ind, List<Index> sources) throws Exception
+    {
+        System.err.print("Merging " + sources.size() + " indexes...");
+        for (Index source : sources) {
+            // Deleted documents are purged, and the rest renumbered
+            int[] newDocIDs = new int[source.getNumDocuments()];
+            for (int docID = 0; docID < source.getNumDocuments(); docID++) {
+                if (!source.isLive(docID)) {
+                    newDocIDs[docID] = -1;
+                    continue;
+                }
+                newDocIDs[docID] = ind.documents.size();
+                ind.documents.add(new Tuple<>(source.getDocName(docID), 0d));
+                ind.directIndex.add(NO_POSTINGS);
+                ind.setCachedDocument(newDocIDs[docID], source.getCachedDocument(docID));
+            }
+
+            TermDictionary dictionary = source.getDictionary();
+            TermDictionary.TermIterator terms = dictionary.iterator(0);
+            while (terms.next()) {
+                // Weights are exact TF-IDF weights, so the TF is recovered exactly from the IDF of the source
+                double idf = dictionary.getIdf(terms.ordinal());
+                PostingsCursor postings = source.getInvertedPostings(terms.ordinal());
+                PostingsList postingsList = null;
+                while (postings.next()) {
+                    int docID = newDocIDs[postings.docID()];
+                    if (docID < 0)
+                        continue;
+                    // Terms only in deleted documents are dropped too
+                    if (postingsList == null) {
+                        Tuple<Integer, Double> termInfo = ind.vocabulary.get(terms.term());
+                        if (termInfo == null) {
+                            termInfo = new Tuple<>(ind.vocabulary.size(), 0d);
+                            ind.vocabulary.put(terms.term(), termInfo);
+                            ind.invertedIndex.add(new PostingsList());
+                        }
+                        postingsList = ind.invertedIndex.get(termInfo.item1);
+                    }
+                    int tf = PostingsCodec.quantize(postings.weight(), idf);
+                    postingsList.add(docID, 1.0 + Math.log(tf));
+                }
+            }
+        }
+        System.err.println("done.");
     }
     /**
      * Runs the second pass of the indexer.
      * Here it traverses the inverted index to compute and store IDF, update weights in the postings,
      * build the direct index, and compute document norms.
+     * <p>
+     * Each step runs in parallel over shares of terms or documents, with as many threads as the indexer
+     * {@link #setThreads has}. Terms are taken in the order of the vocabulary, and the direct index is built by a counting
+     * sort that keeps that order within each document, so that norms are summed in the same order with any number of
+     * threads, and the index is identical.
      * @param ind the index.
+     * @throws IOException if a step fails.
      */
-    protected void secondPass(Index ind)
+    protected void secondPass(Index ind) throws IOException
     {
         DecimalFormat df = new DecimalFormat("#.##");
         long startTime = System.currentTimeMillis();
+        int numDocs = ind.documents.size();
+        int numShares = this.threads * SHARES_PER_THREAD;
+        ArrayList<Tuple<Integer, Double>> terms = new ArrayList<>(ind.vocabulary.values());
 
         System.err.println("Running second pass...");
-        System.err.print("  Updating term weights and direct index...");
-        // Traverse all terms to compute IDF, direct postings, and norm summations
-        for (Map.Entry<String, Tuple<Integer, Double>> term : ind.vocabulary.entrySet()) {
-            int termID = term.getValue().item1;
-
-            // Lookup inverse postings list and compute IDF
-            ArrayList<Tuple<Integer, Double>> postingsList = ind.invertedIndex.get(termID);
-            double idf = Math.log(1.0 + (double) ind.documents.size() / postingsList.size());
-            term.getValue().item2 = idf;
-
-            // Traverse postings
-            for (Tuple<Integer, Double> posting : postingsList) {
-                int docID = posting.item1;
-                double tf = posting.item2;
-                // update weight
-                posting.item2 = tf * idf;
-                // add to doc norm
-                ind.documents.get(docID).item2 += Math.pow(tf * idf, 2.0);
-                // and add direct posting
-                ind.directIndex.get(docID).add(new Tuple<>(termID, tf * idf));
+        ForkJoinPool pool = new ForkJoinPool(this.threads);
+        try {
+            System.err.print("  Updating term weights...");
+            // Compute IDF and weights, and count the direct postings of every document in every share of terms
+            int[][] counts = new int[numShares][numDocs];
+            Indexer.forEachShare(pool, numShares, terms.size(), (share, from, to) -> {
+                for (int i = from; i < to; i++) {
+                    Tuple<Integer, Double> termInfo = terms.get(i);
+                    PostingsList postingsList = ind.invertedIndex.get(termInfo.item1);
+                    double idf = Math.log(1.0 + (double) numDocs / postingsList.size());
+                    termInfo.item2 = idf;
+                    for (int j = 0; j < postingsList.size(); j++) {
+                        postingsList.setWeight(j, postingsList.weight(j) * idf);
+                        counts[share][postingsList.docID(j)]++;
+                    }
+                }
+            });
+            System.err.println("done.");
+
+            System.err.print("  Building direct index...");
+            // Turn counts into the positions where every share writes the postings of every document, and allocate
+            // the direct lists with their final size
+            for (int docID = 0; docID < numDocs; docID++) {
+                int size = 0;
+                for (int share = 0; share < numShares; share++) {
+                    int count = counts[share][docID];
+                    counts[share][docID] = size;
+                    size += count;
+                }
+                ind.directIndex.set(docID, PostingsList.ofSize(size));
             }
-        }
-        System.err.println("done.");
+            Indexer.forEachShare(pool, numShares, terms.size(), (share, from, to) -> {
+                int[] positions = counts[share];
+                for (int i = from; i < to; i++) {
+                    int termID = terms.get(i).item1;
+                    PostingsList postingsList = ind.invertedIndex.get(termID);
+                    for (int j = 0; j < postingsList.size(); j++) {
+                        int docID = postingsList.docID(j);
+                        ind.directIndex.get(docID).set(positions[docID]++, termID, postingsList.weight(j));
+                    }
+                }
+            });
+            System.err.println("done.");
 
-        System.err.print("  Updating document norms...");
-        // Traverse all documents to root-square norms
-        for (int docID = 0; docID < ind.documents.size(); docID++) {
-            Tuple<String, Double> docInfo = ind.documents.get(docID);
-            docInfo.item2 = Math.sqrt(docInfo.item2);
+            System.err.print("  Updating document norms...");
+            Indexer.forEachShare(pool, numShares, numDocs, (share, from, to) -> {
+                for (int docID = from; docID < to; docID++) {
+                    PostingsList direct = ind.directIndex.get(docID);
+                    double norm = 0;
+                    for (int i = 0; i < direct.size(); i++)
+                        norm += Math.pow(direct.weight(i), 2.0);
+                    ind.documents.get(docID).item2 = Math.sqrt(norm);
+                }
+            });
+        } finally {
+            pool.shutdownNow();
         }
 
         long endTime = System.currentTimeMillis();
         double totalTime = (endTime - startTime) / 1000d;
         System.err.println("done.");
         System.err.println("...done");
-        System.err.println("  - Time: " + df.format(totalTime) + " seconds.");
+        System.err.println("  - Time: " + df.format(totalTime) + " seconds (" + this.threads + " threads).");
+    }
+    /**
+     * A step of the second pass over a share of terms or documents.
+     */
+    protected interface ShareTask
+    {
+        /**
+         * Runs the step over a share.
+         * @param share the index of the share.
+         * @param from the first item of the share, inclusive.
+         * @param to the last item of the share, exclusive.
+         */
+        void run(int share, int from, int to);
+    }
+    /**
+     * Splits some items in contiguous shares of about the same size, and runs a task over each share in parallel.
+     * @param pool the pool to run the tasks in.
+     * @param numShares the number of shares.
+     * @param size the number of items.
+     * @param task the task.
+     * @throws IOException if a task fails.
+     */
+    protected static void forEachShare(ForkJoinPool pool, int numShares, int size, ShareTask task) throws IOException
+    {
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>(numShares);
+        for (int share = 0; share < numShares; share++) {
+            int index = share;
+            int from = (int) ((long) share * size / numShares);
+            int to = (int) ((long) (share + 1) * size / numShares);
+            tasks.add(pool.submit(() -> task.run(index, from, to)));
+        }
+        try {
+            for (ForkJoinTask<?> future : tasks)
+                future.get();
+        } catch (ExecutionException ex) {
+            throw new IOException("Running the second pass failed.", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Running the second pass was interrupted.", ex);
+        }
     }
 	/**
      * Process the original document in the specified path and add it to the given index.
@@ -154,33 +522,73 @@ public class Indexer
      */
     protected void processDocument(File docFile, Index ind) throws IOException
     {
-        String html = new String(Files.readAllBytes(docFile.toPath()));
+        String html = this.readDocument(docFile);
         Tuple<String, String> parsed = this.docProcessor.parse(html);
-        ArrayList<String> titleTerms = this.docProcessor.processText(parsed.item1);
-        ArrayList<String> allTerms = this.docProcessor.processText(parsed.item2);
+        TermCounter terms = new TermCounter();
+        this.docProcessor.processText(parsed.item2, terms);
 
+        int docID = this.invertDocument(ind, Indexer.getDocName(docFile), terms);
+        ind.setCachedDocument(docID, Indexer.toCachedDocument(parsed));
+    }
+    /**
+     * Reads and decodes an original document with the {@link DocumentReader} of the current thread.
+     * @param docFile the path to the original document file.
+     * @return the text of the document.
+     * @throws IOException if an error occurrs while reading the document.
+     */
+    protected String readDocument(File docFile) throws IOException
+    {
+        return this.reader.get().readString(docFile);
+    }
+    /**
+     * Adds a processed document to the document structures of the given index, and its postings to the inverted
+     * index, adding its new terms to the vocabulary in the order of their first occurrence.
+     * @param ind the index to add the document to.
+     * @param docName the name of the document.
+     * @param terms the terms of the document, with their frequencies.
+     * @return the {@code docID} of the document.
+     */
+    protected int invertDocument(Index ind, String docName, TermCounter terms)
+    {
         // Add document entries
-        String docName = docFile.getName().replace(".html", "");
         int docID = ind.documents.size();
         ind.documents.add(new Tuple<>(docName, 0d));
-        ind.setCachedDocument(docID, new Tuple<>(parsed.item1.replaceAll("\\s+", " "), parsed.item2.replaceAll("\\s+", " ")));
 
-        HashSet<String> uniqTerms = new HashSet<>(allTerms);
-        ind.directIndex.add(new ArrayList<Tuple<Integer, Double>>(uniqTerms.size()));
-        for (String term : uniqTerms) {
+        ind.directIndex.add(NO_POSTINGS);
+        for (int i = 0; i < terms.size(); i++) {
+            String term = terms.term(i);
             // Lookup term info
             Tuple<Integer, Double> termInfo = ind.vocabulary.get(term);
             if (termInfo == null) {
                 // New term: add entry to vocabulary and inverted index
                 termInfo = new Tuple<>(ind.vocabulary.size(), 0d);
                 ind.vocabulary.put(term, termInfo);
-                ind.invertedIndex.add(new ArrayList<Tuple<Integer, Double>>());
+                ind.invertedIndex.add(new PostingsList());
             }
             int termID = termInfo.item1;
 
             // Compute weight and add posting
-            double tf = 1.0 + Math.log(Collections.frequency(allTerms, term));
-            ind.invertedIndex.get(termID).add(new Tuple<>(docID, tf));
+            double tf = 1.0 + Math.log(terms.count(i));
+            ind.invertedIndex.get(termID).add(docID, tf);
         }
+        return docID;
+    }
+    /**
+     * Returns the name of a document from its file name.
+     * @param docFile the path to the original document file.
+     * @return the document name.
+     */
+    protected static String getDocName(File docFile)
+    {
+        return docFile.getName().replace(".html", "");
+    }
+    /**
+     * Returns the cached version of a parsed document, with its whitespace collapsed.
+     * @param parsed a {@link Tuple} with the document title and its body.
+     * @return a {@link Tuple} with the cached title and body.
+     */
+    protected static Tuple<String, String> toCachedDocument(Tuple<String, String> parsed)
+    {
+        return new Tuple<>(parsed.item1.replaceAll("\\s+", " "), parsed.item2.replaceAll("\\s+", " "));
     }
 }
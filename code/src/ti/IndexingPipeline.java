@@ -0,0 +1,403 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the first pass of an {@link Indexer} as a pipeline of stages connected by bounded queues, so that reading,
+ * parsing, inverting and storing documents overlap:
+ * <ol>
+ * <li>a reader thread reads and decodes the document files;</li>
+ * <li>a pool of parser threads parses and tokenizes them with the {@link DocumentProcessor};</li>
+ * <li>the calling thread inverts them into the index, which it owns, in the order of the files;</li>
+ * <li>a writer thread stores their cached versions.</li>
+ * </ol>
+ * A full queue blocks the stage that feeds it, and the documents between the reader and the inverter are limited too,
+ * as the inverter may hold some back until the previous ones are parsed. Documents get the same IDs as in the
+ * sequential pass, so the index is identical.
+ */
+public class IndexingPipeline
+{
+    protected final Indexer indexer;
+    protected final int parsers;
+    protected final int capacity;
+    protected final Stage reader = new Stage("Reader", 1);
+    protected final Stage parser;
+    protected final Stage inverter = new Stage("Inverter", 1);
+    protected final Stage writer = new Stage("Writer", 1);
+    protected long wallTime;
+
+    /**
+     * Creates a new pipeline for the given indexer.
+     *
+     * @param indexer  the indexer, with the document processor and the logic to invert documents.
+     * @param parsers  the number of parser threads.
+     * @param capacity the capacity of each queue.
+     */
+    public IndexingPipeline(Indexer indexer, int parsers, int capacity)
+    {
+        if (parsers <= 0 || capacity <= 0)
+            throw new IllegalArgumentException("The number of parsers and the capacity of the queues must be positive.");
+        this.indexer = indexer;
+        this.parsers = parsers;
+        this.capacity = capacity;
+        this.parser = new Stage("Parsers", parsers);
+    }
+
+    /**
+     * Processes the given documents and adds them to the index.
+     *
+     * @param ind      the index.
+     * @param docFiles the document files, in the order of their {@code docID}s.
+     * @throws IOException if an error occurs while storing a cached document, or a stage fails.
+     */
+    public void run(Index ind, List<File> docFiles) throws IOException
+    {
+        long startTime = System.nanoTime();
+        ArrayBlockingQueue<RawDocument> readQueue = new ArrayBlockingQueue<>(this.capacity);
+        ArrayBlockingQueue<ParsedDocument> parsedQueue = new ArrayBlockingQueue<>(this.capacity);
+        ArrayBlockingQueue<Tuple<Integer, Tuple<String, String>>> writeQueue = new ArrayBlockingQueue<>(this.capacity);
+        // Documents between the reader and the inverter, wherever they are
+        Semaphore inFlight = new Semaphore(2 * this.capacity + this.parsers);
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.parsers + 2);
+        try {
+            ArrayList<Future<?>> stages = new ArrayList<>();
+            stages.add(executor.submit(() -> this.read(docFiles, readQueue, inFlight)));
+            for (int i = 0; i < this.parsers; i++)
+                stages.add(executor.submit(() -> this.parse(readQueue, parsedQueue)));
+            Future<?> writing = executor.submit(() -> this.write(ind, writeQueue));
+            stages.add(writing);
+
+            // Invert in order, holding back documents parsed before the previous ones
+            HashMap<Integer, ParsedDocument> pending = new HashMap<>();
+            for (int seq = 0; seq < docFiles.size(); seq++) {
+                ParsedDocument doc = pending.remove(seq);
+                while (doc == null) {
+                    ParsedDocument next = this.inverter.take(parsedQueue, stages);
+                    if (next.seq == seq)
+                        doc = next;
+                    else
+                        pending.put(next.seq, next);
+                }
+
+                long start = System.nanoTime();
+                if (doc.exception == null) {
+                    int docID = this.indexer.invertDocument(ind, doc.name, doc.terms);
+                    System.err.println("  Indexing file " + doc.file.getName() + "...done.");
+                    this.inverter.done(start, doc.bytes);
+                    this.writer.put(writeQueue, new Tuple<>(docID, doc.cached), stages);
+                } else {
+                    System.err.println("  Indexing file " + doc.file.getName() + "...exception!"
+                            + System.lineSeparator() + doc.exception.getMessage());
+                    this.inverter.done(start, doc.bytes);
+                }
+                inFlight.release();
+            }
+            // No more documents to store
+            this.writer.put(writeQueue, new Tuple<>(-1, null), stages);
+            writing.get();
+        } catch (ExecutionException ex) {
+            throw new IOException("A stage of the indexing pipeline failed.", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Indexing documents was interrupted.", ex);
+        } finally {
+            // Parsers wait for more documents until interrupted
+            executor.shutdownNow();
+        }
+        this.wallTime = System.nanoTime() - startTime;
+    }
+
+    /**
+     * Runs the reader stage: reads and decodes every document file and puts it in the queue.
+     *
+     * @param docFiles  the document files.
+     * @param readQueue the queue of read documents.
+     * @param inFlight  the permits of documents between the reader and the inverter.
+     * @return nothing.
+     * @throws InterruptedException if interrupted while waiting for a permit or room in the queue.
+     */
+    protected Void read(List<File> docFiles, BlockingQueue<RawDocument> readQueue, Semaphore inFlight)
+            throws InterruptedException
+    {
+        for (int seq = 0; seq < docFiles.size(); seq++) {
+            inFlight.acquire();
+            long start = System.nanoTime();
+            RawDocument doc = new RawDocument(seq, docFiles.get(seq));
+            try {
+                doc.html = this.indexer.readDocument(doc.file);
+            } catch (IOException ex) {
+                doc.exception = ex;
+            }
+            this.reader.done(start, doc.file.length());
+            this.reader.put(readQueue, doc);
+        }
+        return null;
+    }
+
+    /**
+     * Runs a parser thread: parses and tokenizes read documents until interrupted.
+     *
+     * @param readQueue   the queue of read documents.
+     * @param parsedQueue the queue of parsed documents.
+     * @return nothing.
+     * @throws InterruptedException when interrupted, once all documents are processed.
+     */
+    protected Void parse(BlockingQueue<RawDocument> readQueue, BlockingQueue<ParsedDocument> parsedQueue)
+            throws InterruptedException
+    {
+        DocumentProcessor docProcessor = this.indexer.docProcessor;
+        while (true) {
+            RawDocument raw = this.parser.take(readQueue);
+            long start = System.nanoTime();
+            ParsedDocument doc = new ParsedDocument(raw.seq, raw.file, raw.file.length());
+            doc.exception = raw.exception;
+            if (raw.exception == null) {
+                Tuple<String, String> parsed = docProcessor.parse(raw.html);
+                doc.terms = new TermCounter();
+                docProcessor.processText(parsed.item2, doc.terms);
+                doc.name = Indexer.getDocName(raw.file);
+                doc.cached = Indexer.toCachedDocument(parsed);
+            }
+            this.parser.done(start, doc.bytes);
+            this.parser.put(parsedQueue, doc);
+        }
+    }
+
+    /**
+     * Runs the writer stage: stores the cached documents in the index until it gets a negative {@code docID}.
+     *
+     * @param ind        the index.
+     * @param writeQueue the queue of cached documents, by {@code docID}.
+     * @return nothing.
+     * @throws IOException          if an error occurs while storing a document.
+     * @throws InterruptedException if interrupted while waiting for a document.
+     */
+    protected Void write(Index ind, BlockingQueue<Tuple<Integer, Tuple<String, String>>> writeQueue)
+            throws IOException, InterruptedException
+    {
+        while (true) {
+            Tuple<Integer, Tuple<String, String>> doc = this.writer.take(writeQueue);
+            if (doc.item1 < 0)
+                return null;
+            long start = System.nanoTime();
+            ind.setCachedDocument(doc.item1, doc.item2);
+            this.writer.done(start, 2L * (doc.item2.item1.length() + doc.item2.item2.length()));
+        }
+    }
+
+    /**
+     * Prints, for every stage, the documents it processed, its throughput while busy and how busy its threads were,
+     * and the depth of the queue it takes documents from, to {@link System#err}. The busiest stage limits the
+     * pipeline.
+     */
+    public void printStatistics()
+    {
+        DecimalFormat df = new DecimalFormat("#.##");
+        Stage[] stages = {this.reader, this.parser, this.inverter, this.writer};
+        Stage bottleneck = this.reader;
+        System.err.println("  - Pipeline stages (queues of " + this.capacity + "):");
+        for (Stage stage : stages) {
+            double busySeconds = stage.busyNanos.get() / 1e9;
+            double utilization = stage.busyNanos.get() / (double) this.wallTime / stage.threads;
+            if (utilization > bottleneck.busyNanos.get() / (double) this.wallTime / bottleneck.threads)
+                bottleneck = stage;
+            System.err.println("    - " + stage.name + " (" + stage.threads + " threads): " + stage.items.get()
+                    + " documents, " + df.format(stage.bytes.get() / 1024d / 1024d / Math.max(busySeconds, 1e-9))
+                    + " MB/s per thread while busy, " + df.format(100 * utilization) + "% busy"
+                    + (stage == this.reader ? "." : ", input queue depth " + df.format(stage.getMeanDepth())
+                    + " on average (max " + stage.maxDepth + ")."));
+        }
+        System.err.println("    - Bottleneck: " + bottleneck.name.toLowerCase() + ".");
+    }
+
+    /**
+     * The statistics of a stage of the pipeline.
+     */
+    protected static class Stage
+    {
+        protected final String name;
+        protected final int threads;
+        protected final AtomicLong items = new AtomicLong();
+        protected final AtomicLong bytes = new AtomicLong();
+        protected final AtomicLong busyNanos = new AtomicLong();
+        protected long depthSum = 0;
+        protected long depthSamples = 0;
+        protected int maxDepth = 0;
+
+        public Stage(String name, int threads)
+        {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        /**
+         * Records that the stage processed a document.
+         *
+         * @param start the time when it started processing it, from {@link System#nanoTime}.
+         * @param bytes the size of the document.
+         */
+        public void done(long start, long bytes)
+        {
+            this.busyNanos.addAndGet(System.nanoTime() - start);
+            this.items.incrementAndGet();
+            this.bytes.addAndGet(bytes);
+        }
+
+        /**
+         * Takes the next document from the queue the stage reads from, sampling its depth.
+         *
+         * @param queue the queue.
+         * @param <T>   the type of documents.
+         * @return the document.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        public <T> T take(BlockingQueue<T> queue) throws InterruptedException
+        {
+            this.sample(queue.size());
+            return queue.take();
+        }
+
+        /**
+         * Takes the next document from the queue the stage reads from, sampling its depth, and checking while waiting
+         * that no other stage failed.
+         *
+         * @param queue  the queue.
+         * @param stages the other stages.
+         * @param <T>    the type of documents.
+         * @return the document.
+         * @throws ExecutionException   if another stage failed.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        public <T> T take(BlockingQueue<T> queue, List<Future<?>> stages)
+                throws ExecutionException, InterruptedException
+        {
+            this.sample(queue.size());
+            T item;
+            while ((item = queue.poll(100, TimeUnit.MILLISECONDS)) == null)
+                Stage.checkFailures(stages);
+            return item;
+        }
+
+        /**
+         * Puts a document in the queue the stage writes to.
+         *
+         * @param queue the queue.
+         * @param item  the document.
+         * @param <T>   the type of documents.
+         * @throws InterruptedException if interrupted while waiting for room.
+         */
+        public <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException
+        {
+            queue.put(item);
+        }
+
+        /**
+         * Puts a document in the queue the stage writes to, checking while waiting that no other stage failed.
+         *
+         * @param queue  the queue.
+         * @param item   the document.
+         * @param stages the other stages.
+         * @param <T>    the type of documents.
+         * @throws ExecutionException   if another stage failed.
+         * @throws InterruptedException if interrupted while waiting for room.
+         */
+        public <T> void put(BlockingQueue<T> queue, T item, List<Future<?>> stages)
+                throws ExecutionException, InterruptedException
+        {
+            while (!queue.offer(item, 100, TimeUnit.MILLISECONDS))
+                Stage.checkFailures(stages);
+        }
+
+        /**
+         * Records the depth of the input queue when the stage takes a document.
+         *
+         * @param depth the number of documents in the queue.
+         */
+        protected synchronized void sample(int depth)
+        {
+            this.depthSum += depth;
+            this.depthSamples++;
+            this.maxDepth = Math.max(this.maxDepth, depth);
+        }
+
+        /**
+         * Returns the mean depth of the input queue when the stage takes a document.
+         *
+         * @return the mean depth.
+         */
+        public synchronized double getMeanDepth()
+        {
+            return this.depthSamples == 0 ? 0 : (double) this.depthSum / this.depthSamples;
+        }
+
+        /**
+         * Throws the failure of any stage that completed abnormally.
+         *
+         * @param stages the stages.
+         * @throws ExecutionException   if a stage failed.
+         * @throws InterruptedException if interrupted.
+         */
+        protected static void checkFailures(List<Future<?>> stages) throws ExecutionException, InterruptedException
+        {
+            for (Future<?> stage : stages)
+                if (stage.isDone())
+                    stage.get();
+        }
+    }
+
+    /**
+     * A document read by the reader stage.
+     */
+    protected static class RawDocument
+    {
+        protected final int seq;
+        protected final File file;
+        protected String html;
+        protected IOException exception;
+
+        public RawDocument(int seq, File file)
+        {
+            this.seq = seq;
+            this.file = file;
+        }
+    }
+
+    /**
+     * A document parsed and tokenized by a parser.
+     */
+    protected static class ParsedDocument
+    {
+        protected final int seq;
+        protected final File file;
+        protected final long bytes;
+        protected String name;
+        protected TermCounter terms;
+        protected Tuple<String, String> cached;
+        protected IOException exception;
+
+        public ParsedDocument(int seq, File file, long bytes)
+        {
+            this.seq = seq;
+            this.file = file;
+            this.bytes = bytes;
+        }
+    }
+}
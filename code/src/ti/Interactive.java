@@ -3,7 +3,12 @@
 
 package ti;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Scanner;
 
 /**
@@ -11,6 +16,11 @@ import java.util.Scanner;
  */
 public class Interactive
 {
+	/**
+	 * Number of results shown per query.
+	 */
+	protected static final int PAGE_SIZE = 10;
+
 	protected RetrievalModel model;
 	protected Index index;
 	protected DocumentProcessor docProcessor;
@@ -29,6 +39,45 @@ public class Interactive
 		this.docProcessor = docProcessor;
 	}
 
+	/**
+	 * Pre-warms the {@link DocumentCache} of the index with the documents most often shown for the queries in a log,
+	 * until the cache is full.
+	 *
+	 * @param queryLog the path to the query log, with one query per line.
+	 * @return the number of documents loaded into the cache.
+	 * @throws Exception if an error occurs while running the queries or loading the documents.
+	 */
+	public int warmCache(Path queryLog) throws Exception
+	{
+		DocumentCache cache = this.index.getDocumentCache();
+		if (cache == null)
+			return 0;
+
+		// Count how many times each document is in the first page of results
+		HashMap<Integer, Integer> counts = new HashMap<>();
+		for (String query : Files.readAllLines(queryLog, StandardCharsets.UTF_8)) {
+			query = query.trim();
+			if (query.isEmpty())
+				continue;
+			ArrayList<Tuple<Integer, Double>> results = this.model.runQuery(query, this.index, this.docProcessor,
+					Interactive.PAGE_SIZE);
+			for (int i = 0; i < results.size() && i < Interactive.PAGE_SIZE; i++)
+				counts.merge(results.get(i).item1, 1, Integer::sum);
+		}
+
+		ArrayList<Map.Entry<Integer, Integer>> docs = new ArrayList<>(counts.entrySet());
+		docs.sort((d1, d2) -> d2.getValue().equals(d1.getValue()) ? d1.getKey().compareTo(d2.getKey())
+				: d2.getValue().compareTo(d1.getValue()));
+		int loaded = 0;
+		for (Map.Entry<Integer, Integer> doc : docs) {
+			if (cache.isFull())
+				break;
+			this.index.getCachedDocument(doc.getKey());
+			loaded++;
+		}
+		return loaded;
+	}
+
 	/**
 	 * Runs the interactive retrieval process. It asks the user for a query, and then it prints the results to
 	 * {@link System#out} showing the document title and a snippet, highlighting important terms for the query.
@@ -47,8 +96,9 @@ public class Interactive
 			input = scan.nextLine();
 
 			if (!input.isEmpty()) {
-				ArrayList<Tuple<Integer, Double>> results = this.model.runQuery(input, this.index, this.docProcessor);
-				this.printResults(input, results, 0, 10);
+				ArrayList<Tuple<Integer, Double>> results = this.model.runQuery(input, this.index, this.docProcessor,
+						Interactive.PAGE_SIZE);
+				this.printResults(input, results, 0, Interactive.PAGE_SIZE);
 			}
 		} while (!input.isEmpty());
 	}
@@ -66,9 +116,10 @@ public class Interactive
 	{
 		for (int i = from; i < results.size() && i < from + count; i++) {
 			int docId = results.get(i).item1;
-			String docName = this.index.documents.get(docId).item1;
-			String title = this.index.getCachedDocument(docId).item1;
-			String body = this.index.getCachedDocument(docId).item2;
+			String docName = this.index.getDocName(docId);
+			Tuple<String, String> doc = this.index.getCachedDocument(docId);
+			String title = doc.item1;
+			String body = doc.item2;
 
 			if (title.length() > 60)
 				title = title.substring(0, 60) + "...";
@@ -110,4 +161,4 @@ public class Interactive
 			System.out.println(body);
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,167 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.text.DecimalFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * A cache bounded by the size in memory of its values, evicting the least recently used values first.
+ * <p>
+ * It is safe to use from several threads.
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the cached values.
+ */
+public class LruCache<K, V>
+{
+    /**
+     * Loads a value when it is not cached.
+     *
+     * @param <K> the type of the keys.
+     * @param <V> the type of the values.
+     * @param <E> the type of the exception thrown when a value can not be loaded.
+     */
+    public interface Loader<K, V, E extends Exception>
+    {
+        /**
+         * Loads the value of the specified key.
+         *
+         * @param key the key.
+         * @return the value.
+         * @throws E if an error occurs while loading the value.
+         */
+        V load(K key) throws E;
+    }
+
+    protected final long capacity;
+    protected final ToLongFunction<V> sizeOf;
+    protected final String name;
+    protected final String unit;
+    protected long size = 0;
+    protected final LinkedHashMap<K, V> values = new LinkedHashMap<>(16, 0.75f, true);
+    protected long hits = 0;
+    protected long misses = 0;
+    protected long evictions = 0;
+
+    /**
+     * Creates a new cache with the specified capacity.
+     *
+     * @param capacity the maximum size of the cached values, in bytes.
+     * @param sizeOf   the function that estimates the size in memory of a value, in bytes.
+     * @param name     the name of the cache, for its statistics.
+     * @param unit     the name of the values, for its statistics.
+     */
+    public LruCache(long capacity, ToLongFunction<V> sizeOf, String name, String unit)
+    {
+        this.capacity = capacity;
+        this.sizeOf = sizeOf;
+        this.name = name;
+        this.unit = unit;
+    }
+
+    /**
+     * Returns the value of the specified key, loading it if it is not cached.
+     *
+     * @param key    the key.
+     * @param loader the loader of the value when it is not cached.
+     * @param <E>    the type of the exception thrown by the loader.
+     * @return the value.
+     * @throws E if an error occurs while loading the value.
+     */
+    public <E extends Exception> V get(K key, Loader<K, V, E> loader) throws E
+    {
+        synchronized (this) {
+            V value = this.values.get(key);
+            if (value != null) {
+                this.hits++;
+                return value;
+            }
+            this.misses++;
+        }
+
+        // Load outside the lock, so that other threads can hit the cache meanwhile
+        V value = loader.load(key);
+        long valueSize = this.sizeOf.applyAsLong(value);
+        synchronized (this) {
+            V previous = this.values.put(key, value);
+            this.size += valueSize - (previous == null ? 0 : this.sizeOf.applyAsLong(previous));
+            Iterator<Map.Entry<K, V>> it = this.values.entrySet().iterator();
+            while (this.size > this.capacity && it.hasNext()) {
+                Map.Entry<K, V> eldest = it.next();
+                if (eldest.getKey().equals(key))
+                    continue;
+                this.size -= this.sizeOf.applyAsLong(eldest.getValue());
+                it.remove();
+                this.evictions++;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Removes all values from the cache.
+     */
+    public synchronized void clear()
+    {
+        this.values.clear();
+        this.size = 0;
+    }
+
+    /**
+     * Tells whether the cache is full, so that loading more values would evict others.
+     *
+     * @return {@code true} if the cache is full.
+     */
+    public synchronized boolean isFull()
+    {
+        return this.size >= this.capacity;
+    }
+
+    /**
+     * Prints statistics about the cache to {@link System#err}: its size, and the hits, misses and evictions so far.
+     */
+    public synchronized void printStatistics()
+    {
+        DecimalFormat df = new DecimalFormat("#.##");
+        long requests = this.hits + this.misses;
+        System.err.println("  - " + this.name + ": " + this.values.size() + " " + this.unit + " ("
+                + df.format(this.size / 1024d / 1024d) + " of " + df.format(this.capacity / 1024d / 1024d) + " MB).");
+        System.err.println("  - Hits: " + this.hits + ", misses: " + this.misses + ", evictions: " + this.evictions
+                + " (hit rate " + df.format(requests == 0 ? 0 : 100d * this.hits / requests) + "%).");
+    }
+
+    /**
+     * Returns the number of requests served from the cache.
+     *
+     * @return the number of hits.
+     */
+    public synchronized long getHits()
+    {
+        return this.hits;
+    }
+
+    /**
+     * Returns the number of requests that had to load the value.
+     *
+     * @return the number of misses.
+     */
+    public synchronized long getMisses()
+    {
+        return this.misses;
+    }
+
+    /**
+     * Returns the number of values evicted to keep the cache within its capacity.
+     *
+     * @return the number of evictions.
+     */
+    public synchronized long getEvictions()
+    {
+        return this.evictions;
+    }
+}
@@ -0,0 +1,131 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+
+/**
+ * Implements retrieval with the cosine similarity function, processing documents one at a time with MaxScore dynamic
+ * pruning.
+ * <p>
+ * Query terms are sorted by the upper bound of their contribution to the score, saved in the index as {@link
+ * TermBounds}. The terms with the lowest bounds are non-essential as long as their bounds add up to no more than the
+ * lowest score in the top {@code k}, because a document that only contains them can not enter it. Candidate documents
+ * are taken from the postings of the essential terms only, and the postings of non-essential terms are just probed,
+ * skipping to each candidate, until the bounds left show that the candidate can not enter the top {@code k}. This
+ * pays off with queries that mix frequent and rare terms, as the frequent ones soon become non-essential. The top
+ * documents and their scores are the same as those of {@link Cosine}, which is used if the index has no bounds.
+ */
+public class MaxScoreCosine extends Cosine
+{
+	public MaxScoreCosine()
+	{
+		super();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Pruning also reads the upper bounds of terms.
+	 */
+	@Override
+	public EnumSet<Index.Structure> getRequiredStructures()
+	{
+		return EnumSet.of(Index.Structure.INVERTED, Index.Structure.BOUNDS);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected ArrayList<Tuple<Integer, Double>> computeScores(ArrayList<Tuple<Integer, Double>> queryVector, Index index,
+	                                                          int k)
+	{
+		if (!index.hasBounds())
+			return super.computeScores(queryVector, index, k);
+
+		TopKHeap results = new TopKHeap(k);
+		double sumWeightSq = 0.0;
+		for (Tuple<Integer, Double> term : queryVector)
+			sumWeightSq += Math.pow(term.item2, 2.0);
+		double inverseQueryNorm = 1.0 / Math.sqrt(sumWeightSq);
+
+		// Terms in query order, to add up contributions as Cosine does, and sorted by their upper bound
+		WandCosine.TermCursor[] terms = new WandCosine.TermCursor[queryVector.size()];
+		for (int i = 0; i < terms.length; i++) {
+			Tuple<Integer, Double> term = queryVector.get(i);
+			terms[i] = new WandCosine.TermCursor(term.item2, index.getInvertedPostings(term.item1),
+					index.getTermBounds(term.item1), inverseQueryNorm);
+			terms[i].next();
+		}
+		WandCosine.TermCursor[] sorted = terms.clone();
+		Arrays.sort(sorted, Comparator.comparingDouble(term -> term.maxScore));
+		// The upper bound of the score of a document that only contains the first i+1 terms
+		double[] cumulativeBounds = new double[sorted.length];
+		for (int i = 0; i < sorted.length; i++)
+			cumulativeBounds[i] = (i == 0 ? 0 : cumulativeBounds[i - 1]) + sorted[i].maxScore;
+
+		long postings = 0, documents = 0;
+		double threshold = results.lowestScore();
+		// The first essential term; the ones before it are non-essential
+		int essential = 0;
+		while (essential < sorted.length) {
+			// The next candidate is the first document in the postings of the essential terms
+			int candidate = Integer.MAX_VALUE;
+			for (int i = essential; i < sorted.length; i++)
+				candidate = Math.min(candidate, sorted[i].docID);
+			if (candidate == Integer.MAX_VALUE)
+				break;
+
+			// Add up the contributions of the essential terms, and probe the non-essential ones while the candidate
+			// may still enter the top k
+			double docWeight = 0.0;
+			for (int i = essential; i < sorted.length; i++)
+				if (sorted[i].docID == candidate) {
+					docWeight += sorted[i].cursor.weight() * sorted[i].weightQuery;
+					postings++;
+				}
+			double inverseNorm = index.getInverseDocNorm(candidate) * inverseQueryNorm;
+			boolean pruned = false;
+			for (int i = essential - 1; i >= 0; i--) {
+				// This partial score is summed in another order than the final one, so it gets the margin of bounds
+				if (docWeight * inverseNorm * (1 + WandCosine.BOUND_SLACK) + cumulativeBounds[i] <= threshold) {
+					pruned = true;
+					break;
+				}
+				sorted[i].advance(candidate);
+				if (sorted[i].docID == candidate) {
+					docWeight += sorted[i].cursor.weight() * sorted[i].weightQuery;
+					postings++;
+				}
+			}
+
+			if (!pruned) {
+				// Score the candidate, adding up contributions in query order
+				docWeight = 0.0;
+				for (WandCosine.TermCursor term : terms)
+					if (term.docID == candidate)
+						docWeight += term.cursor.weight() * term.weightQuery;
+				documents++;
+				if (index.isLive(candidate)) {
+					results.offer(candidate, docWeight * index.getInverseDocNorm(candidate) * inverseQueryNorm);
+					threshold = results.lowestScore();
+					// Terms become non-essential as the threshold grows
+					while (essential < sorted.length && cumulativeBounds[essential] <= threshold)
+						essential++;
+				}
+			}
+			for (WandCosine.TermCursor term : sorted)
+				if (term.docID == candidate)
+					term.next();
+		}
+		this.postingsScored.add(postings);
+		this.documentsScored.add(documents);
+
+		return results.results();
+	}
+}
@@ -0,0 +1,38 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+/**
+ * A cache of decoded postings lists bounded by their size in memory, evicting the least recently used lists first.
+ * <p>
+ * It is safe to use from several threads.
+ */
+public class PostingsCache extends LruCache<Long, PostingsList>
+{
+    /**
+     * Estimated memory overhead of a cached list, on top of its postings.
+     */
+    protected static final int LIST_OVERHEAD_BYTES = 96;
+
+    /**
+     * Creates a new cache with the specified capacity.
+     *
+     * @param capacity the maximum size of the cached lists, in bytes.
+     */
+    public PostingsCache(long capacity)
+    {
+        super(capacity, PostingsCache::sizeOf, "Postings cache", "lists");
+    }
+
+    /**
+     * Estimates the size in memory of a postings list.
+     *
+     * @param list the postings list.
+     * @return the size in bytes.
+     */
+    protected static long sizeOf(PostingsList list)
+    {
+        return LIST_OVERHEAD_BYTES + list.docIDs.length * 12L;
+    }
+}
@@ -0,0 +1,169 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * This class defines how postings lists are encoded in the index files and decoded at query time.
+ * <p>
+ * Postings are given to a codec sorted by {@code id}. Besides the {@link RawCodec}, which stores them as they are, the
+ * codecs encode the gaps between consecutive IDs and store the weights quantized: since every weight is computed as
+ * {@code (1 + log(tf)) * idf}, it is stored as the integer {@code tf} and rebuilt exactly from the IDF of the term.
+ */
+public abstract class PostingsCodec
+{
+    /**
+     * The codecs available, by their ID.
+     */
+    protected static final PostingsCodec[] CODECS = {new RawCodec(), new VByteCodec(), new BitPackedCodec()};
+
+    /**
+     * Returns the numeric ID of this codec, as stored in the index files.
+     *
+     * @return the codec ID.
+     */
+    public abstract int getID();
+
+    /**
+     * Returns the name of this codec, as given in the command line.
+     *
+     * @return the codec name.
+     */
+    public abstract String getName();
+
+    /**
+     * Encodes the given postings list.
+     *
+     * @param out  the output to write to.
+     * @param list the postings list, sorted by ID.
+     * @param idf  the function that gives the IDF of the term of each posting from its {@code id}.
+     * @throws IOException if an error occurs while writing the postings.
+     */
+    public abstract void encode(DataOutput out, PostingsList list, IntToDoubleFunction idf) throws IOException;
+
+    /**
+     * Returns a cursor to decode the given postings list.
+     *
+     * @param list the encoded postings list, from position {@code 0} to its limit.
+     * @param idf  the function that gives the IDF of the term of each posting from its {@code id}.
+     * @return the cursor, positioned before the first posting.
+     */
+    public abstract PostingsCursor cursor(ByteBuffer list, IntToDoubleFunction idf);
+
+    /**
+     * Returns the codec with the specified ID.
+     *
+     * @param id the codec ID.
+     * @return the codec.
+     * @throws IllegalArgumentException if there is no codec with that ID.
+     */
+    public static PostingsCodec forID(int id)
+    {
+        if (id < 0 || id >= CODECS.length)
+            throw new IllegalArgumentException("Unknown postings codec " + id + ".");
+        return CODECS[id];
+    }
+
+    /**
+     * Returns the codec with the specified name.
+     *
+     * @param name the codec name.
+     * @return the codec.
+     * @throws IllegalArgumentException if there is no codec with that name.
+     */
+    public static PostingsCodec forName(String name)
+    {
+        for (PostingsCodec codec : CODECS)
+            if (codec.getName().equals(name))
+                return codec;
+        throw new IllegalArgumentException("Unknown postings codec " + name + ".");
+    }
+
+    /**
+     * Quantizes a weight to the term frequency it was computed from.
+     *
+     * @param weight the weight, computed as {@code (1 + log(tf)) * idf}.
+     * @param idf    the IDF of the term.
+     * @return the term frequency.
+     * @throws IllegalArgumentException if the weight can not be rebuilt exactly from the term frequency.
+     */
+    protected static int quantize(double weight, double idf)
+    {
+        int tf = (int) Math.round(Math.exp(weight / idf - 1.0));
+        if (tf < 1 || PostingsCodec.dequantize(tf, idf) != weight)
+            throw new IllegalArgumentException("Weight " + weight + " is not a TF-IDF weight with IDF " + idf + ".");
+        return tf;
+    }
+
+    /**
+     * Rebuilds a weight from its term frequency.
+     *
+     * @param tf  the term frequency.
+     * @param idf the IDF of the term.
+     * @return the weight.
+     */
+    protected static double dequantize(int tf, double idf)
+    {
+        return (1.0 + Math.log(tf)) * idf;
+    }
+
+    /**
+     * Writes a non-negative integer with variable-byte encoding: seven bits per byte, the last byte flagged with the
+     * high bit.
+     *
+     * @param out   the output to write to.
+     * @param value the value to write.
+     * @throws IOException if an error occurs while writing.
+     */
+    protected static void writeVByte(DataOutput out, int value) throws IOException
+    {
+        while (value >= 0x80) {
+            out.writeByte(value & 0x7f);
+            value >>>= 7;
+        }
+        out.writeByte(value | 0x80);
+    }
+
+    /**
+     * Reads a non-negative integer with variable-byte encoding.
+     *
+     * @param in the buffer to read from, at its current position.
+     * @return the value read.
+     */
+    protected static int readVByte(ByteBuffer in)
+    {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        while (((b = in.get()) & 0x80) == 0) {
+            value |= b << shift;
+            shift += 7;
+        }
+        return value | ((b & 0x7f) << shift);
+    }
+
+    /**
+     * Reads a non-negative integer with variable-byte encoding.
+     *
+     * @param in the input to read from.
+     * @return the value read.
+     * @throws IOException if an error occurs while reading.
+     */
+    protected static int readVByte(DataInput in) throws IOException
+    {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        while (((b = in.readByte()) & 0x80) == 0) {
+            value |= b << shift;
+            shift += 7;
+        }
+        return value | ((b & 0x7f) << shift);
+    }
+}
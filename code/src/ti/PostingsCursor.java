@@ -0,0 +1,50 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+/**
+ * This interface defines a forward-only cursor over a postings list, decoding postings as it moves.
+ * <p>
+ * In inverted postings lists the {@link #docID} is the ID of a document, and in direct postings lists it is the ID of
+ * a term.
+ */
+public interface PostingsCursor
+{
+    /**
+     * Moves the cursor to the next posting.
+     *
+     * @return {@code true} if the cursor is on a posting, or {@code false} if the list is exhausted.
+     */
+    boolean next();
+
+    /**
+     * Moves the cursor forward to the first posting with a {@link #docID} greater than or equal to {@code target}. If
+     * the cursor is already on such a posting, it does not move.
+     *
+     * @param target the {@code docID} to advance to.
+     * @return {@code true} if the cursor is on a posting, or {@code false} if the list is exhausted.
+     */
+    boolean advance(int target);
+
+    /**
+     * Returns the ID in the current posting.
+     *
+     * @return the {@code docID} of the current posting.
+     */
+    int docID();
+
+    /**
+     * Returns the weight in the current posting.
+     *
+     * @return the weight of the current posting.
+     */
+    double weight();
+
+    /**
+     * Returns the number of postings in the list.
+     *
+     * @return the length of the postings list.
+     */
+    int size();
+}
@@ -0,0 +1,206 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a postings list held in memory, as parallel arrays of IDs and weights.
+ * <p>
+ * In inverted postings lists the IDs are {@code docID}s, and in direct postings lists they are {@code termID}s.
+ */
+public class PostingsList
+{
+    protected int[] docIDs;
+    protected double[] weights;
+    protected int size;
+
+    /**
+     * Creates a new empty postings list.
+     */
+    public PostingsList()
+    {
+        this(4);
+    }
+
+    /**
+     * Creates a new empty postings list with room for the specified number of postings.
+     *
+     * @param capacity the initial capacity.
+     */
+    public PostingsList(int capacity)
+    {
+        this.docIDs = new int[Math.max(capacity, 1)];
+        this.weights = new double[Math.max(capacity, 1)];
+        this.size = 0;
+    }
+
+    /**
+     * Creates a new postings list with all postings from the given cursor.
+     *
+     * @param cursor the cursor, positioned before the first posting.
+     * @return the postings list.
+     */
+    public static PostingsList of(PostingsCursor cursor)
+    {
+        PostingsList list = new PostingsList(cursor.size());
+        while (cursor.next())
+            list.add(cursor.docID(), cursor.weight());
+        return list;
+    }
+
+    /**
+     * Creates a new postings list with the specified number of postings, to be filled in with {@link #set}.
+     *
+     * @param size the number of postings.
+     * @return the postings list.
+     */
+    public static PostingsList ofSize(int size)
+    {
+        PostingsList list = new PostingsList(size);
+        list.size = size;
+        return list;
+    }
+
+    /**
+     * Appends a posting to the list.
+     *
+     * @param docID  the ID in the posting.
+     * @param weight the weight in the posting.
+     */
+    public void add(int docID, double weight)
+    {
+        if (this.size == this.docIDs.length) {
+            int capacity = this.size + (this.size >> 1) + 1;
+            this.docIDs = Arrays.copyOf(this.docIDs, capacity);
+            this.weights = Arrays.copyOf(this.weights, capacity);
+        }
+        this.docIDs[this.size] = docID;
+        this.weights[this.size] = weight;
+        this.size++;
+    }
+
+    /**
+     * Returns the number of postings in the list.
+     *
+     * @return the length of the list.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns the ID in the specified posting.
+     *
+     * @param i the index of the posting.
+     * @return the ID.
+     */
+    public int docID(int i)
+    {
+        return this.docIDs[i];
+    }
+
+    /**
+     * Returns the weight in the specified posting.
+     *
+     * @param i the index of the posting.
+     * @return the weight.
+     */
+    public double weight(int i)
+    {
+        return this.weights[i];
+    }
+
+    /**
+     * Sets the ID and weight in the specified posting.
+     *
+     * @param i      the index of the posting.
+     * @param docID  the new ID.
+     * @param weight the new weight.
+     */
+    public void set(int i, int docID, double weight)
+    {
+        this.docIDs[i] = docID;
+        this.weights[i] = weight;
+    }
+
+    /**
+     * Sets the weight in the specified posting.
+     *
+     * @param i      the index of the posting.
+     * @param weight the new weight.
+     */
+    public void setWeight(int i, double weight)
+    {
+        this.weights[i] = weight;
+    }
+
+    /**
+     * Sorts the postings by ID.
+     */
+    public void sort()
+    {
+        long[] order = new long[this.size];
+        for (int i = 0; i < this.size; i++)
+            order[i] = ((long) this.docIDs[i] << 32) | i;
+        Arrays.sort(order);
+
+        double[] weights = new double[this.docIDs.length];
+        for (int i = 0; i < this.size; i++) {
+            this.docIDs[i] = (int) (order[i] >>> 32);
+            weights[i] = this.weights[(int) order[i]];
+        }
+        this.weights = weights;
+    }
+
+    /**
+     * Returns a cursor over the postings in the list.
+     *
+     * @return the cursor, positioned before the first posting.
+     */
+    public PostingsCursor cursor()
+    {
+        return new PostingsCursor()
+        {
+            protected int current = -1;
+
+            @Override
+            public boolean next()
+            {
+                return ++this.current < size;
+            }
+
+            @Override
+            public boolean advance(int target)
+            {
+                if (this.current < 0)
+                    this.current = 0;
+                if (this.current >= size || docIDs[this.current] >= target)
+                    return this.current < size;
+                int i = Arrays.binarySearch(docIDs, this.current + 1, size, target);
+                this.current = i >= 0 ? i : -i - 1;
+                return this.current < size;
+            }
+
+            @Override
+            public int docID()
+            {
+                return docIDs[this.current];
+            }
+
+            @Override
+            public double weight()
+            {
+                return weights[this.current];
+            }
+
+            @Override
+            public int size()
+            {
+                return size;
+            }
+        };
+    }
+}
@@ -0,0 +1,108 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * A codec that stores postings uncompressed, each of them as an {@code int} ID and a {@code double} weight.
+ */
+public class RawCodec extends PostingsCodec
+{
+    /**
+     * Size of a posting.
+     */
+    public static final int POSTING_BYTES = 12;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getID()
+    {
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName()
+    {
+        return "raw";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void encode(DataOutput out, PostingsList list, IntToDoubleFunction idf) throws IOException
+    {
+        for (int i = 0; i < list.size(); i++) {
+            out.writeInt(list.docID(i));
+            out.writeDouble(list.weight(i));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PostingsCursor cursor(ByteBuffer list, IntToDoubleFunction idf)
+    {
+        return new PostingsCursor()
+        {
+            protected int position = -POSTING_BYTES;
+
+            @Override
+            public boolean next()
+            {
+                this.position += POSTING_BYTES;
+                return this.position < list.limit();
+            }
+
+            @Override
+            public boolean advance(int target)
+            {
+                if (this.position < 0)
+                    this.position = 0;
+                if (this.position >= list.limit() || this.docID() >= target)
+                    return this.position < list.limit();
+
+                // Binary search for the first posting not less than the target
+                int low = this.position / POSTING_BYTES + 1, high = list.limit() / POSTING_BYTES;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (list.getInt(mid * POSTING_BYTES) < target)
+                        low = mid + 1;
+                    else
+                        high = mid;
+                }
+                this.position = low * POSTING_BYTES;
+                return this.position < list.limit();
+            }
+
+            @Override
+            public int docID()
+            {
+                return list.getInt(this.position);
+            }
+
+            @Override
+            public double weight()
+            {
+                return list.getDouble(this.position + 4);
+            }
+
+            @Override
+            public int size()
+            {
+                return list.limit() / POSTING_BYTES;
+            }
+        };
+    }
+}
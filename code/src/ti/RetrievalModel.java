@@ -4,6 +4,7 @@
 package ti;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 
 /**
  * This interface defines methods implemented by a retrieval model.
@@ -11,12 +12,24 @@ import java.util.ArrayList;
 public interface RetrievalModel
 {
 	/**
-	 * Runs the given query and returns the list of documents sorted by similarity.
+	 * Runs the given query and returns the top documents sorted by similarity.
 	 *
 	 * @param queryText    the text of the query.
 	 * @param index        the index to search in.
 	 * @param docProcessor the {@link DocumentProcessor} to extract query terms.
-	 * @return a list of {@link Tuple}s where the first item is the {@code docID} and the second one the similarity score.
+	 * @param k            the number of documents to return, so that the rest need not be ranked.
+	 * @return a list of at most {@code k} {@link Tuple}s where the first item is the {@code docID} and the second one
+	 * the similarity score.
 	 */
-	ArrayList<Tuple<Integer, Double>> runQuery(String queryText, Index index, DocumentProcessor docProcessor);
+	ArrayList<Tuple<Integer, Double>> runQuery(String queryText, Index index, DocumentProcessor docProcessor, int k);
+
+	/**
+	 * Returns the postings structures of the index that this model reads, so that only those are loaded.
+	 *
+	 * @return the required structures; by default, only the inverted index.
+	 */
+	default EnumSet<Index.Structure> getRequiredStructures()
+	{
+		return EnumSet.of(Index.Structure.INVERTED);
+	}
 }
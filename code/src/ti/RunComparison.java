@@ -0,0 +1,172 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * This class contains the logic to compare a run against a reference run, both in TREC format, to report how much the
+ * rankings drift from each other.
+ */
+public class RunComparison
+{
+	protected LinkedHashMap<String, ArrayList<Tuple<String, Double>>> run;
+	protected LinkedHashMap<String, ArrayList<Tuple<String, Double>>> reference;
+
+	/**
+	 * Creates a new comparison between the runs in the specified paths.
+	 *
+	 * @param pathToRun       the path to the run to compare.
+	 * @param pathToReference the path to the reference run.
+	 * @throws IOException if an error occurs while reading the runs.
+	 */
+	public RunComparison(File pathToRun, File pathToReference) throws IOException
+	{
+		this.run = RunComparison.readRun(pathToRun);
+		this.reference = RunComparison.readRun(pathToReference);
+	}
+
+	/**
+	 * Reads the run in the specified file.
+	 *
+	 * @param pathToRun the path to the file.
+	 * @return the ranking for every query, in the order of the file. Each ranking is a list of {@link Tuple}s with the
+	 * document name and its score.
+	 * @throws IOException if an error occurs while reading the file.
+	 */
+	protected static LinkedHashMap<String, ArrayList<Tuple<String, Double>>> readRun(File pathToRun) throws IOException
+	{
+		LinkedHashMap<String, ArrayList<Tuple<String, Double>>> rankings = new LinkedHashMap<>();
+		for (String line : Files.readAllLines(pathToRun.toPath())) {
+			String[] fields = line.trim().split("\\s+");
+			if (fields.length < 5)
+				continue;
+			rankings.computeIfAbsent(fields[0], q -> new ArrayList<>()).add(new Tuple<>(fields[2], Double.parseDouble(fields[4])));
+		}
+		return rankings;
+	}
+
+	/**
+	 * Prints the comparison to {@link System#out}: for each query in the reference run, the overlap of the top 10 and
+	 * top 100 documents, whether the top 10 is in the same order, Kendall's tau between the rankings of the documents
+	 * in both top 100, and the largest score difference among them. The means over all queries are printed at the end.
+	 */
+	public void print()
+	{
+		DecimalFormat df = new DecimalFormat("0.0000");
+		double sumOverlap10 = 0, sumOverlap100 = 0, sumTau = 0, maxScoreDiff = 0;
+		int sameTop10 = 0;
+
+		System.out.println("query\toverlap@10\toverlap@100\tsame@10\ttau@100\tmaxdiff");
+		for (String queryId : this.reference.keySet()) {
+			List<Tuple<String, Double>> ref = this.reference.get(queryId);
+			List<Tuple<String, Double>> cmp = this.run.getOrDefault(queryId, new ArrayList<>());
+
+			double overlap10 = RunComparison.overlap(ref, cmp, 10);
+			double overlap100 = RunComparison.overlap(ref, cmp, 100);
+			boolean same10 = RunComparison.samePrefix(ref, cmp, 10);
+			double tau = RunComparison.kendallTau(ref, cmp, 100);
+			double scoreDiff = RunComparison.maxScoreDifference(ref, cmp, 100);
+
+			sumOverlap10 += overlap10;
+			sumOverlap100 += overlap100;
+			sumTau += tau;
+			maxScoreDiff = Math.max(maxScoreDiff, scoreDiff);
+			if (same10)
+				sameTop10++;
+			System.out.println(queryId + "\t" + df.format(overlap10) + "\t" + df.format(overlap100) + "\t" + same10
+					+ "\t" + df.format(tau) + "\t" + scoreDiff);
+		}
+		int n = Math.max(1, this.reference.size());
+		System.out.println("mean\t" + df.format(sumOverlap10 / n) + "\t" + df.format(sumOverlap100 / n) + "\t"
+				+ sameTop10 + "/" + this.reference.size() + "\t" + df.format(sumTau / n) + "\t" + maxScoreDiff);
+	}
+
+	/**
+	 * Computes the fraction of the top {@code k} reference documents that are also in the top {@code k} of the run.
+	 */
+	protected static double overlap(List<Tuple<String, Double>> ref, List<Tuple<String, Double>> cmp, int k)
+	{
+		int depth = Math.min(k, ref.size());
+		if (depth == 0)
+			return cmp.isEmpty() ? 1 : 0;
+		HashMap<String, Integer> ranks = RunComparison.ranks(cmp, k);
+		int common = 0;
+		for (int i = 0; i < depth; i++)
+			if (ranks.containsKey(ref.get(i).item1))
+				common++;
+		return (double) common / depth;
+	}
+
+	/**
+	 * Checks whether the top {@code k} documents are the same and in the same order in both rankings.
+	 */
+	protected static boolean samePrefix(List<Tuple<String, Double>> ref, List<Tuple<String, Double>> cmp, int k)
+	{
+		if (Math.min(k, ref.size()) != Math.min(k, cmp.size()))
+			return false;
+		for (int i = 0; i < k && i < ref.size(); i++)
+			if (!ref.get(i).item1.equals(cmp.get(i).item1))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Computes Kendall's tau between both rankings, restricted to the documents in both top {@code k}.
+	 */
+	protected static double kendallTau(List<Tuple<String, Double>> ref, List<Tuple<String, Double>> cmp, int k)
+	{
+		HashMap<String, Integer> ranks = RunComparison.ranks(cmp, k);
+		ArrayList<Integer> cmpRanks = new ArrayList<>();
+		for (int i = 0; i < k && i < ref.size(); i++) {
+			Integer rank = ranks.get(ref.get(i).item1);
+			if (rank != null)
+				cmpRanks.add(rank);
+		}
+		long concordant = 0, discordant = 0;
+		for (int i = 0; i < cmpRanks.size(); i++) {
+			for (int j = i + 1; j < cmpRanks.size(); j++) {
+				if (cmpRanks.get(i) < cmpRanks.get(j))
+					concordant++;
+				else
+					discordant++;
+			}
+		}
+		long pairs = concordant + discordant;
+		return pairs == 0 ? 1 : (double) (concordant - discordant) / pairs;
+	}
+
+	/**
+	 * Computes the largest absolute score difference among the documents in both top {@code k}.
+	 */
+	protected static double maxScoreDifference(List<Tuple<String, Double>> ref, List<Tuple<String, Double>> cmp, int k)
+	{
+		HashMap<String, Integer> ranks = RunComparison.ranks(cmp, k);
+		double max = 0;
+		for (int i = 0; i < k && i < ref.size(); i++) {
+			Integer rank = ranks.get(ref.get(i).item1);
+			if (rank != null)
+				max = Math.max(max, Math.abs(ref.get(i).item2 - cmp.get(rank).item2));
+		}
+		return max;
+	}
+
+	/**
+	 * Maps each of the top {@code k} documents in a ranking onto its position.
+	 */
+	protected static HashMap<String, Integer> ranks(List<Tuple<String, Double>> ranking, int k)
+	{
+		HashMap<String, Integer> ranks = new HashMap<>();
+		for (int i = 0; i < k && i < ranking.size(); i++)
+			ranks.put(ranking.get(i).item1, i);
+		return ranks;
+	}
+}
@@ -0,0 +1,93 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.Arrays;
+
+/**
+ * A dense accumulator of document scores for term-at-a-time retrieval, reused for every query.
+ * <p>
+ * Scores are accumulated in an array indexed by {@code docID}, and the documents that got a score are marked in a
+ * bitset, so that they are read back in {@code docID} order and clearing the accumulator only touches them and the
+ * words of the bitset. An accumulator must not be used by several threads at once.
+ */
+public class ScoreAccumulator
+{
+    /**
+     * Receives the accumulated score of a document.
+     */
+    public interface ScoreConsumer
+    {
+        /**
+         * Receives the score of a document.
+         *
+         * @param docID the ID of the document.
+         * @param score the accumulated score.
+         */
+        void accept(int docID, double score);
+    }
+
+    protected double[] scores = new double[0];
+    protected long[] touched = new long[0];
+
+    /**
+     * Makes room for the scores of the given number of documents, keeping the accumulator empty.
+     *
+     * @param numDocuments the number of documents.
+     */
+    public void ensureCapacity(int numDocuments)
+    {
+        if (numDocuments > this.scores.length) {
+            this.scores = new double[numDocuments];
+            this.touched = new long[(numDocuments + 63) >>> 6];
+        }
+    }
+
+    /**
+     * Adds to the score of a document.
+     *
+     * @param docID the ID of the document.
+     * @param score the score to add.
+     */
+    public void add(int docID, double score)
+    {
+        this.scores[docID] += score;
+        this.touched[docID >>> 6] |= 1L << docID;
+    }
+
+    /**
+     * Passes the documents that got a score to a consumer, in {@code docID} order, and clears the accumulator.
+     *
+     * @param consumer the consumer of the scores.
+     * @return the number of documents that got a score.
+     */
+    public int drain(ScoreConsumer consumer)
+    {
+        int count = 0;
+        for (int w = 0; w < this.touched.length; w++) {
+            long word = this.touched[w];
+            if (word == 0)
+                continue;
+            this.touched[w] = 0;
+            while (word != 0) {
+                int docID = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                double score = this.scores[docID];
+                this.scores[docID] = 0;
+                consumer.accept(docID, score);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Clears the accumulator without reading its scores.
+     */
+    public void clear()
+    {
+        Arrays.fill(this.scores, 0);
+        Arrays.fill(this.touched, 0);
+    }
+}
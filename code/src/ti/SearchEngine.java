@@ -4,6 +4,11 @@
 package ti;
 
 import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 
 /**
  * This class is the main entry point to run the search engine.
@@ -19,6 +24,17 @@ public class SearchEngine
      */
     protected static void doIndex(String[] args) throws Exception
     {
+        ArrayList<String> argList = new ArrayList<>(Arrays.asList(args));
+        String codecName = SearchEngine.takeOption(argList, "codec", "raw");
+        String impactBits = SearchEngine.takeOption(argList, "impact", "0");
+        String impactScale = SearchEngine.takeOption(argList, "impact-scale", "term");
+        String processorName = SearchEngine.takeOption(argList, "processor", "html");
+        String indexThreads = SearchEngine.takeOption(argList, "threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors()));
+        String spimiBudget = SearchEngine.takeOption(argList, "spimi", null);
+        String pipelineCapacity = SearchEngine.takeOption(argList, "pipeline", "0");
+        String charsetName = SearchEngine.takeOption(argList, "charset", "UTF-8");
+        args = argList.toArray(new String[0]);
         if (args.length < 3 || args.length > 4) {
             SearchEngine.printUsage();
             System.exit(1);
@@ -40,14 +56,378 @@ public class SearchEngine
             System.err.println("Invalid path to list of stop words.");
             System.exit(1);
         }
+        PostingsCodec codec = null;
+        try {
+            codec = PostingsCodec.forName(codecName);
+        } catch (IllegalArgumentException ex) {
+            System.err.println("Invalid postings codec.");
+            System.exit(1);
+        }
+        if (!impactBits.matches("0|8|16") || !impactScale.matches("term|global")) {
+            System.err.println("Invalid impact options.");
+            System.exit(1);
+        }
+        if (!indexThreads.matches("\\d+") || Integer.parseInt(indexThreads) == 0) {
+            System.err.println("Invalid number of threads.");
+            System.exit(1);
+        }
+        if (spimiBudget != null && (!spimiBudget.matches("\\d+") || Long.parseLong(spimiBudget) == 0)) {
+            System.err.println("Invalid memory budget.");
+            System.exit(1);
+        }
+        if (!pipelineCapacity.matches("\\d+")) {
+            System.err.println("Invalid pipeline queue capacity.");
+            System.exit(1);
+        }
+        Charset charset = null;
+        try {
+            charset = Charset.forName(charsetName);
+        } catch (IllegalArgumentException ex) {
+            System.err.println("Invalid charset.");
+            System.exit(1);
+        }
 
         //Running by $ index "/Volumes/Work/UPF/Class_WEB/lab3-searchengine/2011-index" "/Volumes/Work/UPF/Class_WEB/lab3-searchengine/2011-documents"
         // Build index
 //        File stopWords = new File(pathToStopWords);
-        DocumentProcessor docProcessor = new HtmlProcessor(pathToStopWords); // P3
-        //DocumentProcessor docProcessor = new SimpleProcessor(); 
-        Indexer indexer = new Indexer(pathToIndex, pathToCollection, docProcessor);
+        DocumentProcessor docProcessor = SearchEngine.createProcessor(processorName, pathToStopWords); // P3
+        if (docProcessor == null) {
+            System.err.println("Invalid document processor.");
+            System.exit(1);
+        }
+        Indexer indexer;
+        if (spimiBudget != null) {
+            // Single-pass indexing within a memory budget, processing documents sequentially
+            SpimiIndexer spimi = new SpimiIndexer(pathToIndex, pathToCollection, docProcessor);
+            spimi.setMemoryBudget(Long.parseLong(spimiBudget));
+            indexer = spimi;
+        } else {
+            indexer = new Indexer(pathToIndex, pathToCollection, docProcessor);
+            indexer.setThreads(Integer.parseInt(indexThreads));
+            indexer.setPipeline(Integer.parseInt(pipelineCapacity));
+        }
+        indexer.setCodec(codec);
+        indexer.setCharset(charset);
+        indexer.setImpacts(Integer.parseInt(impactBits), impactScale.equals("term"));
         indexer.run();
+        SearchEngine.printStemCacheStatistics(docProcessor);
+    }
+
+    /**
+     * Run the addition or update of documents in a segmented index with the given command-line arguments.
+     *
+     * @param args   the raw command-line arguments.
+     * @param update whether to replace the documents with the same names.
+     * @throws Exception if an error occurs during the process.
+     */
+    protected static void doAdd(String[] args, boolean update) throws Exception
+    {
+        ArrayList<String> argList = new ArrayList<>(Arrays.asList(args));
+        String codecName = SearchEngine.takeOption(argList, "codec", "raw");
+        String processorName = SearchEngine.takeOption(argList, "processor", "html");
+        String mergeFactor = SearchEngine.takeOption(argList, "merge-factor", "10");
+        args = argList.toArray(new String[0]);
+        if (args.length < 3 || args.length > 4) {
+            SearchEngine.printUsage();
+            System.exit(1);
+        }
+        File pathToIndex = new File(args[1]);
+        File pathToDocuments = new File(args[2]);
+        File pathToStopWords = args.length == 4 ? new File(args[3]) : null;
+
+        // Check console arguments
+        if (pathToIndex.exists() && (pathToIndex.isFile() || (new File(pathToIndex, "vocabulary.bin").exists()
+                && !SegmentedIndex.isSegmented(pathToIndex.getPath())))) {
+            System.err.println("The index path must be a segmented index or a new directory.");
+            System.exit(1);
+        }
+        if (!pathToDocuments.exists()) {
+            System.err.println("Invalid path to documents.");
+            System.exit(1);
+        }
+        if (pathToStopWords != null && (!pathToStopWords.exists() || !pathToStopWords.isFile())) {
+            System.err.println("Invalid path to list of stop words.");
+            System.exit(1);
+        }
+        PostingsCodec codec = null;
+        try {
+            codec = PostingsCodec.forName(codecName);
+        } catch (IllegalArgumentException ex) {
+            System.err.println("Invalid postings codec.");
+            System.exit(1);
+        }
+        if (!mergeFactor.matches("\\d+") || Integer.parseInt(mergeFactor) < 2) {
+            System.err.println("Invalid merge factor.");
+            System.exit(1);
+        }
+        DocumentProcessor docProcessor = SearchEngine.createProcessor(processorName, pathToStopWords); // P3
+        if (docProcessor == null) {
+            System.err.println("Invalid document processor.");
+            System.exit(1);
+        }
+
+        // Add a segment, and wait for the merges it triggers
+        SegmentedIndex ind = new SegmentedIndex(pathToIndex.getPath());
+        ind.setCodec(codec);
+        ind.setMergeFactor(Integer.parseInt(mergeFactor));
+        ind.load();
+        if (update)
+            ind.updateDocuments(pathToDocuments, docProcessor);
+        else
+            ind.addDocuments(pathToDocuments, docProcessor);
+        ind.close();
+        System.err.println("Segmented index statistics:");
+        ind = new SegmentedIndex(pathToIndex.getPath());
+        ind.load();
+        ind.printStatistics();
+        ind.close();
+    }
+
+    /**
+     * Run the deletion of documents with the given command-line arguments.
+     *
+     * @param args the raw command-line arguments.
+     * @throws Exception if an error occurs during the process.
+     */
+    protected static void doDelete(String[] args) throws Exception
+    {
+        if (args.length < 3) {
+            SearchEngine.printUsage();
+            System.exit(1);
+        }
+        File pathToIndex = new File(args[1]);
+
+        // Check console arguments
+        if (!pathToIndex.exists() || pathToIndex.isFile()) {
+            System.err.println("Index directory does not exist.");
+            System.exit(1);
+        }
+
+        Index ind = SegmentedIndex.isSegmented(pathToIndex.getPath())
+                ? new SegmentedIndex(pathToIndex.getPath()) : new Index(pathToIndex.getPath());
+        ind.setStructures(EnumSet.noneOf(Index.Structure.class));
+        ind.load();
+        for (int i = 2; i < args.length; i++) {
+            int deleted = ind.delete(args[i]);
+            System.err.println("Document " + args[i] + ": " + (deleted > 0 ? deleted + " deleted." : "not found."));
+        }
+        System.err.println("Statistics:");
+        ind.printStatistics();
+        ind.close();
+    }
+
+    /**
+     * Run the compaction of an index with the given command-line arguments.
+     *
+     * @param args the raw command-line arguments.
+     * @throws Exception if an error occurs during the process.
+     */
+    protected static void doCompact(String[] args) throws Exception
+    {
+        ArrayList<String> argList = new ArrayList<>(Arrays.asList(args));
+        String thresholdValue = SearchEngine.takeOption(argList, "threshold", "0.1");
+        args = argList.toArray(new String[0]);
+        if (args.length != 2) {
+            SearchEngine.printUsage();
+            System.exit(1);
+        }
+        File pathToIndex = new File(args[1]);
+
+        // Check console arguments
+        if (!pathToIndex.exists() || pathToIndex.isFile()) {
+            System.err.println("Index directory does not exist.");
+            System.exit(1);
+        }
+        double threshold = -1;
+        try {
+            threshold = Double.parseDouble(thresholdValue);
+        } catch (NumberFormatException ex) {
+        }
+        if (threshold < 0 || threshold >= 1) {
+            System.err.println("Invalid threshold.");
+            System.exit(1);
+        }
+
+        // Compact index
+        boolean segmented = SegmentedIndex.isSegmented(pathToIndex.getPath());
+        Index ind = segmented ? new SegmentedIndex(pathToIndex.getPath()) : new Index(pathToIndex.getPath());
+        ind.load();
+        System.err.print("Compacting index...");
+        boolean compacted = ind.compact(threshold);
+        ind.close();
+        System.err.println(compacted ? "done." : "nothing to compact.");
+        ind = segmented ? new SegmentedIndex(pathToIndex.getPath()) : new Index(pathToIndex.getPath());
+        ind.load();
+        System.err.println("Statistics:");
+        ind.printStatistics();
+        ind.close();
+    }
+
+    /**
+     * Run a benchmark with the given command-line arguments.
+     *
+     * @param args the raw command-line arguments.
+     * @throws Exception if an error occurs during the process.
+     */
+    protected static void doBench(String[] args) throws Exception
+    {
+        ArrayList<String> argList = new ArrayList<>(Arrays.asList(args));
+        String reads = SearchEngine.takeOption(argList, "reads", "10000");
+        String threadCounts = SearchEngine.takeOption(argList, "threads", "1,2,4");
+        String processorName = SearchEngine.takeOption(argList, "processor", "html");
+        String rounds = SearchEngine.takeOption(argList, "rounds", "5");
+        String depth = SearchEngine.takeOption(argList, "k", "10");
+        String loadModeName = SearchEngine.takeOption(argList, "load", "mapped");
+        args = argList.toArray(new String[0]);
+        if (args.length == 3 && args[1].equals("load")) {
+            File pathToIndex = new File(args[2]);
+            if (!pathToIndex.exists() || pathToIndex.isFile()) {
+                System.err.println("Index directory does not exist.");
+                System.exit(1);
+            }
+            Index.LoadMode loadMode = null;
+            try {
+                loadMode = Index.LoadMode.valueOf(loadModeName.toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                System.err.println("Invalid load mode.");
+                System.exit(1);
+            }
+            if (!threadCounts.matches("[1-9]\\d*(,[1-9]\\d*)*")) {
+                System.err.println("Invalid numbers of threads.");
+                System.exit(1);
+            }
+            if (!rounds.matches("\\d+") || Integer.parseInt(rounds) == 0) {
+                System.err.println("Invalid number of rounds.");
+                System.exit(1);
+            }
+            Benchmark.benchLoad(pathToIndex.getPath(), loadMode,
+                    Arrays.stream(threadCounts.split(",")).mapToInt(Integer::parseInt).toArray(),
+                    Integer.parseInt(rounds));
+            return;
+        }
+        if (args.length == 5 && args[1].equals("queries")) {
+            File pathToIndex = new File(args[2]);
+            File pathToQueries = new File(args[3]);
+            File pathToStopWords = new File(args[4]);
+            if (!pathToIndex.exists() || pathToIndex.isFile()) {
+                System.err.println("Index directory does not exist.");
+                System.exit(1);
+            }
+            if (!pathToQueries.exists() || !pathToQueries.isFile()) {
+                System.err.println("Query file does not exist.");
+                System.exit(1);
+            }
+            if (!pathToStopWords.exists() || !pathToStopWords.isFile()) {
+                System.err.println("Invalid path to list of stop words.");
+                System.exit(1);
+            }
+            if (!depth.matches("\\d+") || Integer.parseInt(depth) == 0) {
+                System.err.println("Invalid number of documents.");
+                System.exit(1);
+            }
+            if (!rounds.matches("\\d+") || Integer.parseInt(rounds) == 0) {
+                System.err.println("Invalid number of rounds.");
+                System.exit(1);
+            }
+            DocumentProcessor docProcessor = SearchEngine.createProcessor(processorName, pathToStopWords);
+            if (docProcessor == null) {
+                System.err.println("Invalid document processor.");
+                System.exit(1);
+            }
+            Index ind = new Index(pathToIndex.getPath());
+            ind.setStructures(new WandCosine(true).getRequiredStructures());
+            ind.load();
+            int differences = Benchmark.benchQueries(ind, Batch.readQueries(pathToQueries), docProcessor,
+                    Integer.parseInt(depth), Integer.parseInt(rounds));
+            ind.close();
+            if (differences > 0)
+                System.exit(1);
+            return;
+        }
+        if (args.length == 4 && args[1].equals("extraction")) {
+            File pathToCollection = new File(args[2]);
+            File pathToStopWords = new File(args[3]);
+            if (!pathToCollection.exists()) {
+                System.err.println("Invalid path to document collection.");
+                System.exit(1);
+            }
+            if (!pathToStopWords.exists() || !pathToStopWords.isFile()) {
+                System.err.println("Invalid path to list of stop words.");
+                System.exit(1);
+            }
+            if (!rounds.matches("\\d+") || Integer.parseInt(rounds) == 0) {
+                System.err.println("Invalid number of rounds.");
+                System.exit(1);
+            }
+            int differences = Benchmark.benchExtraction(pathToCollection, new HtmlProcessor(pathToStopWords),
+                    new StreamingHtmlProcessor(pathToStopWords), Integer.parseInt(rounds));
+            if (differences > 0)
+                System.exit(1);
+            return;
+        }
+        if (args.length == 4 && args[1].equals("tokenize")) {
+            File pathToCollection = new File(args[2]);
+            File pathToStopWords = new File(args[3]);
+            if (!pathToCollection.exists()) {
+                System.err.println("Invalid path to document collection.");
+                System.exit(1);
+            }
+            if (!pathToStopWords.exists() || !pathToStopWords.isFile()) {
+                System.err.println("Invalid path to list of stop words.");
+                System.exit(1);
+            }
+            if (!rounds.matches("\\d+") || Integer.parseInt(rounds) == 0) {
+                System.err.println("Invalid number of rounds.");
+                System.exit(1);
+            }
+            Benchmark.benchTokenize(pathToCollection, new HtmlProcessor(pathToStopWords), Integer.parseInt(rounds));
+            return;
+        }
+        if (args.length >= 3 && args.length <= 4 && args[1].equals("indexing")) {
+            File pathToCollection = new File(args[2]);
+            File pathToStopWords = args.length == 4 ? new File(args[3]) : null;
+            if (!pathToCollection.exists()) {
+                System.err.println("Invalid path to document collection.");
+                System.exit(1);
+            }
+            if (pathToStopWords != null && (!pathToStopWords.exists() || !pathToStopWords.isFile())) {
+                System.err.println("Invalid path to list of stop words.");
+                System.exit(1);
+            }
+            if (!threadCounts.matches("[1-9]\\d*(,[1-9]\\d*)*")) {
+                System.err.println("Invalid numbers of threads.");
+                System.exit(1);
+            }
+            DocumentProcessor docProcessor = SearchEngine.createProcessor(processorName, pathToStopWords);
+            if (docProcessor == null) {
+                System.err.println("Invalid document processor.");
+                System.exit(1);
+            }
+            Benchmark.benchIndexing(pathToCollection, docProcessor,
+                    Arrays.stream(threadCounts.split(",")).mapToInt(Integer::parseInt).toArray());
+            return;
+        }
+        if (args.length != 3 || !args[1].equals("documents")) {
+            SearchEngine.printUsage();
+            System.exit(1);
+        }
+        File pathToIndex = new File(args[2]);
+
+        // Check console arguments
+        if (!pathToIndex.exists() || pathToIndex.isFile()) {
+            System.err.println("Index directory does not exist.");
+            System.exit(1);
+        }
+        if (!reads.matches("\\d+") || Integer.parseInt(reads) == 0) {
+            System.err.println("Invalid number of reads.");
+            System.exit(1);
+        }
+
+        Index ind = new Index(pathToIndex.getPath());
+        ind.setStructures(EnumSet.noneOf(Index.Structure.class));
+        ind.load();
+        Benchmark.benchDocuments(ind, Integer.parseInt(reads));
+        ind.close();
     }
 
     /**
@@ -58,6 +438,14 @@ public class SearchEngine
      */
     protected static void doBatch(String[] args) throws Exception
     {
+        ArrayList<String> argList = new ArrayList<>(Arrays.asList(args));
+        String loadModeName = SearchEngine.takeOption(argList, "load", "mapped");
+        String cacheSize = SearchEngine.takeOption(argList, "cache", "64");
+        String loadThreads = SearchEngine.takeOption(argList, "threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors()));
+        String modelName = SearchEngine.takeOption(argList, "model", "cosine");
+        String processorName = SearchEngine.takeOption(argList, "processor", "html");
+        args = argList.toArray(new String[0]);
         if (args.length != 3) {
             SearchEngine.printUsage();
             System.exit(1);
@@ -74,23 +462,70 @@ public class SearchEngine
             System.err.println("Query file does not exist.");
             System.exit(1);
         }
+        Index.LoadMode loadMode = null;
+        try {
+            loadMode = Index.LoadMode.valueOf(loadModeName.toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            System.err.println("Invalid load mode.");
+            System.exit(1);
+        }
+        long cacheCapacity = 0;
+        try {
+            cacheCapacity = Long.parseLong(cacheSize);
+        } catch (NumberFormatException ex) {
+        }
+        if (cacheCapacity <= 0) {
+            System.err.println("Invalid cache size.");
+            System.exit(1);
+        }
+        int threads = 0;
+        try {
+            threads = Integer.parseInt(loadThreads);
+        } catch (NumberFormatException ex) {
+        }
+        if (threads <= 0) {
+            System.err.println("Invalid number of threads.");
+            System.exit(1);
+        }
+        RetrievalModel model = SearchEngine.createModel(modelName);
+        if (model == null) {
+            System.err.println("Invalid retrieval model.");
+            System.exit(1);
+        }
 
         // Read index
         System.err.print("Loading index...");
-        Index ind = new Index(pathToIndex.getPath());
+        Index ind = SegmentedIndex.isSegmented(pathToIndex.getPath())
+                ? new SegmentedIndex(pathToIndex.getPath()) : new Index(pathToIndex.getPath());
+        ind.setLoadMode(loadMode);
+        ind.setStructures(model.getRequiredStructures());
+        ind.setCacheCapacity(cacheCapacity);
+        ind.setLoadThreads(threads);
         ind.load();
         System.err.println("done. Statistics:");
         ind.printStatistics();
+        if (model instanceof ImpactCosine && !ind.hasImpacts()) {
+            System.err.println("The index has no impacts; build it with the -impact option.");
+            System.exit(1);
+        }
 
         // Instantiate retriever and run
         //DocumentProcessor docProcessor = new SimpleProcessor(); // P3
         // Stop word path
         File stopWords = new File("/Volumes/Work/UPF/Class_WEB/lab3-searchengine/code/src/stop-words.txt");
-        DocumentProcessor docProcessor = new HtmlProcessor(stopWords); // P3
-        //DocumentProcessor docProcessor = new SimpleProcessor();
-        RetrievalModel cosine = new Cosine(); // P4
-        Batch batch = new Batch(pathToQueries, cosine, ind, docProcessor);
+        DocumentProcessor docProcessor = SearchEngine.createProcessor(processorName, stopWords); // P3
+        if (docProcessor == null) {
+            System.err.println("Invalid document processor.");
+            System.exit(1);
+        }
+        Batch batch = new Batch(pathToQueries, model, ind, docProcessor);
         batch.run();
+        SearchEngine.printStemCacheStatistics(docProcessor);
+        if (ind.getPostingsCache() != null) {
+            System.err.println("Postings cache statistics:");
+            ind.getPostingsCache().printStatistics();
+        }
+        ind.close();
     }
 
     /**
@@ -101,6 +536,16 @@ public class SearchEngine
      */
     protected static void doInteractive(String[] args) throws Exception
     {
+        ArrayList<String> argList = new ArrayList<>(Arrays.asList(args));
+        String loadModeName = SearchEngine.takeOption(argList, "load", "mapped");
+        String cacheSize = SearchEngine.takeOption(argList, "cache", "64");
+        String loadThreads = SearchEngine.takeOption(argList, "threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors()));
+        String modelName = SearchEngine.takeOption(argList, "model", "cosine");
+        String processorName = SearchEngine.takeOption(argList, "processor", "html");
+        String docCacheSize = SearchEngine.takeOption(argList, "doc-cache", "32");
+        String warmLog = SearchEngine.takeOption(argList, "warm", null);
+        args = argList.toArray(new String[0]);
         if (args.length != 2) {
             SearchEngine.printUsage();
             System.exit(1);
@@ -112,22 +557,227 @@ public class SearchEngine
             System.err.println("Index directory does not exist.");
             System.exit(1);
         }
+        Index.LoadMode loadMode = null;
+        try {
+            loadMode = Index.LoadMode.valueOf(loadModeName.toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            System.err.println("Invalid load mode.");
+            System.exit(1);
+        }
+        long cacheCapacity = 0;
+        try {
+            cacheCapacity = Long.parseLong(cacheSize);
+        } catch (NumberFormatException ex) {
+        }
+        if (cacheCapacity <= 0) {
+            System.err.println("Invalid cache size.");
+            System.exit(1);
+        }
+        long docCacheCapacity = -1;
+        try {
+            docCacheCapacity = Long.parseLong(docCacheSize);
+        } catch (NumberFormatException ex) {
+        }
+        if (docCacheCapacity < 0) {
+            System.err.println("Invalid document cache size.");
+            System.exit(1);
+        }
+        if (warmLog != null && !new File(warmLog).isFile()) {
+            System.err.println("Query log does not exist.");
+            System.exit(1);
+        }
+        int threads = 0;
+        try {
+            threads = Integer.parseInt(loadThreads);
+        } catch (NumberFormatException ex) {
+        }
+        if (threads <= 0) {
+            System.err.println("Invalid number of threads.");
+            System.exit(1);
+        }
+        RetrievalModel model = SearchEngine.createModel(modelName);
+        if (model == null) {
+            System.err.println("Invalid retrieval model.");
+            System.exit(1);
+        }
 
         // Read index
         System.err.print("Loading index...");
-        Index ind = new Index(pathToIndex.getPath());
+        Index ind = SegmentedIndex.isSegmented(pathToIndex.getPath())
+                ? new SegmentedIndex(pathToIndex.getPath()) : new Index(pathToIndex.getPath());
+        ind.setLoadMode(loadMode);
+        ind.setStructures(model.getRequiredStructures());
+        ind.setCacheCapacity(cacheCapacity);
+        ind.setDocumentCacheCapacity(docCacheCapacity);
+        ind.setLoadThreads(threads);
         ind.load();
         System.err.println("done. Statistics:");
         ind.printStatistics();
+        if (model instanceof ImpactCosine && !ind.hasImpacts()) {
+            System.err.println("The index has no impacts; build it with the -impact option.");
+            System.exit(1);
+        }
 
         // Instantiate retriever and run
         // Stop word path
         File stopWords = new File("/Volumes/Work/UPF/Class_WEB/lab3-searchengine/code/src/stop-words.txt");
-        DocumentProcessor docProcessor = new HtmlProcessor(stopWords); // P3
-        //DocumentProcessor docProcessor = new SimpleProcessor();
-        RetrievalModel cosine = new Cosine(); // P4
-        Interactive inter = new Interactive(cosine, ind, docProcessor);
+        DocumentProcessor docProcessor = SearchEngine.createProcessor(processorName, stopWords); // P3
+        if (docProcessor == null) {
+            System.err.println("Invalid document processor.");
+            System.exit(1);
+        }
+        Interactive inter = new Interactive(model, ind, docProcessor);
+        if (warmLog != null && ind.getDocumentCache() != null) {
+            System.err.print("Warming document cache...");
+            int warmed = inter.warmCache(Paths.get(warmLog));
+            System.err.println("done (" + warmed + " documents).");
+        }
         inter.run();
+        SearchEngine.printStemCacheStatistics(docProcessor);
+        if (ind.getPostingsCache() != null) {
+            System.err.println("Postings cache statistics:");
+            ind.getPostingsCache().printStatistics();
+        }
+        if (ind.getDocumentCache() != null) {
+            System.err.println("Document cache statistics:");
+            ind.getDocumentCache().printStatistics();
+        }
+        ind.close();
+    }
+
+    /**
+     * Run the conversion of a legacy index to the binary format with the given command-line arguments.
+     *
+     * @param args the raw command-line arguments.
+     * @throws Exception if an error occurs during the process.
+     */
+    protected static void doConvert(String[] args) throws Exception
+    {
+        if (args.length != 2) {
+            SearchEngine.printUsage();
+            System.exit(1);
+        }
+        File pathToIndex = new File(args[1]);
+
+        // Check console arguments
+        if (!pathToIndex.exists() || pathToIndex.isFile()) {
+            System.err.println("Index directory does not exist.");
+            System.exit(1);
+        }
+
+        // Convert index
+        System.err.print("Converting index...");
+        Index ind = new Index(pathToIndex.getPath());
+        ind.convertLegacy();
+        System.err.println("done.");
+        System.err.print("Loading index...");
+        ind = new Index(pathToIndex.getPath());
+        ind.load();
+        System.err.println("done. Statistics:");
+        ind.printStatistics();
+    }
+
+    /**
+     * Run the comparison of a run against a reference run with the given command-line arguments.
+     *
+     * @param args the raw command-line arguments.
+     * @throws Exception if an error occurs during the process.
+     */
+    protected static void doCompare(String[] args) throws Exception
+    {
+        if (args.length != 3) {
+            SearchEngine.printUsage();
+            System.exit(1);
+        }
+        File pathToRun = new File(args[1]);
+        File pathToReference = new File(args[2]);
+
+        // Check console arguments
+        if (!pathToRun.exists() || !pathToRun.isFile() || !pathToReference.exists() || !pathToReference.isFile()) {
+            System.err.println("Run file does not exist.");
+            System.exit(1);
+        }
+
+        RunComparison comparison = new RunComparison(pathToRun, pathToReference);
+        comparison.print();
+    }
+
+    /**
+     * Creates the document processor with the specified name.
+     *
+     * @param name            the name of the processor, as given in the command line.
+     * @param pathToStopWords the path to the list of stop words for the HTML processor.
+     * @return the document processor, or {@code null} if there is no processor with that name.
+     * @throws Exception if an error occurs while creating the processor.
+     */
+    protected static DocumentProcessor createProcessor(String name, File pathToStopWords) throws Exception
+    {
+        switch (name) {
+            case "html":
+                return new HtmlProcessor(pathToStopWords);
+            case "streaming":
+                return new StreamingHtmlProcessor(pathToStopWords);
+            case "simple":
+                return new SimpleProcessor();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Prints the statistics of the stem cache of a processor, if it has one.
+     *
+     * @param docProcessor the processor.
+     */
+    protected static void printStemCacheStatistics(DocumentProcessor docProcessor)
+    {
+        if (docProcessor instanceof HtmlProcessor) {
+            System.err.println("Stem cache statistics:");
+            ((HtmlProcessor) docProcessor).getStemCache().printStatistics();
+        }
+    }
+
+    /**
+     * Creates the retrieval model with the specified name.
+     *
+     * @param name the name of the model, as given in the command line.
+     * @return the retrieval model, or {@code null} if there is no model with that name.
+     */
+    protected static RetrievalModel createModel(String name)
+    {
+        switch (name) {
+            case "cosine":
+                return new Cosine(); // P4
+            case "impact":
+                return new ImpactCosine();
+            case "feedback":
+                return new CosineWithFeedback(10, 1.0, 0.5);
+            case "wand":
+                return new WandCosine(false);
+            case "bmw":
+                return new WandCosine(true);
+            case "maxscore":
+                return new MaxScoreCosine();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Removes an option of the form {@code -name value} from the command-line arguments.
+     *
+     * @param args         the command-line arguments, from which the option is removed if present.
+     * @param name         the name of the option, without the leading {@code -}.
+     * @param defaultValue the value to return if the option is not present.
+     * @return the value of the option.
+     */
+    protected static String takeOption(ArrayList<String> args, String name, String defaultValue)
+    {
+        int i = args.indexOf("-" + name);
+        if (i < 0 || i == args.size() - 1)
+            return defaultValue;
+        args.remove(i);
+        return args.remove(i);
     }
 
     public static void main(String[] args) throws Exception
@@ -147,6 +797,27 @@ public class SearchEngine
             case "interactive":
                 SearchEngine.doInteractive(args);
                 break;
+            case "add":
+                SearchEngine.doAdd(args, false);
+                break;
+            case "update":
+                SearchEngine.doAdd(args, true);
+                break;
+            case "delete":
+                SearchEngine.doDelete(args);
+                break;
+            case "compact":
+                SearchEngine.doCompact(args);
+                break;
+            case "bench":
+                SearchEngine.doBench(args);
+                break;
+            case "convert":
+                SearchEngine.doConvert(args);
+                break;
+            case "compare":
+                SearchEngine.doCompare(args);
+                break;
             default:
                 SearchEngine.printUsage();
                 System.exit(1);
@@ -158,8 +829,29 @@ public class SearchEngine
         System.err.println("Usage: ti.SearchEngine <command> <options>");
         System.err.println();
         System.err.println("where <command> and <options> are one of:");
-        System.err.println("  - index <path-to-index> <path-to-collection> [<path-to-stopwords>]");
-        System.err.println("  - batch <path-to-index> <path-to-queries>");
-        System.err.println("  - interactive <path-to-index>");
+        System.err.println("  - index <path-to-index> <path-to-collection> [<path-to-stopwords>] [-codec raw|vbyte|packed]");
+        System.err.println("          [-impact 8|16] [-impact-scale term|global] [-processor html|streaming|simple] [-threads <n>]");
+        System.err.println("          [-spimi <memory-budget-MB> | -pipeline <queue-capacity>] [-charset <default-charset>]");
+        System.err.println("  - batch <path-to-index> <path-to-queries> [-load mapped|heap|lazy] [-cache <MB>]");
+        System.err.println("          [-threads <n>] [-model cosine|impact|feedback|wand|bmw|maxscore]");
+        System.err.println("          [-processor html|streaming|simple]");
+        System.err.println("  - interactive <path-to-index> [-load mapped|heap|lazy] [-cache <MB>]");
+        System.err.println("          [-threads <n>] [-model cosine|impact|feedback|wand|bmw|maxscore]");
+        System.err.println("          [-processor html|streaming|simple] [-doc-cache <MB>] [-warm <path-to-query-log>]");
+        System.err.println("  - add <path-to-index> <path-to-documents> [<path-to-stopwords>] [-codec raw|vbyte|packed]");
+        System.err.println("          [-merge-factor <n>] [-processor html|streaming|simple]");
+        System.err.println("  - update <path-to-index> <path-to-documents> [<path-to-stopwords>] [...same as add]");
+        System.err.println("  - delete <path-to-index> <document-name>...");
+        System.err.println("  - compact <path-to-index> [-threshold <ratio>]");
+        System.err.println("  - convert <path-to-index>");
+        System.err.println("  - compare <path-to-run> <path-to-reference-run>");
+        System.err.println("  - bench documents <path-to-index> [-reads <n>]");
+        System.err.println("  - bench load <path-to-index> [-load mapped|heap|lazy] [-threads <n>,<n>...] [-rounds <n>]");
+        System.err.println("  - bench queries <path-to-index> <path-to-queries> <path-to-stopwords> [-k <n>] [-rounds <n>]");
+        System.err.println("          [-processor html|streaming|simple]");
+        System.err.println("  - bench indexing <path-to-collection> [<path-to-stopwords>] [-threads <n>,<n>...]");
+        System.err.println("          [-processor html|streaming|simple]");
+        System.err.println("  - bench tokenize <path-to-collection> <path-to-stopwords> [-rounds <n>]");
+        System.err.println("  - bench extraction <path-to-collection> <path-to-stopwords> [-rounds <n>]");
     }
 }
\ No newline at end of file
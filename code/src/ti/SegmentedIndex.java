@@ -0,0 +1,986 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An index made of several immutable segments, so that documents can be added without indexing the whole collection
+ * again.
+ * <p>
+ * Every segment is a regular {@link Index} in a subdirectory {@code seg_<n>}, built by the {@link Indexer} from a batch
+ * of new documents. The live segments are listed, in order, in the {@code segments} file of the index directory.
+ * Searching concatenates the segments: global {@code docID}s are assigned in segment order, and global {@code termID}s
+ * are the positions of the terms in the dictionaries of the segments merged. Since the IDF of a term and the norms of
+ * documents depend on the whole collection, they are computed from the document frequencies aggregated over all
+ * segments, and postings are decoded with the global IDF.
+ * <p>
+ * After every addition, a log-structured merge policy looks for {@link #setMergeFactor mergeFactor} consecutive
+ * segments of the same size level, {@code floor(log_mergeFactor(documents))}, and merges them into one segment in the
+ * background. Searches only see new segments after {@link #refresh}.
+ * <p>
+ * Documents are deleted by marking them in the live documents of their segment; merges and {@link #compact} purge
+ * them.
+ */
+public class SegmentedIndex extends Index
+{
+    /**
+     * Name of the file listing the live segments.
+     */
+    protected static final String MANIFEST = "segments";
+
+    protected int mergeFactor = 10;
+    /**
+     * The thread that runs merges and compactions, created when first needed so that an index that only searches
+     * does not keep the JVM alive.
+     */
+    protected ExecutorService merger;
+    protected final ArrayList<Future<Void>> merges = new ArrayList<>();
+    /**
+     * The live segments, as listed in the manifest.
+     */
+    protected final ArrayList<String> segmentNames = new ArrayList<>();
+    /**
+     * The segments being searched.
+     */
+    protected volatile Snapshot snapshot = new Snapshot(new String[0], new Index[0]);
+    /**
+     * Number of segments loaded for searching so far, which gives each one its own keys in the shared postings cache.
+     */
+    protected long segmentsLoaded = 0;
+
+    /**
+     * An immutable view of the segments at some point, with the global statistics computed from them.
+     */
+    protected static class Snapshot
+    {
+        protected final String[] names;
+        protected final Index[] segments;
+        protected final int[] docBase;
+        protected final int numDocuments;
+        /**
+         * The dictionaries of the segments merged, with the global document frequencies and IDFs.
+         */
+        protected final TermDictionary dictionary;
+        /**
+         * Global IDF of every term, by global {@code termID}.
+         */
+        protected final double[] idfs;
+        /**
+         * Ordinal of every term in every segment, by global {@code termID}, or {@code -1} if the segment does not have
+         * it.
+         */
+        protected final int[][] ordinals;
+        /**
+         * Global {@code termID} of the terms of every segment, by their ordinal in the segment. Both orders are the
+         * same, so these are increasing.
+         */
+        protected final int[][] termIDs;
+        /**
+         * Global norm of every document, or {@code NaN} until computed.
+         */
+        protected final double[] norms;
+
+        protected Snapshot(String[] names, Index[] segments)
+        {
+            this.names = names;
+            this.segments = segments;
+            this.docBase = new int[segments.length];
+            int numDocuments = 0;
+            for (int s = 0; s < segments.length; s++) {
+                this.docBase[s] = numDocuments;
+                numDocuments += segments[s].getNumDocuments();
+            }
+            this.numDocuments = numDocuments;
+            this.norms = new double[numDocuments];
+            Arrays.fill(this.norms, Double.NaN);
+
+            // Merge the sorted dictionaries of the segments, adding up the document frequencies of every term
+            byte[][][] segmentTerms = new byte[segments.length][][];
+            int maxTerms = 0;
+            this.termIDs = new int[segments.length][];
+            for (int s = 0; s < segments.length; s++) {
+                TermDictionary dictionary = segments[s].getDictionary();
+                segmentTerms[s] = new byte[dictionary.size()][];
+                TermDictionary.TermIterator it = dictionary.iterator(0);
+                while (it.next())
+                    segmentTerms[s][it.ordinal()] = it.term().getBytes(StandardCharsets.UTF_8);
+                this.termIDs[s] = new int[dictionary.size()];
+                maxTerms += dictionary.size();
+            }
+            int[] heads = new int[segments.length];
+            PriorityQueue<Integer> queue = new PriorityQueue<>((s1, s2) ->
+                    Index.compareBytes(segmentTerms[s1][heads[s1]], segmentTerms[s2][heads[s2]]));
+            for (int s = 0; s < segments.length; s++)
+                if (segmentTerms[s].length > 0)
+                    queue.add(s);
+            byte[][] terms = new byte[maxTerms][];
+            int[] dfs = new int[maxTerms];
+            int numTerms = 0;
+            while (!queue.isEmpty()) {
+                int s = queue.poll();
+                byte[] term = segmentTerms[s][heads[s]];
+                if (numTerms == 0 || Index.compareBytes(terms[numTerms - 1], term) != 0)
+                    terms[numTerms++] = term;
+                this.termIDs[s][heads[s]] = numTerms - 1;
+                dfs[numTerms - 1] += segments[s].getDictionary().getDf(heads[s]);
+                if (++heads[s] < segmentTerms[s].length)
+                    queue.add(s);
+            }
+
+            this.idfs = new double[numTerms];
+            for (int termID = 0; termID < numTerms; termID++)
+                // Same formulation as Indexer.secondPass
+                this.idfs[termID] = Math.log(1.0 + (double) numDocuments / dfs[termID]);
+            this.ordinals = new int[segments.length][numTerms];
+            for (int s = 0; s < segments.length; s++) {
+                Arrays.fill(this.ordinals[s], -1);
+                for (int ordinal = 0; ordinal < this.termIDs[s].length; ordinal++)
+                    this.ordinals[s][this.termIDs[s][ordinal]] = ordinal;
+            }
+            this.dictionary = TermDictionary.of(Arrays.copyOf(terms, numTerms), Arrays.copyOf(dfs, numTerms),
+                    this.idfs);
+        }
+
+        /**
+         * Returns the segment that contains the specified document.
+         * @param docID the global ID of the document.
+         * @return the index of the segment.
+         */
+        protected int segmentOf(int docID)
+        {
+            int s = Arrays.binarySearch(this.docBase, docID);
+            if (s < 0)
+                s = -s - 2;
+            // Skip empty segments that share the same base
+            while (s + 1 < this.docBase.length && this.docBase[s + 1] == docID)
+                s++;
+            return s;
+        }
+
+        /**
+         * Returns the direct postings of a document, with global {@code termID}s and weights.
+         * @param docID the global ID of the document.
+         * @return a cursor over the postings of the document, sorted by global {@code termID}.
+         */
+        protected PostingsCursor getDirectPostings(int docID)
+        {
+            int s = this.segmentOf(docID);
+            int[] termIDs = this.termIDs[s];
+            PostingsCursor postings = this.segments[s].getDirectPostings(docID - this.docBase[s],
+                    ordinal -> this.idfs[termIDs[ordinal]]);
+            return new TermsCursor(postings, termIDs);
+        }
+
+        /**
+         * Returns the global norm of a document, computing it from its direct postings the first time.
+         * @param docID the global ID of the document.
+         * @return the norm.
+         */
+        protected double getNorm(int docID)
+        {
+            double norm = this.norms[docID];
+            if (Double.isNaN(norm)) {
+                PostingsCursor postings = this.getDirectPostings(docID);
+                double sum = 0;
+                while (postings.next())
+                    sum += postings.weight() * postings.weight();
+                norm = Math.sqrt(sum);
+                this.norms[docID] = norm;
+            }
+            return norm;
+        }
+    }
+
+    /**
+     * Creates a new segmented index to be loaded from or stored in the specified directory.
+     * @param path the directory to store the segments.
+     */
+    public SegmentedIndex(String path)
+    {
+        super(path);
+    }
+
+    /**
+     * Checks whether the specified directory contains a segmented index.
+     * @param path the directory.
+     * @return {@code true} if the directory has a list of segments.
+     */
+    public static boolean isSegmented(String path)
+    {
+        return Paths.get(path, MANIFEST).toFile().exists();
+    }
+
+    /**
+     * Sets the number of segments of the same size level that are merged together.
+     * @param mergeFactor the merge factor.
+     */
+    public void setMergeFactor(int mergeFactor)
+    {
+        if (mergeFactor < 2)
+            throw new IllegalArgumentException("The merge factor must be at least 2.");
+        this.mergeFactor = mergeFactor;
+    }
+
+    /**
+     * Loads the live segments listed in the manifest. An index without manifest is loaded empty.
+     * @throws Exception if an error occurs while loading a segment.
+     */
+    @Override
+    public void load() throws Exception
+    {
+        long startTime = System.nanoTime();
+        synchronized (this) {
+            this.segmentNames.clear();
+            this.segmentNames.addAll(this.readManifest());
+        }
+        this.documentCache = this.documentCacheCapacity > 0 ? new DocumentCache(this.documentCacheCapacity) : null;
+        // All segments share one postings cache, so that its capacity bounds the whole index
+        this.postingsCache = this.loadMode == LoadMode.LAZY ? new PostingsCache(this.cacheCapacity) : null;
+        this.refresh();
+        this.loadTime = System.nanoTime() - startTime;
+    }
+
+    /**
+     * Makes searches see the segments currently listed in the manifest, reusing the ones already loaded.
+     * <p>
+     * It must not be called while a query is running, because {@code docID}s and {@code termID}s change with the
+     * segments.
+     * @throws Exception if an error occurs while loading a segment.
+     */
+    public void refresh() throws Exception
+    {
+        String[] names;
+        synchronized (this) {
+            names = this.segmentNames.toArray(new String[0]);
+        }
+        Snapshot old = this.snapshot;
+        HashMap<String, Index> loaded = new HashMap<>();
+        for (int s = 0; s < old.names.length; s++)
+            loaded.put(old.names[s], old.segments[s]);
+
+        Index[] segments = new Index[names.length];
+        for (int s = 0; s < names.length; s++) {
+            segments[s] = loaded.remove(names[s]);
+            if (segments[s] == null)
+                segments[s] = this.loadSegment(names[s]);
+        }
+        Snapshot snapshot = new Snapshot(names, segments);
+        // Combine the live documents of the segments
+        BitSet liveDocs = null;
+        for (int s = 0; s < segments.length; s++) {
+            if (segments[s].getNumDeleted() == 0)
+                continue;
+            if (liveDocs == null) {
+                liveDocs = new BitSet(snapshot.numDocuments);
+                liveDocs.set(0, snapshot.numDocuments);
+            }
+            for (int docID = 0; docID < segments[s].getNumDocuments(); docID++)
+                if (!segments[s].isLive(docID))
+                    liveDocs.clear(snapshot.docBase[s] + docID);
+        }
+        synchronized (this) {
+            this.snapshot = snapshot;
+            this.numDocuments = snapshot.numDocuments;
+            this.liveDocs = liveDocs;
+        }
+        // The docIDs of the cached documents belong to the old segments
+        if (this.documentCache != null && !Arrays.equals(old.names, names))
+            this.documentCache.clear();
+        for (Index segment : loaded.values())
+            segment.close();
+    }
+
+    /**
+     * Loads the term and document information of one segment, without postings.
+     * <p>
+     * The segment holds the document store open, so it must be closed after use.
+     * @param name the name of the segment.
+     * @return the loaded segment.
+     * @throws IOException if an error occurs while loading the segment.
+     */
+    protected Index loadSegmentInfo(String name) throws IOException
+    {
+        Index segment = new Index(Paths.get(this.path, name).toString());
+        segment.setStructures(EnumSet.noneOf(Structure.class));
+        try {
+            segment.load();
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException("Segment " + name + " can not be loaded.", ex);
+        }
+        return segment;
+    }
+    /**
+     * Loads one segment to search, with the settings of this index. In {@link LoadMode#LAZY} mode it uses the postings
+     * cache of this index, with keys of its own.
+     * @param name the name of the segment.
+     * @return the loaded segment.
+     * @throws Exception if an error occurs while loading the segment.
+     */
+    protected Index loadSegment(String name) throws Exception
+    {
+        Index segment = new Index(Paths.get(this.path, name).toString());
+        segment.setLoadMode(this.loadMode);
+        segment.setLoadThreads(this.loadThreads);
+        if (this.postingsCache != null) {
+            // Keys are unique per loaded segment, since the names of deleted segments may be taken again
+            synchronized (this) {
+                segment.sharePostingsCache(this.postingsCache, this.segmentsLoaded++ << 32);
+            }
+        }
+        // Norms are computed from the direct postings
+        segment.setStructures(EnumSet.of(Structure.INVERTED, Structure.DIRECT));
+        segment.load();
+        return segment;
+    }
+    /**
+     * Loads one segment to merge. Its postings are read once and in order, so they are mapped rather than cached.
+     * @param name the name of the segment.
+     * @return the loaded segment.
+     * @throws Exception if an error occurs while loading the segment.
+     */
+    protected Index loadMergeSource(String name) throws Exception
+    {
+        Index segment = new Index(Paths.get(this.path, name).toString());
+        segment.setLoadThreads(this.loadThreads);
+        segment.setStructures(EnumSet.of(Structure.INVERTED, Structure.DIRECT));
+        segment.load();
+        return segment;
+    }
+
+    /**
+     * Indexes new documents into a new segment, adds it to the index, and schedules merges in the background.
+     * <p>
+     * The new documents are searchable after {@link #refresh}.
+     * @param pathToDocuments path to a document or a directory of documents.
+     * @param docProcessor document processor to extract terms.
+     * @throws IOException if there are no documents or an error occurs while indexing them.
+     */
+    public void addDocuments(File pathToDocuments, DocumentProcessor docProcessor) throws IOException
+    {
+        if (Indexer.listDocuments(pathToDocuments).isEmpty())
+            throw new IOException("There are no documents to add in " + pathToDocuments + ".");
+
+        String name = this.newSegmentName();
+        Indexer indexer = new Indexer(Paths.get(this.path, name).toFile(), pathToDocuments, docProcessor);
+        indexer.setCodec(this.codec);
+        indexer.run();
+        synchronized (this) {
+            this.segmentNames.add(name);
+            this.writeManifest();
+        }
+        synchronized (this.merges) {
+            this.merges.add(this.getMerger().submit((Callable<Void>) this::runMergePolicy));
+        }
+    }
+
+    /**
+     * Returns a name for a new segment, not used by any existing one.
+     * @return the name of the segment.
+     */
+    protected synchronized String newSegmentName()
+    {
+        int next = 0;
+        File[] files = new File(this.path).listFiles();
+        if (files != null)
+            for (File file : files)
+                if (file.getName().matches("seg_\\d+"))
+                    next = Math.max(next, Integer.parseInt(file.getName().substring(4)) + 1);
+        String name = "seg_" + next;
+        Paths.get(this.path, name).toFile().mkdirs();
+        return name;
+    }
+
+    /**
+     * Returns the thread that runs merges and compactions, creating it the first time.
+     * @return the executor of merges.
+     */
+    protected synchronized ExecutorService getMerger()
+    {
+        if (this.merger == null)
+            this.merger = Executors.newSingleThreadExecutor();
+        return this.merger;
+    }
+
+    /**
+     * Runs the merge policy until there is nothing to merge.
+     * @return nothing; declared to run as a {@link Callable} so that exceptions are kept.
+     * @throws Exception if an error occurs while merging.
+     */
+    protected Void runMergePolicy() throws Exception
+    {
+        List<String> merge;
+        while (!(merge = this.findMerge()).isEmpty())
+            this.mergeSegments(merge);
+        return null;
+    }
+
+    /**
+     * Finds the first run of {@link #mergeFactor} consecutive segments with the same size level.
+     * @return the names of the segments to merge, or an empty list if there is nothing to merge.
+     * @throws Exception if an error occurs while reading the size of a segment.
+     */
+    protected List<String> findMerge() throws Exception
+    {
+        String[] names;
+        synchronized (this) {
+            names = this.segmentNames.toArray(new String[0]);
+        }
+        int[] levels = new int[names.length];
+        for (int s = 0; s < names.length; s++) {
+            Index segment = this.loadSegmentInfo(names[s]);
+            try {
+                int live = segment.getNumDocuments() - segment.getNumDeleted();
+                levels[s] = (int) Math.floor(Math.log(Math.max(1, live)) / Math.log(this.mergeFactor));
+            } finally {
+                segment.close();
+            }
+        }
+        for (int from = 0, to = 1; to <= names.length; to++) {
+            if (to < names.length && levels[to] == levels[from])
+                continue;
+            if (to - from >= this.mergeFactor)
+                return Arrays.asList(names).subList(from, from + this.mergeFactor);
+            from = to;
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Merges consecutive segments into a new one, purging their deleted documents, and replaces them in the manifest.
+     * @param names the names of the segments to merge.
+     * @throws Exception if an error occurs while merging.
+     */
+    protected void mergeSegments(List<String> names) throws Exception
+    {
+        ArrayList<Index> sources = new ArrayList<>();
+        int live = 0;
+        for (String name : names) {
+            Index source = this.loadMergeSource(name);
+            sources.add(source);
+            live += source.getNumDocuments() - source.getNumDeleted();
+        }
+        String merged = null;
+        if (live > 0) {
+            merged = this.newSegmentName();
+            Indexer indexer = new Indexer(Paths.get(this.path, merged).toFile(), null, null);
+            // Keep the codec of the sources
+            indexer.setCodec(sources.get(0).invertedCodec);
+            indexer.merge(sources);
+        }
+
+        synchronized (this) {
+            if (merged != null)
+                this.carryDeletions(names, sources, merged);
+            int first = this.segmentNames.indexOf(names.get(0));
+            this.segmentNames.subList(first, first + names.size()).clear();
+            if (merged != null)
+                this.segmentNames.add(first, merged);
+            this.writeManifest();
+        }
+        for (Index source : sources)
+            source.close();
+        // Snapshots in this process may still map the old files, which is fine until they are refreshed
+        for (String name : names)
+            Index.deleteRecursively(Paths.get(this.path, name).toFile());
+    }
+
+    /**
+     * Deletes from a merged segment the documents that were deleted from its sources while merging.
+     * @param names the names of the merged segments.
+     * @param sources the merged segments, as they were loaded before merging.
+     * @param merged the name of the new segment.
+     * @throws IOException if an error occurs while reading or saving the live documents.
+     */
+    protected void carryDeletions(List<String> names, List<Index> sources, String merged) throws IOException
+    {
+        Index target = null;
+        int mergedDocID = 0;
+        try {
+            for (int i = 0; i < names.size(); i++) {
+                Index before = sources.get(i);
+                Index now = this.loadSegmentInfo(names.get(i));
+                try {
+                    for (int docID = 0; docID < before.getNumDocuments(); docID++) {
+                        if (!before.isLive(docID))
+                            continue;
+                        if (!now.isLive(docID)) {
+                            if (target == null)
+                                target = this.loadSegmentInfo(merged);
+                            target.deleteDocument(mergedDocID);
+                        }
+                        mergedDocID++;
+                    }
+                } finally {
+                    now.close();
+                }
+            }
+            if (target != null)
+                target.saveLiveDocs();
+        } finally {
+            if (target != null)
+                target.close();
+        }
+    }
+
+    /**
+     * Deletes the live documents with the specified name from all segments.
+     * <p>
+     * Deletions are visible to searches right away.
+     * @param docName the name of the documents.
+     * @return the number of deleted documents.
+     * @throws IOException if an error occurs while saving the live documents.
+     */
+    @Override
+    public synchronized int delete(String docName) throws IOException
+    {
+        Snapshot snapshot = this.snapshot;
+        List<String> searched = Arrays.asList(snapshot.names);
+        int deleted = 0;
+        for (String name : this.segmentNames) {
+            // Segments being searched are updated in place, so that a refresh keeps their deletions
+            int s = searched.indexOf(name);
+            Index segment = s >= 0 ? snapshot.segments[s] : this.loadSegmentInfo(name);
+            try {
+                boolean changed = false;
+                for (int docID = 0; docID < segment.getNumDocuments(); docID++) {
+                    if (segment.isLive(docID) && segment.getDocName(docID).equals(docName)) {
+                        segment.deleteDocument(docID);
+                        if (s >= 0)
+                            this.deleteDocument(snapshot.docBase[s] + docID);
+                        changed = true;
+                        deleted++;
+                    }
+                }
+                if (changed)
+                    segment.saveLiveDocs();
+            } finally {
+                // Only the segments loaded here; the searched ones stay open
+                if (s < 0)
+                    segment.close();
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Replaces documents: deletes the live documents with the same names as the new ones, and adds the new ones in a
+     * new segment.
+     * <p>
+     * Deletions are visible to searches right away, and the new documents after {@link #refresh}.
+     * @param pathToDocuments path to a document or a directory of documents.
+     * @param docProcessor document processor to extract terms.
+     * @throws IOException if there are no documents or an error occurs while indexing them.
+     */
+    public void updateDocuments(File pathToDocuments, DocumentProcessor docProcessor) throws IOException
+    {
+        for (File docFile : Indexer.listDocuments(pathToDocuments))
+            this.delete(docFile.getName().replace(".html", ""));
+        this.addDocuments(pathToDocuments, docProcessor);
+    }
+
+    /**
+     * Rewrites every segment whose ratio of deleted documents is above a threshold, purging them. Compaction runs
+     * after the pending merges.
+     * <p>
+     * The index must be refreshed afterwards.
+     * @param threshold the minimum ratio of deleted documents to compact a segment.
+     * @return {@code true} if some segment was compacted.
+     * @throws Exception if an error occurs while compacting.
+     */
+    @Override
+    public boolean compact(double threshold) throws Exception
+    {
+        Future<Boolean> compaction = this.getMerger().submit(() -> {
+            String[] names;
+            synchronized (this) {
+                names = this.segmentNames.toArray(new String[0]);
+            }
+            boolean compacted = false;
+            for (String name : names) {
+                Index segment = this.loadSegmentInfo(name);
+                int numDeleted = segment.getNumDeleted();
+                int numDocuments = segment.getNumDocuments();
+                segment.close();
+                if (numDeleted > 0 && numDeleted > threshold * numDocuments) {
+                    this.mergeSegments(Collections.singletonList(name));
+                    compacted = true;
+                }
+            }
+            return compacted;
+        });
+        try {
+            return compaction.get();
+        } catch (ExecutionException ex) {
+            throw new IOException("Compacting segments failed.", ex.getCause());
+        }
+    }
+
+    /**
+     * Waits for the pending merges, and closes the segments.
+     * @throws IOException if a merge failed or an error occurs while closing the segments.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (this) {
+            if (this.merger != null)
+                this.merger.shutdown();
+        }
+        try {
+            this.waitForMerges();
+        } finally {
+            for (Index segment : this.snapshot.segments)
+                segment.close();
+        }
+    }
+
+    /**
+     * Waits for the merges scheduled so far.
+     * @throws IOException if a merge failed.
+     */
+    protected void waitForMerges() throws IOException
+    {
+        try {
+            synchronized (this.merges) {
+                for (Future<Void> merge : this.merges)
+                    merge.get();
+                this.merges.clear();
+            }
+        } catch (ExecutionException ex) {
+            throw new IOException("Merging segments failed.", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads the names of the live segments from the manifest.
+     * @return the names of the segments, in order.
+     * @throws IOException if an error occurs while reading the manifest.
+     */
+    protected List<String> readManifest() throws IOException
+    {
+        Path manifest = Paths.get(this.path, MANIFEST);
+        if (!manifest.toFile().exists())
+            return Collections.emptyList();
+        ArrayList<String> names = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8))
+            if (!line.trim().isEmpty())
+                names.add(line.trim());
+        return names;
+    }
+
+    /**
+     * Writes the names of the live segments to the manifest, replacing it atomically.
+     * @throws IOException if an error occurs while writing the manifest.
+     */
+    protected void writeManifest() throws IOException
+    {
+        new File(this.path).mkdirs();
+        Path temp = Paths.get(this.path, MANIFEST + ".tmp");
+        Files.write(temp, this.segmentNames, StandardCharsets.UTF_8);
+        Files.move(temp, Paths.get(this.path, MANIFEST), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the number of distinct terms in all segments.
+     * @return the number of terms.
+     */
+    @Override
+    public int getNumTerms()
+    {
+        return this.snapshot.idfs.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Global term IDs are the positions of the terms in the merged dictionary, so they change with the segments.
+     */
+    @Override
+    public int getTermID(CharSequence term)
+    {
+        return this.snapshot.dictionary.getOrdinal(term);
+    }
+
+    /**
+     * Returns the dictionaries of the segments merged, with the global document frequencies and IDFs.
+     * @return the merged dictionary, whose ordinals are global term IDs.
+     */
+    @Override
+    public TermDictionary getDictionary()
+    {
+        return this.snapshot.dictionary;
+    }
+
+    @Override
+    public double getIdf(int termID)
+    {
+        return this.snapshot.idfs[termID];
+    }
+
+    /**
+     * Segments do not store impacts, because they depend on the global IDF.
+     * @return {@code false}.
+     */
+    @Override
+    public boolean hasImpacts()
+    {
+        return false;
+    }
+
+    /**
+     * Segments do not store bounds either, because they depend on the global IDF and norms.
+     * @return {@code false}.
+     */
+    @Override
+    public boolean hasBounds()
+    {
+        return false;
+    }
+
+    @Override
+    public String getDocName(int docID)
+    {
+        Snapshot snapshot = this.snapshot;
+        int s = snapshot.segmentOf(docID);
+        return snapshot.segments[s].getDocName(docID - snapshot.docBase[s]);
+    }
+
+    @Override
+    public double getDocNorm(int docID)
+    {
+        return this.snapshot.getNorm(docID);
+    }
+
+    @Override
+    public double getInverseDocNorm(int docID)
+    {
+        // Norms are computed on demand, so their reciprocals are not worth keeping
+        return 1.0 / this.snapshot.getNorm(docID);
+    }
+
+    @Override
+    protected Tuple<String, String> readCachedDocument(int docID) throws Exception
+    {
+        Snapshot snapshot = this.snapshot;
+        int s = snapshot.segmentOf(docID);
+        return snapshot.segments[s].getCachedDocument(docID - snapshot.docBase[s]);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The postings of all segments are concatenated, with weights computed with the global IDF.
+     */
+    @Override
+    public PostingsCursor getInvertedPostings(int termID)
+    {
+        Snapshot snapshot = this.snapshot;
+        double idf = snapshot.idfs[termID];
+        int count = 0;
+        for (int s = 0; s < snapshot.segments.length; s++)
+            if (snapshot.ordinals[s][termID] >= 0)
+                count++;
+        PostingsCursor[] cursors = new PostingsCursor[count];
+        int[] segments = new int[count];
+        for (int s = 0, i = 0; s < snapshot.segments.length; s++) {
+            int ordinal = snapshot.ordinals[s][termID];
+            if (ordinal >= 0) {
+                cursors[i] = snapshot.segments[s].getInvertedPostings(ordinal, idf);
+                segments[i++] = s;
+            }
+        }
+        return new SegmentsCursor(snapshot, cursors, segments);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The {@code termID}s of the postings are global term IDs.
+     */
+    @Override
+    public PostingsCursor getDirectPostings(int docID)
+    {
+        return this.snapshot.getDirectPostings(docID);
+    }
+
+    /**
+     * Concatenates the postings of a term in several segments, shifting {@code docID}s to global ones.
+     */
+    protected static class SegmentsCursor implements PostingsCursor
+    {
+        protected final Snapshot snapshot;
+        protected final PostingsCursor[] cursors;
+        protected final int[] segments;
+        protected final int size;
+        protected int current = 0;
+
+        protected SegmentsCursor(Snapshot snapshot, PostingsCursor[] cursors, int[] segments)
+        {
+            this.snapshot = snapshot;
+            this.cursors = cursors;
+            this.segments = segments;
+            int size = 0;
+            for (PostingsCursor cursor : cursors)
+                size += cursor.size();
+            this.size = size;
+        }
+
+        @Override
+        public boolean next()
+        {
+            while (this.current < this.cursors.length) {
+                if (this.cursors[this.current].next())
+                    return true;
+                this.current++;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean advance(int target)
+        {
+            while (this.current < this.cursors.length) {
+                int base = this.snapshot.docBase[this.segments[this.current]];
+                int end = base + this.snapshot.segments[this.segments[this.current]].getNumDocuments();
+                if (target < end && this.cursors[this.current].advance(Math.max(0, target - base)))
+                    return true;
+                this.current++;
+            }
+            return false;
+        }
+
+        @Override
+        public int docID()
+        {
+            return this.snapshot.docBase[this.segments[this.current]] + this.cursors[this.current].docID();
+        }
+
+        @Override
+        public double weight()
+        {
+            return this.cursors[this.current].weight();
+        }
+
+        @Override
+        public int size()
+        {
+            return this.size;
+        }
+    }
+
+    /**
+     * Maps the ordinals of the direct postings of a segment to global {@code termID}s, which keep their order.
+     */
+    protected static class TermsCursor implements PostingsCursor
+    {
+        protected final PostingsCursor cursor;
+        protected final int[] termIDs;
+
+        protected TermsCursor(PostingsCursor cursor, int[] termIDs)
+        {
+            this.cursor = cursor;
+            this.termIDs = termIDs;
+        }
+
+        @Override
+        public boolean next()
+        {
+            return this.cursor.next();
+        }
+
+        @Override
+        public boolean advance(int target)
+        {
+            // The first term of the segment at or after the target
+            int ordinal = Arrays.binarySearch(this.termIDs, target);
+            return this.cursor.advance(ordinal >= 0 ? ordinal : -ordinal - 1);
+        }
+
+        @Override
+        public int docID()
+        {
+            return this.termIDs[this.cursor.docID()];
+        }
+
+        @Override
+        public double weight()
+        {
+            return this.cursor.weight();
+        }
+
+        @Override
+        public int size()
+        {
+            return this.cursor.size();
+        }
+    }
+
+    /**
+     * Waits for the pending merges and writes the list of live segments, so that the index on disk is complete.
+     * <p>
+     * Segments are written as documents are added, and deletions as documents are deleted, so there is nothing else
+     * to save.
+     * @throws IOException if a merge failed or an error occurs while writing the list of segments.
+     */
+    @Override
+    public void save() throws IOException
+    {
+        this.waitForMerges();
+        synchronized (this) {
+            this.writeManifest();
+        }
+    }
+
+    /**
+     * Prints statistics about the index to {@link System#err}: the number of documents, and the size of each segment.
+     */
+    @Override
+    public void printStatistics()
+    {
+        DecimalFormat df = new DecimalFormat("#.##");
+        Snapshot snapshot = this.snapshot;
+        System.err.println("  - Segments: " + snapshot.segments.length + ".");
+        System.err.println("  - Documents: " + snapshot.numDocuments + " documents.");
+        if (this.liveDocs != null)
+            System.err.println("  - Deleted: " + this.getNumDeleted() + " documents ("
+                    + df.format(100d * this.getNumDeleted() / snapshot.numDocuments) + "%).");
+        for (int s = 0; s < snapshot.segments.length; s++) {
+            long size = 0;
+            for (String file : new String[]{"vocabulary.bin", "documents.bin", "inverted.bin", "direct.bin"})
+                size += Paths.get(this.path, snapshot.names[s], file).toFile().length();
+            System.err.println("    - " + snapshot.names[s] + ": " + snapshot.segments[s].getNumDocuments()
+                    + " documents (" + snapshot.segments[s].getNumDeleted() + " deleted), "
+                    + snapshot.segments[s].getNumTerms() + " terms (" + df.format(size / 1024d / 1024d) + " MB).");
+        }
+        if (this.loadTime >= 0)
+            System.err.println("  - Load time (" + this.loadMode.name().toLowerCase() + "): "
+                    + df.format(this.loadTime / 1e6) + " ms.");
+    }
+}
@@ -3,9 +3,7 @@
 
 package ti;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 /**
  * A very simple document processor.
@@ -26,16 +24,29 @@ public class SimpleProcessor implements DocumentProcessor
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Tokens are the runs of lowercase letters, digits and apostrophes, after lower-casing the text, and only those
+     * longer than 4 characters are terms.
      */
-    public ArrayList<String> processText(String text)
+    public void processText(CharSequence text, TermConsumer consumer)
     {
-        List<String> tokens = Arrays.asList(text.toLowerCase().replaceAll("[^a-z0-9']", " ").split("\\s+"));
-
-        ArrayList<String> terms = new ArrayList<>();
-        for (String token : tokens)
-            if (token.length() > 4)
-                terms.add(token);
-
-        return terms;
+        char[] token = new char[64];
+        int tokenLength = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            char lower = Character.toLowerCase(c);
+            boolean tokenChar = (lower >= 'a' && lower <= 'z') || (lower >= '0' && lower <= '9') || lower == '\'';
+            if (tokenChar) {
+                if (tokenLength == token.length)
+                    token = Arrays.copyOf(token, tokenLength * 2);
+                token[tokenLength++] = lower;
+            }
+            // String.toLowerCase turns the dotted capital I into an i followed by a combining dot, which ends the token
+            if (!tokenChar || c == '\u0130') {
+                if (tokenLength > 4)
+                    consumer.accept(token, 0, tokenLength);
+                tokenLength = 0;
+            }
+        }
     }
 }
@@ -0,0 +1,564 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * An indexer that builds the index with single-pass in-memory indexing (SPIMI), so that the memory it needs does not
+ * depend on the size of the collection.
+ * <p>
+ * The first pass inverts documents into a block in memory until it reaches the {@link #setMemoryBudget memory
+ * budget}, and then writes the block to disk as a run of postings sorted by term. The runs are then merged with a
+ * k-way merge, which writes the inverted postings term by term, computing their IDF and weights and adding up the
+ * document norms, and buffers the direct postings to write them in runs sorted by document too. A last merge of
+ * these writes the direct postings.
+ * <p>
+ * Besides the budget, memory holds the vocabulary and the norm of every document, as the index files need them
+ * anyway. Documents are processed sequentially, and the index is the same as the one built by {@link Indexer}, except
+ * that document norms may differ in the last bits because they are added up in a different order.
+ */
+public class SpimiIndexer extends Indexer
+{
+    /**
+     * Estimated memory overhead of a term in a block, on top of its characters and postings.
+     */
+    protected static final int TERM_OVERHEAD_BYTES = 96;
+    /**
+     * Estimated memory overhead of a document in a buffer of direct postings, on top of its postings.
+     */
+    protected static final int DOC_OVERHEAD_BYTES = 96;
+    /**
+     * Memory taken by a posting in a {@link PostingsList}.
+     */
+    protected static final int POSTING_BYTES = 12;
+
+    protected long memoryBudget = 64L * 1024 * 1024;
+    protected int numDocuments;
+    protected int numRuns;
+    protected int numDirectRuns;
+
+    /**
+     * Creates a new SPIMI indexer with the given paths and document processor.
+     * @param pathToIndex path to the index directory.
+     * @param pathToCollection path to the original documents directory.
+     * @param docProcessor document processor to extract terms.
+     */
+    public SpimiIndexer(File pathToIndex, File pathToCollection, DocumentProcessor docProcessor)
+    {
+        super(pathToIndex, pathToCollection, docProcessor);
+    }
+
+    /**
+     * Sets the memory budget of the postings held in memory before writing them to a run.
+     * @param megabytes the budget, in MB.
+     */
+    public void setMemoryBudget(long megabytes)
+    {
+        if (megabytes <= 0)
+            throw new IllegalArgumentException("The memory budget must be positive.");
+        this.memoryBudget = megabytes * 1024 * 1024;
+    }
+
+    /**
+     * Run the indexing process, writing runs to a temporary directory within the index, and merging them into the
+     * index files.
+     * @throws IOException if an error occurs while indexing.
+     */
+    @Override
+    public void run() throws IOException
+    {
+        Index ind = new Index(this.pathToIndex.getPath());
+        ind.setCodec(this.codec);
+        ind.setImpacts(this.impactBits, this.impactScalePerTerm);
+        File runsDir = new File(this.pathToIndex, "runs");
+        Index.deleteRecursively(runsDir);
+        runsDir.mkdirs();
+        try {
+            this.invertPass(ind, runsDir);
+            this.mergePass(ind, runsDir);
+        } finally {
+            Index.deleteRecursively(runsDir);
+        }
+
+        System.err.println("Index statistics:");
+        try {
+            Index saved = new Index(this.pathToIndex.getPath());
+            saved.load();
+            saved.printStatistics();
+            saved.close();
+        } catch (Exception ex) {
+            throw new IOException("The index can not be loaded.", ex);
+        }
+    }
+    /**
+     * Runs the first pass of the indexer. It processes all original document files, writing their names to the
+     * {@code names} file and their cached versions to the store, and inverts them into blocks that are written as
+     * runs when they reach the memory budget.
+     * @param ind the index.
+     * @param runsDir the directory to write the runs to.
+     * @throws IOException if an error occurs while writing a run.
+     */
+    protected void invertPass(Index ind, File runsDir) throws IOException
+    {
+        DecimalFormat df = new DecimalFormat("#.##");
+        long startTime = System.currentTimeMillis();
+        int totalDocuments = 0;
+        long totalBytesDocuments = 0;
+        this.numDocuments = 0;
+        this.numRuns = 0;
+
+        System.err.println("Running first pass...");
+        HashMap<String, PostingsList> block = new HashMap<>();
+        long blockBytes = 0;
+        DataOutputStream names = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(runsDir, "names"))));
+        for (File docFile : Indexer.listDocuments(this.pathToCollection)) {
+            try {
+                System.err.print("  Indexing file " + docFile.getName() + "...");
+                blockBytes += this.processDocument(docFile, ind, block, names);
+                System.err.print("done.");
+            } catch (IOException ex) {
+                System.err.println("exception!");
+                System.err.print(ex.getMessage());
+            } finally {
+                System.err.println();
+            }
+            totalDocuments++;
+            totalBytesDocuments += docFile.length();
+
+            if (blockBytes >= this.memoryBudget) {
+                this.writeRun(block, new File(runsDir, "run" + this.numRuns++));
+                block = new HashMap<>();
+                blockBytes = 0;
+            }
+        }
+        if (!block.isEmpty() || this.numRuns == 0)
+            this.writeRun(block, new File(runsDir, "run" + this.numRuns++));
+        names.close();
+        if (ind.documentStoreWriter != null) {
+            ind.documentStoreWriter.close();
+            ind.documentStoreWriter = null;
+        }
+
+        long endTime = System.currentTimeMillis();
+        double totalTime = Math.max(1, endTime - startTime) / 1000d;
+        double totalMegabytes = totalBytesDocuments / 1024d / 1024d;
+        System.err.println("...done:");
+        System.err.println("  - Documents: " + totalDocuments + " (" + df.format(totalMegabytes) + " MB).");
+        System.err.println("  - Runs: " + this.numRuns + " (budget " + df.format(this.memoryBudget / 1024d / 1024d)
+                + " MB).");
+        System.err.println("  - Time: " + df.format(totalTime) + " seconds.");
+        System.err.println("  - Throughput: " + df.format(totalMegabytes / totalTime) + " MB/s.");
+        DocumentReader.printStatistics(this.readers);
+    }
+    /**
+     * Process the original document in the specified path and add its postings to the block, with the term
+     * frequencies as weights.
+     * @param docFile the path to the original document file.
+     * @param ind the index to store the cached document in.
+     * @param block the block of postings, by term.
+     * @param names the output to write the document name to.
+     * @return the estimated memory taken by the new terms and postings in the block.
+     * @throws IOException if an error occurrs while processing this document.
+     */
+    protected long processDocument(File docFile, Index ind, HashMap<String, PostingsList> block,
+                                   DataOutputStream names) throws IOException
+    {
+        String html = this.readDocument(docFile);
+        Tuple<String, String> parsed = this.docProcessor.parse(html);
+        TermCounter terms = new TermCounter();
+        this.docProcessor.processText(parsed.item2, terms);
+
+        // Add document entries
+        byte[] docName = Indexer.getDocName(docFile).getBytes(StandardCharsets.UTF_8);
+        int docID = this.numDocuments++;
+        names.writeInt(docName.length);
+        names.write(docName);
+        ind.setCachedDocument(docID, Indexer.toCachedDocument(parsed));
+
+        long bytes = 0;
+        for (int i = 0; i < terms.size(); i++) {
+            String term = terms.term(i);
+            PostingsList postings = block.get(term);
+            if (postings == null) {
+                postings = new PostingsList();
+                block.put(term, postings);
+                bytes += TERM_OVERHEAD_BYTES + 2L * term.length();
+            }
+            postings.add(docID, terms.count(i));
+            bytes += POSTING_BYTES;
+        }
+        return bytes;
+    }
+    /**
+     * Writes a block of postings to a run file, sorted by the UTF-8 bytes of the terms.
+     * <p>
+     * The file has the number of terms, and then every term as its length and bytes, its number of postings, and
+     * the postings as the gaps between {@code docID}s and the term frequencies, all with variable-byte encoding.
+     * @param block the block of postings, by term, with the term frequencies as weights.
+     * @param file the run file.
+     * @throws IOException if an error occurs while writing the run.
+     */
+    protected void writeRun(HashMap<String, PostingsList> block, File file) throws IOException
+    {
+        byte[][] terms = new byte[block.size()][];
+        PostingsList[] lists = new PostingsList[block.size()];
+        int i = 0;
+        for (Map.Entry<String, PostingsList> term : block.entrySet()) {
+            terms[i] = term.getKey().getBytes(StandardCharsets.UTF_8);
+            lists[i++] = term.getValue();
+        }
+        Integer[] order = new Integer[terms.length];
+        for (i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (t1, t2) -> Index.compareBytes(terms[t1], terms[t2]));
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        dos.writeInt(terms.length);
+        for (int t : order) {
+            PostingsCodec.writeVByte(dos, terms[t].length);
+            dos.write(terms[t]);
+            SpimiIndexer.writePostings(dos, lists[t]);
+        }
+        dos.close();
+    }
+    /**
+     * Writes the postings of a run: their number, and then the gaps between IDs and the frequencies, all with
+     * variable-byte encoding.
+     * @param out the output to write to.
+     * @param list the postings, with the frequencies as weights.
+     * @throws IOException if an error occurs while writing.
+     */
+    protected static void writePostings(DataOutputStream out, PostingsList list) throws IOException
+    {
+        PostingsCodec.writeVByte(out, list.size());
+        for (int j = 0, lastID = -1; j < list.size(); lastID = list.docID(j), j++) {
+            PostingsCodec.writeVByte(out, list.docID(j) - lastID);
+            PostingsCodec.writeVByte(out, (int) list.weight(j));
+        }
+    }
+    /**
+     * Merges the runs into the index files.
+     * <p>
+     * Terms come out of the merge sorted, so their ordinals are the final {@code termID}s. The postings of a term
+     * are appended run after run, which keeps them sorted by {@code docID}, and turned into {@code (1+log(tf))*idf}
+     * weights. The direct postings are buffered until they reach the memory budget, and then written as a run sorted
+     * by {@code docID}, to be merged afterwards.
+     * @param ind the index.
+     * @param runsDir the directory with the runs.
+     * @throws IOException if an error occurs while reading the runs or writing the index.
+     */
+    protected void mergePass(Index ind, File runsDir) throws IOException
+    {
+        DecimalFormat df = new DecimalFormat("#.##");
+        long startTime = System.currentTimeMillis();
+        System.err.println("Merging " + this.numRuns + " runs...");
+        System.err.print("  Writing inverted postings...");
+
+        PriorityQueue<RunReader> queue = new PriorityQueue<>((r1, r2) -> {
+            int cmp = Index.compareBytes(r1.term, r2.term);
+            return cmp != 0 ? cmp : r1.run - r2.run;
+        });
+        for (int run = 0; run < this.numRuns; run++) {
+            RunReader reader = new RunReader(new File(runsDir, "run" + run), run);
+            if (reader.next())
+                queue.add(reader);
+        }
+
+        ArrayList<byte[]> terms = new ArrayList<>();
+        int[] dfs = new int[1024];
+        double[] idfs = new double[1024];
+        long[] offsets = new long[1024];
+        double[] norms = new double[this.numDocuments];
+        File invertedFile = new File(runsDir, "inverted");
+        DataOutputStream inverted = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(invertedFile)));
+        TreeMap<Integer, PostingsList> direct = new TreeMap<>();
+        long directBytes = 0;
+        this.numDirectRuns = 0;
+        while (!queue.isEmpty()) {
+            // The postings of the term in all runs, in the order of the runs
+            RunReader reader = queue.poll();
+            byte[] term = reader.term;
+            PostingsList postings = new PostingsList();
+            while (true) {
+                reader.readPostings(postings);
+                if (reader.next())
+                    queue.add(reader);
+                if (queue.isEmpty() || Index.compareBytes(queue.peek().term, term) != 0)
+                    break;
+                reader = queue.poll();
+            }
+
+            int termID = terms.size();
+            if (termID == dfs.length) {
+                dfs = Arrays.copyOf(dfs, termID * 2);
+                idfs = Arrays.copyOf(idfs, termID * 2);
+                offsets = Arrays.copyOf(offsets, termID * 2);
+            }
+            double idf = Math.log(1.0 + (double) this.numDocuments / postings.size());
+            terms.add(term);
+            dfs[termID] = postings.size();
+            idfs[termID] = idf;
+
+            for (int i = 0; i < postings.size(); i++) {
+                int docID = postings.docID(i);
+                int frequency = (int) postings.weight(i);
+                double tf = 1.0 + Math.log(frequency);
+                postings.setWeight(i, tf * idf);
+                norms[docID] += Math.pow(tf * idf, 2.0);
+
+                PostingsList directList = direct.get(docID);
+                if (directList == null) {
+                    directList = new PostingsList();
+                    direct.put(docID, directList);
+                    directBytes += DOC_OVERHEAD_BYTES;
+                }
+                directList.add(termID, frequency);
+                directBytes += POSTING_BYTES;
+            }
+            offsets[termID] = inverted.size();
+            this.codec.encode(inverted, postings, id -> idf);
+
+            if (directBytes >= this.memoryBudget) {
+                this.writeDirectRun(direct, new File(runsDir, "direct" + this.numDirectRuns++));
+                direct = new TreeMap<>();
+                directBytes = 0;
+            }
+        }
+        if (!direct.isEmpty())
+            this.writeDirectRun(direct, new File(runsDir, "direct" + this.numDirectRuns++));
+        inverted.close();
+        System.err.println("done.");
+
+        // Vocabulary
+        int termCount = terms.size();
+        DataOutputStream dos = ind.createFile("vocabulary.bin", termCount, TermDictionary.BLOCK_SIZE);
+        TermDictionary.write(dos, terms.toArray(new byte[0][]), Arrays.copyOf(dfs, termCount),
+                Arrays.copyOf(idfs, termCount));
+        dos.close();
+        // Documents
+        System.err.print("  Writing documents...");
+        this.writeDocuments(ind, new File(runsDir, "names"), norms);
+        System.err.println("done.");
+        // Inverted, after room for the offsets
+        dos = ind.createFile("inverted.bin", termCount, this.codec.getID());
+        long base = Index.HEADER_BYTES + (termCount + 1) * 8L;
+        for (int i = 0; i < termCount; i++)
+            dos.writeLong(base + offsets[i]);
+        dos.writeLong(base + invertedFile.length());
+        Files.copy(invertedFile.toPath(), dos);
+        dos.close();
+        // Direct
+        System.err.print("  Merging " + this.numDirectRuns + " runs of direct postings...");
+        this.writeDirect(ind, runsDir, idfs);
+        System.err.println("done.");
+        // Bounds and impacts, which need the document norms
+        if (this.impactBits == 0)
+            new File(this.pathToIndex, "impacts.bin").delete();
+        System.err.print(this.impactBits > 0 ? "  Writing bounds and impacts..." : "  Writing bounds...");
+        this.writeBounds(ind);
+        System.err.println("done.");
+        // A new index has no deletions
+        new File(this.pathToIndex, "livedocs.bin").delete();
+
+        long endTime = System.currentTimeMillis();
+        double totalTime = (endTime - startTime) / 1000d;
+        System.err.println("...done");
+        System.err.println("  - Terms: " + termCount + ".");
+        System.err.println("  - Time: " + df.format(totalTime) + " seconds.");
+    }
+    /**
+     * Writes a buffer of direct postings to a run file sorted by {@code docID}.
+     * <p>
+     * The file has the number of documents, and then every document as the gap from the previous {@code docID} and
+     * its postings, as in {@link #writePostings}. All the {@code termID}s of a run are greater than those of the
+     * previous runs.
+     * @param direct the direct postings, by {@code docID}, with the term frequencies as weights.
+     * @param file the run file.
+     * @throws IOException if an error occurs while writing the run.
+     */
+    protected void writeDirectRun(TreeMap<Integer, PostingsList> direct, File file) throws IOException
+    {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        dos.writeInt(direct.size());
+        int lastID = -1;
+        for (Map.Entry<Integer, PostingsList> doc : direct.entrySet()) {
+            PostingsCodec.writeVByte(dos, doc.getKey() - lastID);
+            lastID = doc.getKey();
+            SpimiIndexer.writePostings(dos, doc.getValue());
+        }
+        dos.close();
+    }
+    /**
+     * Merges the runs of direct postings into {@code direct.bin}. The postings of a document are appended run after
+     * run, which keeps them sorted by {@code termID}.
+     * @param ind the index.
+     * @param runsDir the directory with the runs.
+     * @param idfs the IDF of every term.
+     * @throws IOException if an error occurs while reading the runs or writing the postings.
+     */
+    protected void writeDirect(Index ind, File runsDir, double[] idfs) throws IOException
+    {
+        RunReader[] readers = new RunReader[this.numDirectRuns];
+        for (int run = 0; run < readers.length; run++) {
+            readers[run] = new RunReader(new File(runsDir, "direct" + run), run);
+            readers[run].next();
+        }
+
+        DataOutputStream dos = ind.createFile("direct.bin", this.numDocuments, this.codec.getID());
+        long[] offsets = new long[this.numDocuments + 1];
+        dos.write(new byte[offsets.length * 8]);
+        for (int docID = 0; docID < this.numDocuments; docID++) {
+            PostingsList list = new PostingsList();
+            for (RunReader reader : readers)
+                if (reader.docID == docID) {
+                    reader.readPostings(list);
+                    reader.next();
+                }
+            for (int i = 0; i < list.size(); i++)
+                list.setWeight(i, (1.0 + Math.log(list.weight(i))) * idfs[list.docID(i)]);
+            offsets[docID] = dos.size();
+            this.codec.encode(dos, list, id -> idfs[id]);
+        }
+        offsets[this.numDocuments] = dos.size();
+        dos.close();
+        ind.writeOffsets("direct.bin", offsets);
+    }
+    /**
+     * Writes {@code documents.bin} from the document names and norms.
+     * @param ind the index.
+     * @param namesFile the file with the length and UTF-8 bytes of every document name.
+     * @param norms the squared norm of every document.
+     * @throws IOException if an error occurs while reading the names or writing the documents.
+     */
+    protected void writeDocuments(Index ind, File namesFile, double[] norms) throws IOException
+    {
+        DataOutputStream dos = ind.createFile("documents.bin", this.numDocuments, 0);
+        try (DataInputStream names = new DataInputStream(new BufferedInputStream(new FileInputStream(namesFile)))) {
+            int offset = 0;
+            for (int docID = 0; docID < this.numDocuments; docID++) {
+                int length = names.readInt();
+                names.skipBytes(length);
+                dos.writeDouble(Math.sqrt(norms[docID]));
+                dos.writeInt(offset);
+                dos.writeInt(length);
+                offset += length;
+            }
+        }
+        try (DataInputStream names = new DataInputStream(new BufferedInputStream(new FileInputStream(namesFile)))) {
+            for (int docID = 0; docID < this.numDocuments; docID++) {
+                byte[] name = new byte[names.readInt()];
+                names.readFully(name);
+                dos.write(name);
+            }
+        }
+        dos.close();
+    }
+    /**
+     * Writes the bounds of the index, and its impacts if {@link #setImpacts set}, reading the inverted postings and
+     * document norms back from the saved files.
+     * @param ind the index.
+     * @throws IOException if an error occurs while reading the index or writing the bounds or impacts.
+     */
+    protected void writeBounds(Index ind) throws IOException
+    {
+        Index saved = new Index(this.pathToIndex.getPath());
+        saved.setStructures(EnumSet.of(Index.Structure.INVERTED));
+        try {
+            saved.load();
+            ind.saveBounds(saved.getNumTerms(), termID -> PostingsList.of(saved.getInvertedPostings(termID)),
+                    saved::getDocNorm);
+            if (this.impactBits > 0)
+                ind.saveImpacts(saved.getNumTerms(), termID -> PostingsList.of(saved.getInvertedPostings(termID)),
+                        saved::getDocNorm);
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException("The index can not be loaded.", ex);
+        } finally {
+            saved.close();
+        }
+    }
+    /**
+     * Reads a run file sequentially, entry by entry: a term, or a {@code docID} in runs of direct postings.
+     */
+    protected static class RunReader
+    {
+        protected final int run;
+        protected final boolean direct;
+        protected final DataInputStream in;
+        protected int remaining;
+        protected byte[] term;
+        protected int docID = -1;
+
+        /**
+         * Opens a run file.
+         * @param file the run file; runs of direct postings are named {@code direct<n>}.
+         * @param run the index of the run.
+         * @throws IOException if an error occurs while opening the run.
+         */
+        public RunReader(File file, int run) throws IOException
+        {
+            this.run = run;
+            this.direct = file.getName().startsWith("direct");
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            this.remaining = this.in.readInt();
+        }
+
+        /**
+         * Moves to the next entry, closing the run after the last one.
+         * @return {@code true} if there is an entry, or {@code false} if the run is exhausted.
+         * @throws IOException if an error occurs while reading the run.
+         */
+        public boolean next() throws IOException
+        {
+            if (this.remaining == 0) {
+                this.in.close();
+                this.term = null;
+                this.docID = -1;
+                return false;
+            }
+            this.remaining--;
+            if (this.direct) {
+                this.docID += PostingsCodec.readVByte(this.in);
+            } else {
+                this.term = new byte[PostingsCodec.readVByte(this.in)];
+                this.in.readFully(this.term);
+            }
+            return true;
+        }
+
+        /**
+         * Reads the postings of the current entry, and appends them to a list.
+         * @param list the list, with the frequencies as weights.
+         * @throws IOException if an error occurs while reading the run.
+         */
+        public void readPostings(PostingsList list) throws IOException
+        {
+            int count = PostingsCodec.readVByte(this.in);
+            for (int j = 0, id = -1; j < count; j++) {
+                id += PostingsCodec.readVByte(this.in);
+                list.add(id, PostingsCodec.readVByte(this.in));
+            }
+        }
+    }
+}
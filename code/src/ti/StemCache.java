@@ -0,0 +1,143 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of the stems of the most frequent tokens, so that stemming them is a single hash lookup instead of a run of
+ * the Porter algorithm.
+ * <p>
+ * The cache is direct-mapped: every token has a single slot, given by its hash, and a token replaces the one in its
+ * slot. Entries are immutable and replaced whole, so the cache is safe to use from several threads without locks; the
+ * stemmers are not, so each thread passes its own. As stems do not depend on the processor, a {@link #shared} cache
+ * serves both indexing and query processing.
+ */
+public class StemCache
+{
+    /**
+     * Default number of slots, enough for the frequent tokens of a collection.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    protected static final StemCache SHARED = new StemCache(DEFAULT_CAPACITY);
+
+    /**
+     * A token and its stem.
+     */
+    protected static class Entry
+    {
+        protected final char[] token;
+        protected final int hash;
+        protected final char[] stem;
+
+        public Entry(char[] token, int hash, char[] stem)
+        {
+            this.token = token;
+            this.hash = hash;
+            this.stem = stem;
+        }
+    }
+
+    protected final Entry[] entries;
+    protected final LongAdder hits = new LongAdder();
+    protected final LongAdder misses = new LongAdder();
+    protected final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a new cache with the specified number of slots.
+     *
+     * @param capacity the number of slots, which is rounded up to a power of two.
+     */
+    public StemCache(int capacity)
+    {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The capacity of the cache must be positive.");
+        int slots = Integer.highestOneBit(capacity);
+        this.entries = new Entry[slots < capacity ? slots << 1 : slots];
+    }
+
+    /**
+     * Returns the cache shared by all processors.
+     *
+     * @return the shared cache.
+     */
+    public static StemCache shared()
+    {
+        return SHARED;
+    }
+
+    /**
+     * Returns the stem of a token, stemming it and caching the stem if it is not cached.
+     *
+     * @param token   the buffer with the token.
+     * @param length  the length of the token.
+     * @param stemmer the stemmer to stem the token with if it is not cached, which must not be used by other threads.
+     * @return the stem, which must not be modified.
+     */
+    public char[] stem(char[] token, int length, Stemmer stemmer)
+    {
+        int hash = TermCounter.hash(token, 0, length);
+        int slot = (hash ^ (hash >>> 16)) & (this.entries.length - 1);
+        Entry entry = this.entries[slot];
+        if (entry != null && entry.hash == hash && TermCounter.equals(entry.token, token, 0, length)) {
+            this.hits.increment();
+            return entry.stem;
+        }
+
+        this.misses.increment();
+        stemmer.add(token, length);
+        stemmer.stem();
+        char[] stem = Arrays.copyOf(stemmer.getResultBuffer(), stemmer.getResultLength());
+        if (entry != null)
+            this.evictions.increment();
+        this.entries[slot] = new Entry(Arrays.copyOf(token, length), hash, stem);
+        return stem;
+    }
+
+    /**
+     * Prints statistics about the cache to {@link System#err}: its slots, and the hits, misses and evictions so far.
+     */
+    public void printStatistics()
+    {
+        DecimalFormat df = new DecimalFormat("#.##");
+        long hits = this.getHits();
+        long requests = hits + this.getMisses();
+        System.err.println("  - Stem cache: " + this.entries.length + " slots.");
+        System.err.println("  - Hits: " + hits + ", misses: " + this.getMisses() + ", evictions: "
+                + this.getEvictions() + " (hit rate " + df.format(requests == 0 ? 0 : 100d * hits / requests) + "%).");
+    }
+
+    /**
+     * Returns the number of tokens whose stem was cached.
+     *
+     * @return the number of hits.
+     */
+    public long getHits()
+    {
+        return this.hits.sum();
+    }
+
+    /**
+     * Returns the number of tokens that had to be stemmed.
+     *
+     * @return the number of misses.
+     */
+    public long getMisses()
+    {
+        return this.misses.sum();
+    }
+
+    /**
+     * Returns the number of cached stems replaced by those of other tokens.
+     *
+     * @return the number of evictions.
+     */
+    public long getEvictions()
+    {
+        return this.evictions.sum();
+    }
+}
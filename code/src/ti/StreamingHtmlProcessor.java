@@ -0,0 +1,1021 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+
+import org.jsoup.nodes.Entities;
+import org.jsoup.parser.Tag;
+
+/**
+ * A processor to extract terms from HTML documents that walks their tags once, instead of building a Jsoup DOM.
+ * <p>
+ * It extracts the same title and body text as {@link HtmlProcessor}: it decodes character references and skips
+ * comments, scripts and styles as the Jsoup tokenizer does, and it keeps the elements open in the body, with the rules
+ * of the Jsoup tree builder that close them, so that it separates the text of block elements with the same spaces as
+ * {@code Element.text()}. Text that Jsoup moves out of misplaced table content keeps its original position.
+ */
+public class StreamingHtmlProcessor extends HtmlProcessor
+{
+	/**
+	 * Elements that close an open {@code p} element when they start.
+	 */
+	protected static final HashSet<String> CLOSE_P_TAGS = new HashSet<>(Arrays.asList("address", "article", "aside",
+			"blockquote", "center", "details", "dir", "div", "dl", "fieldset", "figcaption", "figure", "footer", "header",
+			"hgroup", "menu", "nav", "ol", "p", "section", "summary", "ul", "h1", "h2", "h3", "h4", "h5", "h6", "pre",
+			"listing", "form", "plaintext", "table", "hr", "xmp", "li", "dd", "dt"));
+	/**
+	 * Elements that stop the search of an open element to close with an end tag of another element.
+	 */
+	protected static final HashSet<String> SPECIAL_TAGS = new HashSet<>(Arrays.asList("address", "applet", "area",
+			"article", "aside", "base", "basefont", "bgsound", "blockquote", "body", "br", "button", "caption", "center",
+			"col", "colgroup", "command", "dd", "details", "dir", "div", "dl", "dt", "embed", "fieldset", "figcaption",
+			"figure", "footer", "form", "frame", "frameset", "h1", "h2", "h3", "h4", "h5", "h6", "head", "header",
+			"hgroup", "hr", "html", "iframe", "img", "input", "isindex", "li", "link", "listing", "marquee", "menu",
+			"meta", "nav", "noembed", "noframes", "noscript", "object", "ol", "p", "param", "plaintext", "pre", "script",
+			"section", "select", "style", "summary", "table", "tbody", "td", "textarea", "tfoot", "th", "thead", "title",
+			"tr", "ul", "wbr", "xmp"));
+	/**
+	 * Elements that stop the search of an open special element to close.
+	 */
+	protected static final HashSet<String> SCOPE_TAGS = new HashSet<>(Arrays.asList("applet", "caption", "html",
+			"marquee", "object", "table", "td", "th"));
+	protected static final HashSet<String> TABLE_TAGS = new HashSet<>(Arrays.asList("caption", "col", "colgroup",
+			"tbody", "td", "tfoot", "th", "thead", "tr"));
+	protected static final HashSet<String> FORMATTING_TAGS = new HashSet<>(Arrays.asList("a", "b", "big", "code", "em",
+			"font", "i", "nobr", "s", "small", "strike", "strong", "tt", "u"));
+	protected static final HashSet<String> HEADING_TAGS = new HashSet<>(Arrays.asList("h1", "h2", "h3", "h4", "h5",
+			"h6"));
+	/**
+	 * Elements of the head, also when they appear after it.
+	 */
+	protected static final HashSet<String> HEAD_TAGS = new HashSet<>(Arrays.asList("base", "basefont", "bgsound",
+			"command", "link", "meta", "noframes", "script", "style", "title"));
+	/**
+	 * Elements whose text is kept as is, without collapsing whitespace.
+	 */
+	protected static final HashSet<String> PRESERVE_TAGS = new HashSet<>(Arrays.asList("pre", "plaintext", "title",
+			"textarea"));
+
+	/**
+	 * Creates a new streaming HTML processor.
+	 *
+	 * @param pathToStopWords the path to the file with stopwords.
+	 * @throws IOException if an error occurs while reading stopwords.
+	 */
+	public StreamingHtmlProcessor(File pathToStopWords) throws IOException
+	{
+		super(pathToStopWords);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Tuple<String, String> parse(String html)
+	{
+		return new Extraction(html).run();
+	}
+
+	/**
+	 * The state of the extraction of a document, so that several threads can use the processor.
+	 */
+	protected static class Extraction
+	{
+		protected static final int BEFORE_HEAD = 0;
+		protected static final int IN_HEAD = 1;
+		protected static final int AFTER_HEAD = 2;
+		protected static final int IN_BODY = 3;
+		protected static final int FRAMESET = 4;
+
+		protected final String html;
+		protected final int length;
+		protected int pos = 0;
+		protected int mode = BEFORE_HEAD;
+		protected boolean headNoscript = false;
+		protected boolean formOpen = false;
+		protected String title = null;
+		protected final StringBuilder body = new StringBuilder();
+		/**
+		 * Elements open in the body, innermost last.
+		 */
+		protected final ArrayList<String> stack = new ArrayList<>();
+		/**
+		 * Number of open elements that preserve whitespace.
+		 */
+		protected int preserve = 0;
+		/**
+		 * Whether the last node was a block element, so that text right after it is separated.
+		 */
+		protected boolean blockClosed = false;
+
+		public Extraction(String html)
+		{
+			this.html = html;
+			this.length = html.length();
+		}
+
+		/**
+		 * Extracts the title and body text.
+		 *
+		 * @return a {@link Tuple} with the document title and the main body text.
+		 */
+		public Tuple<String, String> run()
+		{
+			StringBuilder text = new StringBuilder();
+			while (this.pos < this.length) {
+				if (this.html.charAt(this.pos) == '<' && this.pos + 1 < this.length && this.markup())
+					continue;
+				// Text up to the next markup
+				text.setLength(0);
+				int start = this.pos;
+				do {
+					char c = this.html.charAt(this.pos);
+					if (c == '<' && this.pos > start && this.pos + 1 < this.length
+							&& Extraction.startsMarkup(this.html.charAt(this.pos + 1)))
+						break;
+					if (c == '&')
+						this.characterReference(text);
+					else {
+						text.append(c);
+						this.pos++;
+					}
+				} while (this.pos < this.length);
+				if (text.length() > 0)
+					this.text(text);
+			}
+
+			String body = this.mode == FRAMESET ? "" : this.body.toString().trim();
+			String title = "";
+			if (this.title != null) {
+				StringBuilder normalized = new StringBuilder();
+				Extraction.appendNormalized(normalized, this.title);
+				title = normalized.toString().trim();
+			}
+			return new Tuple<>(title, body);
+		}
+
+		/**
+		 * Tells whether the character after a {@code <} starts markup rather than text.
+		 *
+		 * @param c the character.
+		 * @return {@code true} if it starts markup.
+		 */
+		protected static boolean startsMarkup(char c)
+		{
+			return Extraction.isLetter(c) || c == '!' || c == '/' || c == '?';
+		}
+
+		/**
+		 * Processes the markup at the current position: a tag, comment, doctype or CDATA section.
+		 *
+		 * @return {@code false} if the {@code <} at the current position is text.
+		 */
+		protected boolean markup()
+		{
+			char next = this.html.charAt(this.pos + 1);
+			if (next == '!') {
+				if (this.html.startsWith("<!--", this.pos))
+					this.pos = this.commentEnd(this.pos + 4);
+				else if (this.html.regionMatches(true, this.pos, "<!doctype", 0, 9)) {
+					this.pos = this.skipTo('>', this.pos);
+					return true;
+				} else if (this.html.startsWith("<![CDATA[", this.pos)) {
+					// Jsoup emits CDATA sections as text
+					int end = this.html.indexOf("]]>", this.pos + 9);
+					String data = this.html.substring(this.pos + 9, end < 0 ? this.length : end);
+					this.pos = end < 0 ? this.length : end + 3;
+					this.text(data);
+					return true;
+				} else
+					this.pos = this.skipTo('>', this.pos);
+				this.comment();
+				return true;
+			}
+			if (next == '?') {
+				this.pos = this.skipTo('>', this.pos);
+				this.comment();
+				return true;
+			}
+			if (next == '/') {
+				if (this.pos + 2 >= this.length)
+					return false;
+				char c = this.html.charAt(this.pos + 2);
+				if (c == '>')
+					this.pos += 3;
+				else if (Extraction.isLetter(c)) {
+					String name = this.tag(this.pos + 2);
+					if (name != null)
+						this.endTag(name);
+				} else {
+					this.pos = this.skipTo('>', this.pos);
+					this.comment();
+				}
+				return true;
+			}
+			if (Extraction.isLetter(next)) {
+				boolean[] selfClosing = new boolean[1];
+				String name = this.tag(this.pos + 1, selfClosing);
+				if (name != null)
+					this.startTag(name, selfClosing[0]);
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Reads an end tag.
+		 *
+		 * @param start the position of its name.
+		 * @return the name of the tag, or {@code null} if the document ends before the tag.
+		 */
+		protected String tag(int start)
+		{
+			return this.tag(start, new boolean[1]);
+		}
+
+		/**
+		 * Reads a tag, skipping its attributes, and moves the current position after it.
+		 *
+		 * @param start       the position of its name.
+		 * @param selfClosing set to whether the tag ends with {@code />}.
+		 * @return the name of the tag, in lower case, or {@code null} if the document ends before the tag.
+		 */
+		protected String tag(int start, boolean[] selfClosing)
+		{
+			int i = start;
+			while (i < this.length && !Extraction.isNameEnd(this.html.charAt(i)))
+				i++;
+			String name = this.html.substring(start, i).toLowerCase(Locale.ENGLISH);
+			while (i < this.length) {
+				char c = this.html.charAt(i);
+				if (c == '>') {
+					this.pos = i + 1;
+					return name;
+				}
+				if (c == '/') {
+					if (i + 1 < this.length && this.html.charAt(i + 1) == '>') {
+						selfClosing[0] = true;
+						this.pos = i + 2;
+						return name;
+					}
+					i++;
+					continue;
+				}
+				if (Extraction.isWhitespace(c)) {
+					i++;
+					continue;
+				}
+				// Attribute name, which may start with '='
+				i++;
+				while (i < this.length && !Extraction.isNameEnd(c = this.html.charAt(i)) && c != '=')
+					i++;
+				while (i < this.length && Extraction.isWhitespace(this.html.charAt(i)))
+					i++;
+				if (i < this.length && this.html.charAt(i) == '=') {
+					i++;
+					while (i < this.length && Extraction.isWhitespace(this.html.charAt(i)))
+						i++;
+					if (i < this.length && (this.html.charAt(i) == '"' || this.html.charAt(i) == '\'')) {
+						i = this.html.indexOf(this.html.charAt(i), i + 1);
+						if (i < 0)
+							break;
+						i++;
+					} else
+						while (i < this.length && !Extraction.isWhitespace(c = this.html.charAt(i)) && c != '>')
+							i++;
+				}
+			}
+			// Jsoup drops tags cut by the end of the document
+			this.pos = this.length;
+			return null;
+		}
+
+		/**
+		 * Returns the position after a comment.
+		 *
+		 * @param start the position after its {@code <!--}.
+		 * @return the position after the comment.
+		 */
+		protected int commentEnd(int start)
+		{
+			if (this.html.startsWith(">", start))
+				return start + 1;
+			if (this.html.startsWith("->", start))
+				return start + 2;
+			int i = start;
+			while ((i = this.html.indexOf("--", i)) >= 0) {
+				int j = i + 2;
+				while (j < this.length && this.html.charAt(j) == '-')
+					j++;
+				if (j < this.length && this.html.charAt(j) == '>')
+					return j + 1;
+				if (this.html.startsWith("!>", j))
+					return j + 2;
+				i = j;
+			}
+			return this.length;
+		}
+
+		/**
+		 * Returns the position after the next occurrence of a character.
+		 *
+		 * @param c     the character.
+		 * @param start the position to search from.
+		 * @return the position after the character, or the end of the document.
+		 */
+		protected int skipTo(char c, int start)
+		{
+			int i = this.html.indexOf(c, start);
+			return i < 0 ? this.length : i + 1;
+		}
+
+		/**
+		 * Decodes the character reference at the current position, as Jsoup does, and appends it to the text.
+		 * Unknown references are kept as text.
+		 *
+		 * @param text the text.
+		 */
+		protected void characterReference(StringBuilder text)
+		{
+			int start = this.pos;
+			this.pos++;
+			if (this.pos >= this.length || " \t\n\r\f<&".indexOf(this.html.charAt(this.pos)) >= 0) {
+				text.append('&');
+				return;
+			}
+			if (this.html.charAt(this.pos) == '#') {
+				this.pos++;
+				boolean hex = this.pos < this.length && (this.html.charAt(this.pos) == 'x' || this.html.charAt(this.pos) == 'X');
+				if (hex)
+					this.pos++;
+				int digits = this.pos;
+				while (this.pos < this.length && Character.digit(this.html.charAt(this.pos), hex ? 16 : 10) >= 0
+						&& this.html.charAt(this.pos) < 128)
+					this.pos++;
+				if (this.pos == digits) {
+					this.pos = start + 1;
+					text.append('&');
+					return;
+				}
+				int value = -1;
+				try {
+					value = Integer.parseInt(this.html.substring(digits, this.pos), hex ? 16 : 10);
+				} catch (NumberFormatException ex) {
+					// Out of range
+				}
+				if (this.pos < this.length && this.html.charAt(this.pos) == ';')
+					this.pos++;
+				if (value == -1 || (value >= 0xD800 && value <= 0xDFFF) || value > 0x10FFFF)
+					value = 0xFFFD;
+				text.appendCodePoint(value);
+				return;
+			}
+
+			int nameStart = this.pos;
+			while (this.pos < this.length && Extraction.isLetter(this.html.charAt(this.pos)))
+				this.pos++;
+			while (this.pos < this.length && this.html.charAt(this.pos) >= '0' && this.html.charAt(this.pos) <= '9')
+				this.pos++;
+			String name = this.html.substring(nameStart, this.pos);
+			boolean semicolon = this.pos < this.length && this.html.charAt(this.pos) == ';';
+			if (!Entities.isBaseNamedEntity(name) && !(semicolon && Entities.isNamedEntity(name))) {
+				this.pos = start + 1;
+				text.append('&');
+				return;
+			}
+			if (semicolon)
+				this.pos++;
+			int[] codepoints = new int[2];
+			int count = Entities.codepointsForName(name, codepoints);
+			for (int i = 0; i < count; i++)
+				text.appendCodePoint(codepoints[i]);
+		}
+
+		/**
+		 * Processes a start tag.
+		 *
+		 * @param name        the name of the tag.
+		 * @param selfClosing whether the tag ends with {@code />}.
+		 */
+		protected void startTag(String name, boolean selfClosing)
+		{
+			switch (this.mode) {
+				case BEFORE_HEAD:
+					if (name.equals("html"))
+						return;
+					this.mode = IN_HEAD;
+					if (name.equals("head"))
+						return;
+					this.startTag(name, selfClosing);
+					return;
+				case IN_HEAD:
+					if (this.headNoscript) {
+						if (name.equals("link") || name.equals("meta") || name.equals("basefont")
+								|| name.equals("bgsound"))
+							return;
+						if (name.equals("style") || name.equals("noframes")) {
+							this.rawText(name);
+							return;
+						}
+						this.headNoscript = false;
+					}
+					if (name.equals("noscript")) {
+						this.headNoscript = true;
+						return;
+					}
+					if (name.equals("html") || name.equals("head"))
+						return;
+					if (HEAD_TAGS.contains(name)) {
+						this.headContent(name, selfClosing);
+						return;
+					}
+					this.mode = AFTER_HEAD;
+					this.startTag(name, selfClosing);
+					return;
+				case AFTER_HEAD:
+					if (name.equals("html") || name.equals("head"))
+						return;
+					if (HEAD_TAGS.contains(name)) {
+						this.headContent(name, selfClosing);
+						return;
+					}
+					if (name.equals("frameset")) {
+						this.mode = FRAMESET;
+						return;
+					}
+					this.mode = IN_BODY;
+					if (name.equals("body"))
+						return;
+					this.startTag(name, selfClosing);
+					return;
+				case IN_BODY:
+					this.bodyStartTag(name, selfClosing);
+					return;
+				default:
+			}
+		}
+
+		/**
+		 * Processes an element of the head, skipping its content.
+		 *
+		 * @param name        the name of the element.
+		 * @param selfClosing whether the tag ends with {@code />}.
+		 */
+		protected void headContent(String name, boolean selfClosing)
+		{
+			if (name.equals("script")) {
+				if (!selfClosing)
+					this.scriptData();
+			} else if (name.equals("title") || name.equals("style") || name.equals("noframes")) {
+				String content = this.rawText(name);
+				if (selfClosing)
+					// The element is closed empty, but its content is read as raw text anyway
+					this.text(content);
+				if (name.equals("title") && this.title == null)
+					this.title = selfClosing ? "" : content;
+			}
+		}
+
+		/**
+		 * Processes a start tag in the body.
+		 *
+		 * @param name        the name of the tag.
+		 * @param selfClosing whether the tag ends with {@code />}.
+		 */
+		protected void bodyStartTag(String name, boolean selfClosing)
+		{
+			int select = this.find("select", TABLE_SCOPE);
+			if (select >= 0) {
+				switch (name) {
+					case "option":
+					case "optgroup":
+						if (this.top().equals("option"))
+							this.popTo(this.stack.size() - 1);
+						if (name.equals("optgroup") && this.top().equals("optgroup"))
+							this.popTo(this.stack.size() - 1);
+						this.element(name, selfClosing);
+						return;
+					case "select":
+						this.popTo(select);
+						return;
+					case "input":
+					case "keygen":
+					case "textarea":
+						this.popTo(select);
+						break;
+					case "script":
+						this.element(name, selfClosing);
+						return;
+					default:
+						return;
+				}
+			}
+
+			switch (name) {
+				case "html":
+				case "body":
+				case "head":
+				case "frameset":
+				case "frame":
+					return;
+				case "image":
+					name = "img";
+					break;
+				case "form":
+					if (this.formOpen)
+						return;
+					this.formOpen = true;
+					break;
+				case "li":
+				case "dd":
+				case "dt":
+					// Close the open list item, unless a special element other than these is inside it
+					for (int i = this.stack.size() - 1; i >= 0; i--) {
+						String open = this.stack.get(i);
+						if (name.equals("li") ? open.equals("li") : open.equals("dd") || open.equals("dt")) {
+							this.popTo(i);
+							break;
+						}
+						if (SPECIAL_TAGS.contains(open) && !open.equals("address") && !open.equals("div")
+								&& !open.equals("p"))
+							break;
+					}
+					break;
+				default:
+			}
+			if (TABLE_TAGS.contains(name)) {
+				int table = this.find("table", TABLE_SCOPE);
+				if (table < 0)
+					return;
+				// Close what the new table element ends
+				for (int i = this.stack.size() - 1; i > table; i--) {
+					String open = this.stack.get(i);
+					if (name.equals("td") || name.equals("th") ? open.equals("td") || open.equals("th")
+							: name.equals("tr") ? open.equals("tr") || open.equals("td") || open.equals("th")
+							: true) {
+						if (name.equals("col") && open.equals("colgroup"))
+							break;
+						this.popTo(i);
+					}
+				}
+			}
+			if (CLOSE_P_TAGS.contains(name)) {
+				int p = this.find("p", BUTTON_SCOPE);
+				if (p >= 0)
+					this.popTo(p);
+			}
+			if (HEADING_TAGS.contains(name) && HEADING_TAGS.contains(this.top()))
+				this.popTo(this.stack.size() - 1);
+			this.element(name, selfClosing);
+		}
+
+		/**
+		 * Adds an element to the body, and reads its content if it is raw text.
+		 *
+		 * @param name        the name of the element.
+		 * @param selfClosing whether the tag ends with {@code />}.
+		 */
+		protected void element(String name, boolean selfClosing)
+		{
+			boolean block = Extraction.isBlock(name);
+			if (block || name.equals("br"))
+				this.separate();
+			this.blockClosed = false;
+			boolean known = Tag.isKnownTag(name);
+			if (known && Tag.valueOf(name).isEmpty() || selfClosing && !known) {
+				this.blockClosed = block;
+				return;
+			}
+
+			this.push(name);
+			switch (name) {
+				case "script":
+					if (!selfClosing)
+						this.scriptData();
+					break;
+				case "style":
+				case "title":
+				case "textarea":
+				case "iframe":
+				case "noembed":
+				case "noframes":
+				case "xmp":
+					if (selfClosing) {
+						// The element is closed empty, but its content is read as raw text anyway
+						this.popTo(this.stack.size() - 1);
+						this.blockClosed = block;
+						if (name.equals("title") && this.title == null)
+							this.title = "";
+						String content = this.rawText(name);
+						if (!content.isEmpty())
+							this.text(content);
+						return;
+					}
+					String content = this.rawText(name);
+					if (name.equals("title") && this.title == null)
+						this.title = content;
+					if (!content.isEmpty() && !name.equals("style"))
+						this.text(content);
+					break;
+				case "plaintext":
+					this.text(this.html.substring(this.pos));
+					this.pos = this.length;
+					return;
+				default:
+					if (selfClosing) {
+						this.endTag(name);
+						return;
+					}
+					return;
+			}
+			// The content ends with the end tag of the element
+			this.popTo(this.stack.size() - 1);
+			this.blockClosed = block;
+		}
+
+		/**
+		 * Processes an end tag.
+		 *
+		 * @param name the name of the tag.
+		 */
+		protected void endTag(String name)
+		{
+			switch (this.mode) {
+				case BEFORE_HEAD:
+					if (name.equals("head") || name.equals("body") || name.equals("html") || name.equals("br")) {
+						this.mode = IN_HEAD;
+						this.endTag(name);
+					}
+					return;
+				case IN_HEAD:
+					if (this.headNoscript) {
+						if (name.equals("noscript"))
+							this.headNoscript = false;
+						else if (name.equals("br")) {
+							this.headNoscript = false;
+							this.endTag(name);
+						}
+						return;
+					}
+					if (name.equals("head"))
+						this.mode = AFTER_HEAD;
+					else if (name.equals("body") || name.equals("html") || name.equals("br")) {
+						this.mode = AFTER_HEAD;
+						this.endTag(name);
+					}
+					return;
+				case AFTER_HEAD:
+					if (name.equals("body") || name.equals("html") || name.equals("br")) {
+						this.mode = IN_BODY;
+						this.endTag(name);
+					}
+					return;
+				case IN_BODY:
+					this.bodyEndTag(name);
+					return;
+				default:
+			}
+		}
+
+		/**
+		 * Processes an end tag in the body.
+		 *
+		 * @param name the name of the tag.
+		 */
+		protected void bodyEndTag(String name)
+		{
+			int select = this.find("select", TABLE_SCOPE);
+			if (select >= 0) {
+				if (name.equals("select") || name.equals("option") || name.equals("optgroup")) {
+					int i = this.find(name, TABLE_SCOPE);
+					if (i >= 0)
+						this.close(i);
+				}
+				return;
+			}
+
+			switch (name) {
+				case "body":
+				case "html":
+					return;
+				case "br":
+					this.element("br", false);
+					return;
+				case "p":
+					if (this.find("p", BUTTON_SCOPE) < 0) {
+						this.element("p", false);
+						this.blockClosed = false;
+					}
+					this.close(this.find("p", BUTTON_SCOPE));
+					return;
+				case "form":
+					this.formOpen = false;
+					int form = this.find("form", IN_SCOPE);
+					if (form == this.stack.size() - 1)
+						this.close(form);
+					else if (form >= 0) {
+						this.remove(form);
+						this.blockClosed = false;
+					}
+					return;
+				case "li":
+					this.close(this.find("li", LIST_SCOPE));
+					return;
+				case "h1":
+				case "h2":
+				case "h3":
+				case "h4":
+				case "h5":
+				case "h6":
+					for (int i = this.stack.size() - 1; i >= 0; i--) {
+						String open = this.stack.get(i);
+						if (HEADING_TAGS.contains(open)) {
+							this.close(i);
+							return;
+						}
+						if (SCOPE_TAGS.contains(open))
+							return;
+					}
+					return;
+				default:
+			}
+			if (TABLE_TAGS.contains(name) || name.equals("table")) {
+				this.close(this.find(name, TABLE_SCOPE));
+				return;
+			}
+			if (SPECIAL_TAGS.contains(name)) {
+				this.close(this.find(name, IN_SCOPE));
+				return;
+			}
+			// Any other element closes up to the innermost one with its name, unless a special element is inside
+			for (int i = this.stack.size() - 1; i >= 0; i--) {
+				String open = this.stack.get(i);
+				if (open.equals(name)) {
+					this.close(i);
+					return;
+				}
+				if (SPECIAL_TAGS.contains(open)) {
+					if (FORMATTING_TAGS.contains(name)) {
+						// The adoption agency removes the formatting element and leaves the special ones open
+						int j = this.find(name, IN_SCOPE);
+						if (j >= 0) {
+							this.remove(j);
+							this.blockClosed = false;
+						}
+					}
+					return;
+				}
+			}
+		}
+
+		protected static final int IN_SCOPE = 0;
+		protected static final int BUTTON_SCOPE = 1;
+		protected static final int LIST_SCOPE = 2;
+		protected static final int TABLE_SCOPE = 3;
+
+		/**
+		 * Finds the innermost open element with a name within a scope.
+		 *
+		 * @param name  the name of the element.
+		 * @param scope the scope.
+		 * @return the index of the element in the stack, or {@code -1} if it is not open in the scope.
+		 */
+		protected int find(String name, int scope)
+		{
+			for (int i = this.stack.size() - 1; i >= 0; i--) {
+				String open = this.stack.get(i);
+				if (open.equals(name))
+					return i;
+				if (scope == TABLE_SCOPE ? open.equals("table") || open.equals("html")
+						: SCOPE_TAGS.contains(open) || scope == BUTTON_SCOPE && open.equals("button")
+						|| scope == LIST_SCOPE && (open.equals("ol") || open.equals("ul")))
+					return -1;
+			}
+			return -1;
+		}
+
+		/**
+		 * Closes an open element and all elements inside it, if it is open.
+		 *
+		 * @param i the index of the element in the stack, or {@code -1}.
+		 */
+		protected void close(int i)
+		{
+			if (i < 0)
+				return;
+			String name = this.stack.get(i);
+			this.popTo(i);
+			this.blockClosed = Extraction.isBlock(name);
+		}
+
+		protected String top()
+		{
+			return this.stack.isEmpty() ? "" : this.stack.get(this.stack.size() - 1);
+		}
+
+		protected void push(String name)
+		{
+			this.stack.add(name);
+			if (PRESERVE_TAGS.contains(name))
+				this.preserve++;
+		}
+
+		protected void popTo(int i)
+		{
+			while (this.stack.size() > i)
+				this.remove(this.stack.size() - 1);
+		}
+
+		protected void remove(int i)
+		{
+			if (PRESERVE_TAGS.contains(this.stack.remove(i)))
+				this.preserve--;
+		}
+
+		/**
+		 * Processes a comment.
+		 */
+		protected void comment()
+		{
+			if (this.mode == IN_BODY)
+				this.blockClosed = false;
+		}
+
+		/**
+		 * Processes text.
+		 *
+		 * @param text the text.
+		 */
+		protected void text(CharSequence text)
+		{
+			if (this.mode != IN_BODY) {
+				if (this.mode == FRAMESET || Extraction.isBlank(text))
+					return;
+				// Text closes the head and opens the body
+				this.headNoscript = false;
+				this.mode = IN_BODY;
+			}
+			if (this.blockClosed && !this.endsWithSpace())
+				this.body.append(' ');
+			this.blockClosed = false;
+			if (this.preserve > 0)
+				this.body.append(text);
+			else
+				Extraction.appendNormalized(this.body, text);
+		}
+
+		/**
+		 * Separates the text of a block element from the previous text.
+		 */
+		protected void separate()
+		{
+			if (this.body.length() > 0 && !this.endsWithSpace())
+				this.body.append(' ');
+		}
+
+		protected boolean endsWithSpace()
+		{
+			return this.body.length() > 0 && this.body.charAt(this.body.length() - 1) == ' ';
+		}
+
+		/**
+		 * Reads the content of an element up to its end tag, decoding character references in {@code title} and
+		 * {@code textarea} elements, and moves the current position after the end tag.
+		 *
+		 * @param name the name of the element.
+		 * @return the content.
+		 */
+		protected String rawText(String name)
+		{
+			int end = this.pos;
+			while ((end = this.html.indexOf("</", end)) >= 0 && !this.isEndTag(end, name))
+				end += 2;
+			if (end < 0)
+				end = this.length;
+			String content;
+			if (name.equals("title") || name.equals("textarea")) {
+				StringBuilder text = new StringBuilder();
+				String html = this.html;
+				while (this.pos < end) {
+					if (html.charAt(this.pos) == '&')
+						this.characterReference(text);
+					else
+						text.append(html.charAt(this.pos++));
+				}
+				content = text.toString();
+			} else
+				content = this.html.substring(this.pos, end);
+			this.pos = end < this.length ? this.skipTo('>', end) : end;
+			return content;
+		}
+
+		/**
+		 * Skips the content of a script up to its end tag, as the script states of the tokenizer do, and moves the
+		 * current position after the end tag.
+		 */
+		protected void scriptData()
+		{
+			final int data = 0, escaped = 1, doubleEscaped = 2;
+			int state = data;
+			int i = this.pos;
+			while (i < this.length) {
+				char c = this.html.charAt(i);
+				if (c == '-' && this.html.startsWith("-->", i) && state != data) {
+					state = data;
+					i += 3;
+				} else if (c == '<') {
+					if (state == data && this.html.startsWith("<!--", i)) {
+						state = escaped;
+						// The dashes of the opening may also close it
+						i += 2;
+					} else if (state != doubleEscaped && this.isEndTag(i, "script")) {
+						this.pos = this.skipTo('>', i);
+						return;
+					} else if (state == doubleEscaped && this.isEndTag(i, "script")) {
+						state = escaped;
+						i += 8;
+					} else if (state == escaped && this.html.regionMatches(true, i + 1, "script", 0, 6)
+							&& i + 7 < this.length && Extraction.isNameEnd(this.html.charAt(i + 7))) {
+						state = doubleEscaped;
+						i += 7;
+					} else
+						i++;
+				} else
+					i++;
+			}
+			this.pos = this.length;
+		}
+
+		/**
+		 * Tells whether the end tag of an element starts at a position.
+		 *
+		 * @param i    the position.
+		 * @param name the name of the element.
+		 * @return {@code true} if it is the end tag.
+		 */
+		protected boolean isEndTag(int i, String name)
+		{
+			int end = i + 2 + name.length();
+			return this.html.startsWith("</", i) && this.html.regionMatches(true, i + 2, name, 0, name.length())
+					&& end < this.length && Extraction.isNameEnd(this.html.charAt(end));
+		}
+
+		/**
+		 * Appends text to another, collapsing whitespace and removing invisible characters, as Jsoup does.
+		 *
+		 * @param accum the text to append to.
+		 * @param text  the text to append.
+		 */
+		protected static void appendNormalized(StringBuilder accum, CharSequence text)
+		{
+			boolean lastWasWhite = accum.length() > 0 && accum.charAt(accum.length() - 1) == ' ';
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (Extraction.isWhitespace(c) || c == 160) {
+					if (lastWasWhite)
+						continue;
+					accum.append(' ');
+					lastWasWhite = true;
+				} else if (c != 8203 && c != 173) {
+					accum.append(c);
+					lastWasWhite = false;
+				}
+			}
+		}
+
+		protected static boolean isBlock(String name)
+		{
+			return Tag.isKnownTag(name) && Tag.valueOf(name).isBlock();
+		}
+
+		protected static boolean isLetter(char c)
+		{
+			return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || Character.isLetter(c);
+		}
+
+		protected static boolean isWhitespace(char c)
+		{
+			return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+		}
+
+		protected static boolean isNameEnd(char c)
+		{
+			return Extraction.isWhitespace(c) || c == '/' || c == '>';
+		}
+
+		protected static boolean isBlank(CharSequence text)
+		{
+			for (int i = 0; i < text.length(); i++)
+				if (!Extraction.isWhitespace(text.charAt(i)))
+					return false;
+			return true;
+		}
+	}
+}
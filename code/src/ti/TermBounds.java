@@ -0,0 +1,93 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The upper bounds of the contributions {@code weight/norm} of the postings of a term, overall and by blocks of
+ * consecutive postings, as saved in {@code bounds.bin} by {@link Index#saveBounds}.
+ * <p>
+ * A block is identified by its position, and covers the {@code docID}s after the last one of the previous block up to
+ * its own last one. Terms whose postings fit in a single block only store their largest contribution, and that block
+ * covers all {@code docID}s. Bounds are read directly from the index file, with no decoding.
+ */
+public class TermBounds
+{
+    protected final ByteBuffer buffer;
+    protected final int numBlocks;
+
+    /**
+     * Creates the bounds of a term from its entry in {@code bounds.bin}.
+     *
+     * @param buffer the entry of the term.
+     */
+    public TermBounds(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+        this.numBlocks = buffer.limit() > 8 ? buffer.getInt(8) : 1;
+    }
+
+    /**
+     * Returns the largest contribution of any posting of the term.
+     *
+     * @return the largest contribution.
+     */
+    public double getMaxScore()
+    {
+        return this.buffer.getDouble(0);
+    }
+
+    /**
+     * Returns the number of blocks in which the postings of the term are split.
+     *
+     * @return the number of blocks.
+     */
+    public int getNumBlocks()
+    {
+        return this.numBlocks;
+    }
+
+    /**
+     * Returns the last {@code docID} in the specified block.
+     *
+     * @param block the position of the block.
+     * @return the last {@code docID}, or {@link Integer#MAX_VALUE} for the single block of a term.
+     */
+    public int getBlockLastDocID(int block)
+    {
+        if (this.numBlocks == 1)
+            return Integer.MAX_VALUE;
+        return this.buffer.getInt(12 + block * 4);
+    }
+
+    /**
+     * Returns the largest contribution of any posting in the specified block.
+     *
+     * @param block the position of the block.
+     * @return the largest contribution.
+     */
+    public double getBlockMaxScore(int block)
+    {
+        if (this.numBlocks == 1)
+            return this.getMaxScore();
+        return this.buffer.getDouble(12 + this.numBlocks * 4 + block * 8);
+    }
+
+    /**
+     * Finds the block that may contain the specified document, scanning forward from a given block.
+     *
+     * @param from  the position of the block to start from.
+     * @param docID the ID of the document.
+     * @return the position of the first block whose last {@code docID} is not smaller than {@code docID}, or {@link
+     * #getNumBlocks} if there is none.
+     */
+    public int findBlock(int from, int docID)
+    {
+        int block = from;
+        while (block < this.numBlocks && this.getBlockLastDocID(block) < docID)
+            block++;
+        return block;
+    }
+}
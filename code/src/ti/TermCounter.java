@@ -0,0 +1,207 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.Arrays;
+
+/**
+ * Counts the occurrences of the terms of a text in one pass, as a {@link DocumentProcessor.TermConsumer}.
+ * <p>
+ * Terms are looked up by their characters in the reused token buffer, with a hash table of open addressing, so that
+ * only the first occurrence of a term copies it. They are kept in the order of their first occurrence.
+ */
+public class TermCounter implements DocumentProcessor.TermConsumer
+{
+    protected char[][] terms = new char[16][];
+    protected int[] hashes = new int[16];
+    protected int[] counts = new int[16];
+    /**
+     * Index of the term in every slot, plus one, or {@code 0} for empty slots. It is kept at most half full.
+     */
+    protected int[] table = new int[32];
+    protected int size = 0;
+    protected int total = 0;
+
+    /**
+     * Adds an occurrence of a term.
+     *
+     * @param buffer the buffer with the term.
+     * @param offset the offset of the term in the buffer.
+     * @param length the length of the term.
+     */
+    @Override
+    public void accept(char[] buffer, int offset, int length)
+    {
+        this.total++;
+        int hash = TermCounter.hash(buffer, offset, length);
+        int slot = this.find(buffer, offset, length, hash);
+        if (this.table[slot] != 0) {
+            this.counts[this.table[slot] - 1]++;
+            return;
+        }
+
+        if (this.size == this.terms.length) {
+            this.terms = Arrays.copyOf(this.terms, this.size * 2);
+            this.hashes = Arrays.copyOf(this.hashes, this.size * 2);
+            this.counts = Arrays.copyOf(this.counts, this.size * 2);
+        }
+        this.terms[this.size] = Arrays.copyOfRange(buffer, offset, offset + length);
+        this.hashes[this.size] = hash;
+        this.counts[this.size] = 1;
+        this.size++;
+        this.table[slot] = this.size;
+        if (this.size * 2 > this.table.length)
+            this.rehash();
+    }
+
+    /**
+     * Returns the number of occurrences of a term.
+     *
+     * @param buffer the buffer with the term.
+     * @param offset the offset of the term in the buffer.
+     * @param length the length of the term.
+     * @return the number of occurrences, or {@code 0} if the term was not added.
+     */
+    public int get(char[] buffer, int offset, int length)
+    {
+        int slot = this.find(buffer, offset, length, TermCounter.hash(buffer, offset, length));
+        return this.table[slot] == 0 ? 0 : this.counts[this.table[slot] - 1];
+    }
+
+    /**
+     * Returns the number of occurrences of a term.
+     *
+     * @param term the term.
+     * @return the number of occurrences, or {@code 0} if the term was not added.
+     */
+    public int get(String term)
+    {
+        return this.get(term.toCharArray(), 0, term.length());
+    }
+
+    /**
+     * Returns the number of distinct terms.
+     *
+     * @return the number of terms.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns the total number of occurrences of all terms.
+     *
+     * @return the number of occurrences.
+     */
+    public int getTotal()
+    {
+        return this.total;
+    }
+
+    /**
+     * Returns a term, in the order of their first occurrence.
+     *
+     * @param i the index of the term.
+     * @return the term.
+     */
+    public String term(int i)
+    {
+        return new String(this.terms[i]);
+    }
+
+    /**
+     * Returns the number of occurrences of a term, in the order of their first occurrence.
+     *
+     * @param i the index of the term.
+     * @return the number of occurrences.
+     */
+    public int count(int i)
+    {
+        return this.counts[i];
+    }
+
+    /**
+     * Removes all terms, keeping the memory allocated for the next text.
+     */
+    public void clear()
+    {
+        Arrays.fill(this.terms, 0, this.size, null);
+        Arrays.fill(this.table, 0);
+        this.size = 0;
+        this.total = 0;
+    }
+
+    /**
+     * Finds the slot of a term in the table: the one with the term, or the empty one where it should be added.
+     *
+     * @param buffer the buffer with the term.
+     * @param offset the offset of the term in the buffer.
+     * @param length the length of the term.
+     * @param hash   the hash of the term.
+     * @return the slot.
+     */
+    protected int find(char[] buffer, int offset, int length, int hash)
+    {
+        int mask = this.table.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (this.table[slot] != 0) {
+            int i = this.table[slot] - 1;
+            if (this.hashes[i] == hash && TermCounter.equals(this.terms[i], buffer, offset, length))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Doubles the size of the table and adds the terms again.
+     */
+    protected void rehash()
+    {
+        this.table = new int[this.table.length * 2];
+        int mask = this.table.length - 1;
+        for (int i = 0; i < this.size; i++) {
+            int slot = (this.hashes[i] ^ (this.hashes[i] >>> 16)) & mask;
+            while (this.table[slot] != 0)
+                slot = (slot + 1) & mask;
+            this.table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * Computes the hash of a term, as {@link String#hashCode} does.
+     *
+     * @param buffer the buffer with the term.
+     * @param offset the offset of the term in the buffer.
+     * @param length the length of the term.
+     * @return the hash.
+     */
+    protected static int hash(char[] buffer, int offset, int length)
+    {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++)
+            hash = 31 * hash + buffer[i];
+        return hash;
+    }
+
+    /**
+     * Tells whether a term equals the characters in a buffer.
+     *
+     * @param term   the term.
+     * @param buffer the buffer.
+     * @param offset the offset of the characters in the buffer.
+     * @param length the number of characters.
+     * @return {@code true} if they are equal.
+     */
+    protected static boolean equals(char[] term, char[] buffer, int offset, int length)
+    {
+        if (term.length != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (term[i] != buffer[offset + i])
+                return false;
+        return true;
+    }
+}
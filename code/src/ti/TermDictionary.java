@@ -0,0 +1,461 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class represents a sorted dictionary of terms, front-coded in blocks and read straight from a byte buffer.
+ * <p>
+ * Terms are sorted by their UTF-8 bytes and identified by their position in that order, their {@code ordinal}. They
+ * are split in blocks of {@link #BLOCK_SIZE} terms; the first term in a block is stored whole, and every other term
+ * is stored as the length of the prefix it shares with the previous term plus the rest of its bytes. Looking up a term
+ * is a binary search over the first term of every block followed by a scan of one block.
+ * <p>
+ * The buffer holds, after the {@code (magic, version, count, blockSize)} header of the index files, the document
+ * frequency of every term, its IDF, the offsets of the blocks, and the blocks themselves.
+ */
+public class TermDictionary
+{
+    /**
+     * Number of terms in a block.
+     */
+    public static final int BLOCK_SIZE = 16;
+
+    protected final ByteBuffer buffer;
+    protected final int count;
+    protected final int numBlocks;
+    protected final int dfStart;
+    protected final int idfStart;
+    protected final int blockOffsetsStart;
+    protected final int blocksStart;
+    /**
+     * Reusable buffers to encode the keys looked up and to decode terms, so that lookups do not allocate.
+     */
+    protected final ThreadLocal<byte[][]> scratch = ThreadLocal.withInitial(() -> new byte[][]{new byte[64], new byte[64]});
+
+    /**
+     * Creates a dictionary over the given buffer.
+     *
+     * @param buffer the buffer with the dictionary, starting with the header of the index files.
+     */
+    public TermDictionary(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+        this.count = buffer.getInt(8);
+        this.numBlocks = (this.count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        this.dfStart = Index.HEADER_BYTES;
+        this.idfStart = this.dfStart + this.count * 4;
+        this.blockOffsetsStart = this.idfStart + this.count * 8;
+        this.blocksStart = this.blockOffsetsStart + (this.numBlocks + 1) * 4;
+    }
+
+    /**
+     * Writes a dictionary with the given terms, after the header of the index files.
+     *
+     * @param out   the output to write to.
+     * @param terms the UTF-8 bytes of the terms, sorted.
+     * @param dfs   the document frequency of every term.
+     * @param idfs  the IDF of every term.
+     * @throws IOException if an error occurs while writing the dictionary.
+     */
+    public static void write(DataOutput out, byte[][] terms, int[] dfs, double[] idfs) throws IOException
+    {
+        for (int df : dfs)
+            out.writeInt(df);
+        for (double idf : idfs)
+            out.writeDouble(idf);
+
+        // Front-code the blocks in memory to know their offsets
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        DataOutputStream blocksOut = new DataOutputStream(blocks);
+        int numBlocks = (terms.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] offsets = new int[numBlocks + 1];
+        for (int i = 0; i < terms.length; i++) {
+            if (i % BLOCK_SIZE == 0) {
+                offsets[i / BLOCK_SIZE] = blocksOut.size();
+                PostingsCodec.writeVByte(blocksOut, terms[i].length);
+                blocksOut.write(terms[i]);
+            } else {
+                int prefix = TermDictionary.commonPrefix(terms[i - 1], terms[i]);
+                PostingsCodec.writeVByte(blocksOut, prefix);
+                PostingsCodec.writeVByte(blocksOut, terms[i].length - prefix);
+                blocksOut.write(terms[i], prefix, terms[i].length - prefix);
+            }
+        }
+        offsets[numBlocks] = blocksOut.size();
+        for (int offset : offsets)
+            out.writeInt(offset);
+        out.write(blocks.toByteArray());
+    }
+
+    /**
+     * Builds a dictionary in memory with the given terms.
+     *
+     * @param terms the UTF-8 bytes of the terms, sorted.
+     * @param dfs   the document frequency of every term.
+     * @param idfs  the IDF of every term.
+     * @return the dictionary.
+     */
+    public static TermDictionary of(byte[][] terms, int[] dfs, double[] idfs)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(Index.MAGIC);
+            out.writeInt(Index.VERSION);
+            out.writeInt(terms.length);
+            out.writeInt(BLOCK_SIZE);
+            TermDictionary.write(out, terms, dfs, idfs);
+        } catch (IOException ex) {
+            // Writing to memory does not fail
+            throw new UncheckedIOException(ex);
+        }
+        return new TermDictionary(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    /**
+     * Returns the number of terms in the dictionary.
+     *
+     * @return the number of terms.
+     */
+    public int size()
+    {
+        return this.count;
+    }
+
+    /**
+     * Returns the document frequency of the specified term.
+     *
+     * @param ordinal the ordinal of the term.
+     * @return the number of documents with the term.
+     */
+    public int getDf(int ordinal)
+    {
+        return this.buffer.getInt(this.dfStart + ordinal * 4);
+    }
+
+    /**
+     * Returns the IDF of the specified term.
+     *
+     * @param ordinal the ordinal of the term.
+     * @return the IDF of the term.
+     */
+    public double getIdf(int ordinal)
+    {
+        return this.buffer.getDouble(this.idfStart + ordinal * 8);
+    }
+
+    /**
+     * Looks up the specified term.
+     *
+     * @param term the term to look up.
+     * @return the ordinal of the term, or {@code -1} if it is not in the dictionary.
+     */
+    public int getOrdinal(CharSequence term)
+    {
+        int ordinal = this.seek(term);
+        return ordinal >= 0 ? ordinal : -1;
+    }
+
+    /**
+     * Returns the specified term.
+     *
+     * @param ordinal the ordinal of the term.
+     * @return the term.
+     */
+    public String getTerm(int ordinal)
+    {
+        TermIterator it = this.iterator(ordinal);
+        it.next();
+        return it.term();
+    }
+
+    /**
+     * Returns an iterator over the terms in the dictionary, in order, starting at the specified ordinal.
+     *
+     * @param ordinal the ordinal of the first term to iterate.
+     * @return the iterator, positioned before that term.
+     */
+    public TermIterator iterator(int ordinal)
+    {
+        return new TermIterator(ordinal, this.count, null);
+    }
+
+    /**
+     * Returns an iterator over the terms in the dictionary that start with the specified prefix, in order.
+     *
+     * @param prefix the prefix.
+     * @return the iterator, positioned before the first term with that prefix.
+     */
+    public TermIterator prefixIterator(CharSequence prefix)
+    {
+        int ordinal = this.seek(prefix);
+        return new TermIterator(ordinal >= 0 ? ordinal : -ordinal - 1, this.count,
+                prefix.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns an iterator over the terms in the dictionary in the range {@code [from, to)}, in order.
+     *
+     * @param from the lower bound of the range, inclusive.
+     * @param to   the upper bound of the range, exclusive.
+     * @return the iterator, positioned before the first term in the range.
+     */
+    public TermIterator rangeIterator(CharSequence from, CharSequence to)
+    {
+        int start = this.seek(from);
+        int end = this.seek(to);
+        return new TermIterator(start >= 0 ? start : -start - 1, end >= 0 ? end : -end - 1, null);
+    }
+
+    /**
+     * Searches the specified term.
+     *
+     * @param term the term to search.
+     * @return the ordinal of the term if it is in the dictionary; otherwise, {@code (-(insertion point) - 1)}, where the
+     * insertion point is the ordinal of the first term greater than it.
+     */
+    protected int seek(CharSequence term)
+    {
+        byte[][] scratch = this.scratch.get();
+        int keyLength = TermDictionary.encode(term, scratch);
+        byte[] key = scratch[0];
+
+        // Find the last block whose first term is not greater than the key
+        int low = 0, high = this.numBlocks - 1, block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int position = this.blocksStart + this.buffer.getInt(this.blockOffsetsStart + mid * 4);
+            int length = TermDictionary.readVByte(this.buffer, position);
+            position += TermDictionary.vByteLength(length);
+            int cmp = this.compare(position, length, key, keyLength);
+            if (cmp == 0)
+                return mid * BLOCK_SIZE;
+            if (cmp < 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0)
+            return -1;
+
+        // Scan the block
+        int position = this.blocksStart + this.buffer.getInt(this.blockOffsetsStart + block * 4);
+        int ordinal = block * BLOCK_SIZE;
+        int end = Math.min(ordinal + BLOCK_SIZE, this.count);
+        int termLength = 0;
+        for (; ordinal < end; ordinal++) {
+            int prefix = 0;
+            if (ordinal % BLOCK_SIZE != 0) {
+                prefix = TermDictionary.readVByte(this.buffer, position);
+                position += TermDictionary.vByteLength(prefix);
+            }
+            int suffix = TermDictionary.readVByte(this.buffer, position);
+            position += TermDictionary.vByteLength(suffix);
+            termLength = prefix + suffix;
+            if (scratch[1].length < termLength)
+                scratch[1] = Arrays.copyOf(scratch[1], termLength * 2);
+            for (int i = 0; i < suffix; i++)
+                scratch[1][prefix + i] = this.buffer.get(position + i);
+            position += suffix;
+
+            int cmp = TermDictionary.compare(scratch[1], termLength, key, keyLength);
+            if (cmp == 0)
+                return ordinal;
+            if (cmp > 0)
+                return -ordinal - 1;
+        }
+        return -ordinal - 1;
+    }
+
+    /**
+     * Compares the term with the given bytes in the buffer against a key.
+     */
+    protected int compare(int position, int length, byte[] key, int keyLength)
+    {
+        for (int i = 0; i < length && i < keyLength; i++) {
+            int cmp = (this.buffer.get(position + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0)
+                return cmp;
+        }
+        return length - keyLength;
+    }
+
+    /**
+     * Compares two byte sequences lexicographically, treating bytes as unsigned.
+     */
+    protected static int compare(byte[] b1, int length1, byte[] b2, int length2)
+    {
+        for (int i = 0; i < length1 && i < length2; i++) {
+            int cmp = (b1[i] & 0xff) - (b2[i] & 0xff);
+            if (cmp != 0)
+                return cmp;
+        }
+        return length1 - length2;
+    }
+
+    /**
+     * Computes the length of the common prefix of two byte arrays.
+     */
+    protected static int commonPrefix(byte[] b1, byte[] b2)
+    {
+        int i = 0;
+        while (i < b1.length && i < b2.length && b1[i] == b2[i])
+            i++;
+        return i;
+    }
+
+    /**
+     * Encodes a term in UTF-8 into the first scratch buffer, growing it if needed.
+     *
+     * @return the number of bytes of the encoded term.
+     */
+    protected static int encode(CharSequence term, byte[][] scratch)
+    {
+        if (scratch[0].length < term.length() * 4)
+            scratch[0] = new byte[term.length() * 4];
+        byte[] key = scratch[0];
+        int n = 0;
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (c < 0x80) {
+                key[n++] = (byte) c;
+            } else if (c < 0x800) {
+                key[n++] = (byte) (0xc0 | (c >> 6));
+                key[n++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < term.length() && Character.isLowSurrogate(term.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, term.charAt(++i));
+                key[n++] = (byte) (0xf0 | (cp >> 18));
+                key[n++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                key[n++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                key[n++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                key[n++] = (byte) '?';
+            } else {
+                key[n++] = (byte) (0xe0 | (c >> 12));
+                key[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                key[n++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Reads a variable-byte integer at the given absolute position of a buffer.
+     */
+    protected static int readVByte(ByteBuffer buffer, int position)
+    {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        while (((b = buffer.get(position++)) & 0x80) == 0) {
+            value |= b << shift;
+            shift += 7;
+        }
+        return value | ((b & 0x7f) << shift);
+    }
+
+    /**
+     * Computes the number of bytes of a variable-byte integer.
+     */
+    protected static int vByteLength(int value)
+    {
+        int length = 1;
+        while (value >= 0x80) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * An iterator over consecutive terms of the dictionary, decoding them as it moves.
+     */
+    public class TermIterator
+    {
+        protected int ordinal;
+        protected final int end;
+        protected final byte[] prefix;
+        protected byte[] term = new byte[64];
+        protected int termLength = 0;
+        protected int position;
+
+        protected TermIterator(int start, int end, byte[] prefix)
+        {
+            this.end = end;
+            this.prefix = prefix;
+
+            // Decode the terms in the block before the start, since they are front-coded
+            int block = start / BLOCK_SIZE;
+            this.ordinal = block * BLOCK_SIZE - 1;
+            this.position = block < numBlocks ? blocksStart + buffer.getInt(blockOffsetsStart + block * 4) : 0;
+            while (this.ordinal < start - 1)
+                this.decodeNext();
+        }
+
+        /**
+         * Moves the iterator to the next term.
+         *
+         * @return {@code true} if the iterator is on a term, or {@code false} if there are no more terms.
+         */
+        public boolean next()
+        {
+            if (this.ordinal + 1 >= this.end)
+                return false;
+            this.decodeNext();
+            if (this.prefix != null && (this.termLength < this.prefix.length
+                    || TermDictionary.compare(this.term, this.prefix.length, this.prefix, this.prefix.length) != 0))
+                return false;
+            return true;
+        }
+
+        /**
+         * Returns the ordinal of the current term.
+         *
+         * @return the ordinal.
+         */
+        public int ordinal()
+        {
+            return this.ordinal;
+        }
+
+        /**
+         * Returns the current term.
+         *
+         * @return the term.
+         */
+        public String term()
+        {
+            return new String(this.term, 0, this.termLength, StandardCharsets.UTF_8);
+        }
+
+        protected void decodeNext()
+        {
+            this.ordinal++;
+            int prefix = 0;
+            if (this.ordinal % BLOCK_SIZE != 0) {
+                prefix = TermDictionary.readVByte(buffer, this.position);
+                this.position += TermDictionary.vByteLength(prefix);
+            }
+            int suffix = TermDictionary.readVByte(buffer, this.position);
+            this.position += TermDictionary.vByteLength(suffix);
+            this.termLength = prefix + suffix;
+            if (this.term.length < this.termLength)
+                this.term = Arrays.copyOf(this.term, this.termLength * 2);
+            for (int i = 0; i < suffix; i++)
+                this.term[prefix + i] = buffer.get(this.position + i);
+            this.position += suffix;
+        }
+    }
+}
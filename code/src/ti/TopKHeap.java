@@ -0,0 +1,151 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Selects the {@code k} documents with the highest scores, with a bounded min-heap over primitive
+ * {@code (docID, score)} pairs, so that ranking {@code n} documents takes {@code O(n log k)} time.
+ * <p>
+ * Documents are ranked by decreasing score, and ties by increasing {@code docID}, as a stable sort of the documents
+ * offered in {@code docID} order would rank them.
+ */
+public class TopKHeap
+{
+    protected final int k;
+    protected final int[] docIDs;
+    protected final double[] scores;
+    protected int size;
+
+    /**
+     * Creates a new heap for the given number of documents.
+     *
+     * @param k the number of documents to select.
+     */
+    public TopKHeap(int k)
+    {
+        if (k <= 0)
+            throw new IllegalArgumentException("The number of documents to select must be positive.");
+        this.k = k;
+        this.docIDs = new int[k];
+        this.scores = new double[k];
+    }
+
+    /**
+     * Offers a document, which is kept if it ranks above the lowest of the {@code k} documents kept so far.
+     *
+     * @param docID the ID of the document.
+     * @param score the score of the document.
+     */
+    public void offer(int docID, double score)
+    {
+        if (this.size < this.k) {
+            int i = this.size++;
+            // Sift up
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!TopKHeap.ranksAbove(this.docIDs[parent], this.scores[parent], docID, score))
+                    break;
+                this.docIDs[i] = this.docIDs[parent];
+                this.scores[i] = this.scores[parent];
+                i = parent;
+            }
+            this.docIDs[i] = docID;
+            this.scores[i] = score;
+        } else if (TopKHeap.ranksAbove(docID, score, this.docIDs[0], this.scores[0]))
+            this.siftDown(docID, score);
+    }
+
+    /**
+     * Checks whether the heap holds {@code k} documents, so that others must rank above the {@link #lowestScore}.
+     *
+     * @return {@code true} if the heap is full and {@code false} otherwise.
+     */
+    public boolean isFull()
+    {
+        return this.size == this.k;
+    }
+
+    /**
+     * Returns the lowest score of the documents kept.
+     *
+     * @return the lowest score, or {@link Double#NEGATIVE_INFINITY} if the heap is not full.
+     */
+    public double lowestScore()
+    {
+        return this.isFull() ? this.scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Returns the number of documents kept.
+     *
+     * @return the number of documents.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns the documents kept, sorted by decreasing score, and empties the heap.
+     *
+     * @return a list of {@link Tuple}s where the first item is the {@code docID} and the second one the score.
+     */
+    public ArrayList<Tuple<Integer, Double>> results()
+    {
+        ArrayList<Tuple<Integer, Double>> results = new ArrayList<>(this.size);
+        // Pop the lowest documents first
+        while (this.size > 0) {
+            results.add(new Tuple<>(this.docIDs[0], this.scores[0]));
+            this.size--;
+            if (this.size > 0)
+                this.siftDown(this.docIDs[this.size], this.scores[this.size]);
+        }
+        Collections.reverse(results);
+        return results;
+    }
+
+    /**
+     * Places a document in the root and sifts it down to its position among the first {@code size} documents.
+     *
+     * @param docID the ID of the document.
+     * @param score the score of the document.
+     */
+    protected void siftDown(int docID, double score)
+    {
+        int i = 0;
+        int half = this.size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < this.size
+                    && TopKHeap.ranksAbove(this.docIDs[child], this.scores[child], this.docIDs[right], this.scores[right]))
+                child = right;
+            if (!TopKHeap.ranksAbove(docID, score, this.docIDs[child], this.scores[child]))
+                break;
+            this.docIDs[i] = this.docIDs[child];
+            this.scores[i] = this.scores[child];
+            i = child;
+        }
+        this.docIDs[i] = docID;
+        this.scores[i] = score;
+    }
+
+    /**
+     * Checks whether a document ranks above another one.
+     *
+     * @param docID1 the ID of the first document.
+     * @param score1 the score of the first document.
+     * @param docID2 the ID of the second document.
+     * @param score2 the score of the second document.
+     * @return {@code true} if the first document ranks above the second one.
+     */
+    protected static boolean ranksAbove(int docID1, double score1, int docID2, double score2)
+    {
+        int c = Double.compare(score1, score2);
+        return c > 0 || (c == 0 && docID1 < docID2);
+    }
+}
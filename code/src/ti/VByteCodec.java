@@ -0,0 +1,56 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A block codec that stores each gap and term frequency with variable-byte encoding.
+ */
+public class VByteCodec extends BlockCodec
+{
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getID()
+    {
+        return 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName()
+    {
+        return "vbyte";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void encodeBlock(DataOutput out, int[] gaps, int[] tfs, int n) throws IOException
+    {
+        for (int i = 0; i < n; i++) {
+            PostingsCodec.writeVByte(out, gaps[i]);
+            PostingsCodec.writeVByte(out, tfs[i]);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void decodeBlock(ByteBuffer in, int[] gaps, int[] tfs, int n)
+    {
+        for (int i = 0; i < n; i++) {
+            gaps[i] = PostingsCodec.readVByte(in);
+            tfs[i] = PostingsCodec.readVByte(in);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+// Copyright (C) 2015  Julián Urbano <urbano.julian@gmail.com>
+// Distributed under the terms of the MIT License.
+
+package ti;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+
+/**
+ * Implements retrieval with the cosine similarity function, processing documents one at a time with WAND or
+ * Block-Max WAND dynamic pruning.
+ * <p>
+ * The postings of all query terms are traversed in parallel, in {@code docID} order. A document is only scored if the
+ * upper bounds of the contributions of the terms it may contain, saved in the index as {@link TermBounds}, add up to
+ * more than the lowest score in the top {@code k}; with Block-Max WAND the bounds of the blocks of postings around the
+ * document are checked too, and whole blocks are skipped. The top documents and their scores are the same as those of
+ * {@link Cosine}, which is used if the index has no bounds.
+ */
+public class WandCosine extends Cosine
+{
+	/**
+	 * Relative margin added to the upper bounds, so that rounding errors never make a bound fall below a score.
+	 */
+	protected static final double BOUND_SLACK = 1e-12;
+
+	protected final boolean blockMax;
+
+	/**
+	 * Creates a new retriever with WAND or Block-Max WAND pruning.
+	 *
+	 * @param blockMax whether to check the bounds of blocks of postings too, as in Block-Max WAND.
+	 */
+	public WandCosine(boolean blockMax)
+	{
+		super();
+		this.blockMax = blockMax;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Pruning also reads the upper bounds of terms and blocks.
+	 */
+	@Override
+	public EnumSet<Index.Structure> getRequiredStructures()
+	{
+		return EnumSet.of(Index.Structure.INVERTED, Index.Structure.BOUNDS);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected ArrayList<Tuple<Integer, Double>> computeScores(ArrayList<Tuple<Integer, Double>> queryVector, Index index,
+	                                                          int k)
+	{
+		if (!index.hasBounds())
+			return super.computeScores(queryVector, index, k);
+
+		TopKHeap results = new TopKHeap(k);
+		double sumWeightSq = 0.0;
+		for (Tuple<Integer, Double> term : queryVector)
+			sumWeightSq += Math.pow(term.item2, 2.0);
+		double inverseQueryNorm = 1.0 / Math.sqrt(sumWeightSq);
+
+		// Terms in query order, to add up contributions as Cosine does, and sorted by their current docID
+		TermCursor[] terms = new TermCursor[queryVector.size()];
+		TermCursor[] sorted = new TermCursor[queryVector.size()];
+		int active = 0;
+		for (int i = 0; i < terms.length; i++) {
+			Tuple<Integer, Double> term = queryVector.get(i);
+			terms[i] = new TermCursor(term.item2, index.getInvertedPostings(term.item1),
+					index.getTermBounds(term.item1), inverseQueryNorm);
+			if (terms[i].next())
+				sorted[active++] = terms[i];
+		}
+
+		long postings = 0, documents = 0;
+		double threshold = results.lowestScore();
+		while (active > 0) {
+			WandCosine.sortByDocID(sorted, active);
+
+			// The pivot is the first term at which the bounds of the terms so far exceed the threshold: documents
+			// before its docID can only contain the previous terms, so they can not enter the top k
+			int pivot = -1;
+			double bound = 0;
+			for (int i = 0; i < active; i++) {
+				bound += sorted[i].maxScore;
+				if (bound > threshold) {
+					pivot = i;
+					break;
+				}
+			}
+			if (pivot < 0)
+				break;
+			int pivotDoc = sorted[pivot].docID;
+			while (pivot + 1 < active && sorted[pivot + 1].docID == pivotDoc)
+				pivot++;
+
+			if (this.blockMax) {
+				// Check the bounds of the blocks that may contain the pivot document
+				double blockBound = 0;
+				for (int i = 0; i <= pivot; i++)
+					blockBound += sorted[i].blockMaxScore(pivotDoc);
+				if (blockBound <= threshold) {
+					// No document can enter the top k until one of these blocks ends or another term starts
+					int next = Integer.MAX_VALUE;
+					for (int i = 0; i <= pivot; i++)
+						next = Math.min(next, sorted[i].blockLastDocID());
+					next = next == Integer.MAX_VALUE ? next : next + 1;
+					if (pivot + 1 < active)
+						next = Math.min(next, sorted[pivot + 1].docID);
+					for (int i = 0; i <= pivot; i++)
+						sorted[i].advance(next);
+					active = WandCosine.removeExhausted(sorted, active);
+					continue;
+				}
+			}
+
+			if (sorted[0].docID == pivotDoc) {
+				// All the terms up to the pivot are on the pivot document, so score it
+				double docWeight = 0.0;
+				for (TermCursor term : terms)
+					if (term.docID == pivotDoc) {
+						docWeight += term.cursor.weight() * term.weightQuery;
+						postings++;
+					}
+				documents++;
+				if (index.isLive(pivotDoc)) {
+					results.offer(pivotDoc, docWeight * index.getInverseDocNorm(pivotDoc) * inverseQueryNorm);
+					threshold = results.lowestScore();
+				}
+				for (int i = 0; i <= pivot; i++)
+					sorted[i].next();
+			} else {
+				// Move the terms before the pivot up to its document
+				for (int i = 0; i < pivot && sorted[i].docID < pivotDoc; i++)
+					sorted[i].advance(pivotDoc);
+			}
+			active = WandCosine.removeExhausted(sorted, active);
+		}
+		this.postingsScored.add(postings);
+		this.documentsScored.add(documents);
+
+		return results.results();
+	}
+
+	/**
+	 * Sorts the first terms by their current {@code docID}, with an insertion sort because queries have few terms and
+	 * they are nearly sorted from the previous iteration.
+	 *
+	 * @param terms the terms.
+	 * @param count the number of terms to sort.
+	 */
+	protected static void sortByDocID(TermCursor[] terms, int count)
+	{
+		for (int i = 1; i < count; i++) {
+			TermCursor term = terms[i];
+			int j = i - 1;
+			while (j >= 0 && terms[j].docID > term.docID) {
+				terms[j + 1] = terms[j];
+				j--;
+			}
+			terms[j + 1] = term;
+		}
+	}
+
+	/**
+	 * Removes the terms whose postings are exhausted, keeping the order of the rest.
+	 *
+	 * @param terms the terms.
+	 * @param count the number of terms.
+	 * @return the number of terms left.
+	 */
+	protected static int removeExhausted(TermCursor[] terms, int count)
+	{
+		int left = 0;
+		for (int i = 0; i < count; i++)
+			if (terms[i].docID != Integer.MAX_VALUE)
+				terms[left++] = terms[i];
+		return left;
+	}
+
+	/**
+	 * The postings of a query term, with the upper bounds of their contributions to the score.
+	 */
+	protected static class TermCursor
+	{
+		protected final double weightQuery;
+		protected final PostingsCursor cursor;
+		protected final TermBounds bounds;
+		/**
+		 * Factor that turns a contribution {@code weight/norm} of the term into an upper bound of the score.
+		 */
+		protected final double scale;
+		/**
+		 * Upper bound of the contribution of the term to the score of any document.
+		 */
+		protected final double maxScore;
+		/**
+		 * The current {@code docID}, or {@link Integer#MAX_VALUE} if the postings are exhausted.
+		 */
+		protected int docID = -1;
+		/**
+		 * The position of the current block of bounds, which is never behind the cursor.
+		 */
+		protected int block = 0;
+
+		/**
+		 * Creates the postings of a query term.
+		 *
+		 * @param weightQuery      the weight of the term in the query.
+		 * @param cursor           the cursor over the postings of the term.
+		 * @param bounds           the bounds of the contributions of the term.
+		 * @param inverseQueryNorm the reciprocal of the norm of the query.
+		 */
+		protected TermCursor(double weightQuery, PostingsCursor cursor, TermBounds bounds, double inverseQueryNorm)
+		{
+			this.weightQuery = weightQuery;
+			this.cursor = cursor;
+			this.bounds = bounds;
+			this.scale = weightQuery * inverseQueryNorm * (1 + BOUND_SLACK);
+			this.maxScore = bounds.getMaxScore() * this.scale;
+		}
+
+		/**
+		 * Moves to the next posting.
+		 *
+		 * @return {@code true} if the cursor is on a posting, or {@code false} if the postings are exhausted.
+		 */
+		protected boolean next()
+		{
+			this.docID = this.cursor.next() ? this.cursor.docID() : Integer.MAX_VALUE;
+			return this.docID != Integer.MAX_VALUE;
+		}
+
+		/**
+		 * Moves forward to the first posting with a {@code docID} greater than or equal to {@code target}.
+		 *
+		 * @param target the {@code docID} to advance to.
+		 */
+		protected void advance(int target)
+		{
+			if (this.docID < target)
+				this.docID = this.cursor.advance(target) ? this.cursor.docID() : Integer.MAX_VALUE;
+		}
+
+		/**
+		 * Moves to the block that may contain the specified document, and returns the upper bound of the contribution
+		 * of the term to the score of the documents in it.
+		 *
+		 * @param docID the ID of the document, not before the current one.
+		 * @return the upper bound, or {@code 0} if no block may contain the document.
+		 */
+		protected double blockMaxScore(int docID)
+		{
+			this.block = this.bounds.findBlock(this.block, docID);
+			return this.block < this.bounds.getNumBlocks() ? this.bounds.getBlockMaxScore(this.block) * this.scale : 0;
+		}
+
+		/**
+		 * Returns the last {@code docID} in the current block, found by {@link #blockMaxScore}.
+		 *
+		 * @return the last {@code docID}, or {@link Integer#MAX_VALUE} if there are no more blocks.
+		 */
+		protected int blockLastDocID()
+		{
+			return this.block < this.bounds.getNumBlocks() ? this.bounds.getBlockLastDocID(this.block)
+					: Integer.MAX_VALUE;
+		}
+	}
+}